@@ -0,0 +1,170 @@
+package loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Envoie un trafic mêlé /add, /view et /list à un serveur WebPageSaver, à débit imposé.
+ *
+ * La charge est ouverte : les requêtes partent aux instants prévus
+ * (intervalles réguliers, ou exponentiels pour un processus de Poisson),
+ * que les réponses précédentes soient arrivées ou non. La latence est
+ * mesurée depuis l'instant prévu et non depuis l'envoi effectif : quand le
+ * serveur ralentit, l'attente des requêtes en retard est comptée au lieu
+ * d'être masquée (« coordinated omission »).
+ */
+public class GenerateurCharge {
+
+    /**
+     * Les mesures d'un point d'accès.
+     */
+    public static class Mesures {
+        public final Histogramme latences = new Histogramme();
+        public final AtomicLong erreurs = new AtomicLong();
+    }
+
+    private final String serveur;
+    private final int portOrigine;
+    private final int nbPages;
+    private final int nbHotes;
+    private final Map<String, Integer> melange;
+    private final boolean poisson;
+    private final Map<String, Mesures> mesures = new LinkedHashMap<>();
+    // Pages sauvegardées avec succès : les /view portent sur elles
+    private final List<String> sauvegardees = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param serveur L'adresse du serveur WebPageSaver (hôte:port)
+     * @param portOrigine Le port de l'origine factice
+     * @param nbPages Le nombre de pages distinctes de l'origine
+     * @param nbHotes Le nombre d'hôtes sur lesquels les pages sont réparties (127.0.0.1, 127.0.0.2...)
+     * @param melange Le poids de chaque point d'accès (add, view, list)
+     * @param poisson true pour des arrivées aléatoires (processus de Poisson), false pour des intervalles réguliers
+     */
+    public GenerateurCharge(String serveur, int portOrigine, int nbPages, int nbHotes, Map<String, Integer> melange, boolean poisson) {
+        this.serveur = serveur;
+        this.portOrigine = portOrigine;
+        this.nbPages = nbPages;
+        this.nbHotes = Math.max(1, Math.min(254, nbHotes));
+        this.melange = melange;
+        this.poisson = poisson;
+        for (String point : new String[]{"add", "view", "list"}) {
+            mesures.put(point, new Mesures());
+        }
+    }
+
+    /**
+     * Envoie des requêtes pendant une durée donnée.
+     * @param debit Le nombre de requêtes par seconde
+     * @param dureeMillis La durée de l'envoi
+     * @param mesurer false pour un échauffement (les latences ne sont pas comptées)
+     * @return La durée réelle, en nanosecondes, jusqu'à la dernière réponse
+     */
+    public long executer(double debit, long dureeMillis, boolean mesurer) throws InterruptedException {
+        // Assez de threads pour ne jamais retenir un envoi : c'est le serveur qui doit ralentir, pas le client
+        ExecutorService envois = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "charge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodeNanos = (long) (TimeUnit.SECONDS.toNanos(1) / debit);
+        long debut = System.nanoTime();
+        long fin = debut + TimeUnit.MILLISECONDS.toNanos(dureeMillis);
+        long prevu = debut;
+        while (prevu < fin) {
+            long attente = prevu - System.nanoTime();
+            if (attente > 0) {
+                LockSupport.parkNanos(attente);
+            }
+            long instant = prevu;
+            String point = tirer();
+            envois.execute(() -> envoyer(point, instant, mesurer));
+            prevu += poisson ? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * periodeNanos) : periodeNanos;
+        }
+        envois.shutdown();
+        envois.awaitTermination(5, TimeUnit.MINUTES);
+        return System.nanoTime() - debut;
+    }
+
+    public Map<String, Mesures> mesures() {
+        return mesures;
+    }
+
+    private String tirer() {
+        int somme = 0;
+        for (int poids : melange.values()) {
+            somme += poids;
+        }
+        int tirage = ThreadLocalRandom.current().nextInt(somme);
+        for (Map.Entry<String, Integer> point : melange.entrySet()) {
+            tirage -= point.getValue();
+            if (tirage < 0) {
+                return point.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private void envoyer(String point, long instantPrevu, boolean mesurer) {
+        String page = null;
+        String requete;
+        if (point.equals("view") && !sauvegardees.isEmpty()) {
+            page = sauvegardees.get(ThreadLocalRandom.current().nextInt(sauvegardees.size()));
+            requete = "/view?url=" + URLEncoder.encode(page, StandardCharsets.UTF_8);
+        } else if (point.equals("list")) {
+            requete = "/list";
+        } else {
+            // Un /add, ou un /view alors qu'aucune page n'est encore sauvegardée : il est alors compté comme /add
+            point = "add";
+            int numero = ThreadLocalRandom.current().nextInt(nbPages);
+            page = "http://127.0.0." + (1 + numero % nbHotes) + ":" + portOrigine + "/page/" + numero + ".html";
+            requete = "/add?url=" + URLEncoder.encode(page, StandardCharsets.UTF_8);
+        }
+
+        int code;
+        try {
+            code = get("http://" + serveur + requete);
+        } catch (IOException e) {
+            code = -1;
+        }
+        long latenceMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - instantPrevu);
+        if (code == 200 && point.equals("add") && !sauvegardees.contains(page)) {
+            sauvegardees.add(page);
+        }
+        if (mesurer) {
+            Mesures m = mesures.get(point);
+            m.latences.ajouter(latenceMicros);
+            if (code != 200) {
+                m.erreurs.incrementAndGet();
+            }
+        }
+    }
+
+    // Envoie une requête GET et lit toute la réponse (la connexion peut ainsi être réutilisée)
+    static int get(String adresse) throws IOException {
+        HttpURLConnection connexion = (HttpURLConnection) new URL(adresse).openConnection();
+        connexion.setConnectTimeout(10000);
+        connexion.setReadTimeout(120000);
+        int code = connexion.getResponseCode();
+        try (InputStream in = code < 400 ? connexion.getInputStream() : connexion.getErrorStream()) {
+            if (in != null) {
+                in.readAllBytes();
+            }
+        }
+        return code;
+    }
+}
@@ -0,0 +1,76 @@
+package loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de latences, alimenté par plusieurs threads sans verrou.
+ *
+ * Les valeurs (en microsecondes) sont rangées dans des classes
+ * logarithmiques : 32 classes par puissance de deux au-delà de 64, soit une
+ * précision d'environ 3 %, avec une mémoire fixe quel que soit le nombre de
+ * mesures. Les valeurs inférieures à 64 sont exactes.
+ */
+public class Histogramme {
+    private static final int SOUS_CLASSES = 32;
+    private static final int NB_CLASSES = 64 + (63 - 6) * SOUS_CLASSES;
+
+    private final AtomicLongArray comptes = new AtomicLongArray(NB_CLASSES);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong maximum = new AtomicLong();
+
+    /**
+     * @param micros Une latence en microsecondes
+     */
+    public void ajouter(long micros) {
+        long valeur = Math.max(0, micros);
+        comptes.incrementAndGet(classe(valeur));
+        total.incrementAndGet();
+        maximum.accumulateAndGet(valeur, Math::max);
+    }
+
+    public long total() {
+        return total.get();
+    }
+
+    public long maximum() {
+        return maximum.get();
+    }
+
+    /**
+     * @param quantile Entre 0 et 1 (0.99 pour p99)
+     * @return La borne inférieure de la classe qui contient ce quantile, en microsecondes
+     */
+    public long quantile(double quantile) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rang = Math.max(1, (long) Math.ceil(quantile * n));
+        long cumul = 0;
+        for (int i = 0; i < NB_CLASSES; i++) {
+            cumul += comptes.get(i);
+            if (cumul >= rang) {
+                return Math.min(valeur(i), maximum.get());
+            }
+        }
+        return maximum.get();
+    }
+
+    static int classe(long valeur) {
+        if (valeur < 64) {
+            return (int) valeur;
+        }
+        int exposant = 63 - Long.numberOfLeadingZeros(valeur);
+        return 64 + (exposant - 6) * SOUS_CLASSES + (int) ((valeur >>> (exposant - 5)) & (SOUS_CLASSES - 1));
+    }
+
+    static long valeur(int classe) {
+        if (classe < 64) {
+            return classe;
+        }
+        int exposant = (classe - 64) / SOUS_CLASSES + 6;
+        long sousClasse = (classe - 64) % SOUS_CLASSES;
+        return (SOUS_CLASSES + sousClasse) << (exposant - 5);
+    }
+}
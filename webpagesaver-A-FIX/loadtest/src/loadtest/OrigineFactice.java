@@ -0,0 +1,133 @@
+package loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+/**
+ * Serveur d'origine local qui sert des pages synthétiques, pour tester
+ * WebPageSaver sans réseau.
+ *
+ * GET /page/n.html renvoie une page HTML d'environ taille octets,
+ * contenant complexite éléments par kilo-octet (blocs style, div avec
+ * attribut style, images), ce qu'analysent les extracteurs de
+ * WebPageSaver. Le contenu ne dépend que de n : deux requêtes pour la même
+ * page rendent les mêmes octets, avec le même ETag, et une requête
+ * conditionnelle répond 304.
+ */
+public class OrigineFactice {
+
+    // Vocabulaire des pages : du texte et des styles répétitifs, comme une vraie page
+    private static final String[] MOTS = {
+        "archive", "page", "sauvegarde", "compression", "le", "la", "des", "une", "contenu", "serveur",
+        "article", "lien", "image", "titre", "section", "menu", "navigation", "recherche", "accueil", "contact"
+    };
+    private static final String[] PROPRIETES = {
+        "color: #333", "margin: 0 auto", "padding: 4px 8px", "font-size: 14px", "display: flex",
+        "border: 1px solid #ccc", "background: #fafafa", "line-height: 1.5", "text-align: center"
+    };
+
+    private final int taille;
+    private final int complexite;
+    private HttpServer serveur;
+
+    /**
+     * @param taille La taille approximative d'une page, en octets
+     * @param complexite Le nombre d'éléments (styles, images) par kilo-octet de page
+     */
+    public OrigineFactice(int taille, int complexite) {
+        this.taille = taille;
+        this.complexite = complexite;
+    }
+
+    /**
+     * Démarre le serveur sur toutes les adresses locales : 127.0.0.2, 127.0.0.3... sont autant d'hôtes distincts pour WebPageSaver.
+     * @param port Le port, ou 0 pour un port libre
+     * @return Le port utilisé
+     */
+    public int demarrer(int port) throws IOException {
+        serveur = HttpServer.create(new InetSocketAddress(port), 0);
+        serveur.setExecutor(Executors.newCachedThreadPool());
+        serveur.createContext("/page/", this::servir);
+        serveur.start();
+        return serveur.getAddress().getPort();
+    }
+
+    public void arreter() {
+        if (serveur != null) {
+            serveur.stop(0);
+        }
+    }
+
+    private void servir(HttpExchange exchange) throws IOException {
+        String chemin = exchange.getRequestURI().getPath();
+        int numero;
+        try {
+            numero = Integer.parseInt(chemin.substring("/page/".length(), chemin.length() - ".html".length()));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        String etag = "\"p" + numero + "-" + taille + "-" + complexite + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] page = page(numero).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, page.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(page);
+        }
+    }
+
+    /**
+     * @param numero Le numéro de la page
+     * @return Son contenu, toujours le même pour un numéro donné
+     */
+    String page(int numero) {
+        Random aleatoire = new Random(numero);
+        StringBuilder page = new StringBuilder(taille + 256);
+        page.append("<html><head><title>Page ").append(numero).append("</title>\n");
+        page.append("<style>body { ").append(propriete(aleatoire)).append("; }</style></head>\n<body>\n");
+
+        // Un élément tous les 1024 / complexite octets de texte
+        int intervalle = complexite > 0 ? Math.max(1, 1024 / complexite) : Integer.MAX_VALUE;
+        int prochainElement = page.length() + intervalle;
+        while (page.length() < taille) {
+            if (page.length() >= prochainElement) {
+                switch (aleatoire.nextInt(3)) {
+                    case 0:
+                        page.append("<style>.c").append(aleatoire.nextInt(100)).append(" { ")
+                                .append(propriete(aleatoire)).append("; }</style>\n");
+                        break;
+                    case 1:
+                        page.append("<div style=\"").append(propriete(aleatoire)).append("\">");
+                        break;
+                    default:
+                        page.append("<img src=\"/img/").append(aleatoire.nextInt(1000)).append(".png\" alt=\"\">\n");
+                        break;
+                }
+                prochainElement = page.length() + intervalle;
+            }
+            page.append(MOTS[aleatoire.nextInt(MOTS.length)]).append(aleatoire.nextInt(8) == 0 ? ".\n" : " ");
+        }
+        page.append("</body></html>\n");
+        return page.toString();
+    }
+
+    private static String propriete(Random aleatoire) {
+        return PROPRIETES[aleatoire.nextInt(PROPRIETES.length)];
+    }
+}
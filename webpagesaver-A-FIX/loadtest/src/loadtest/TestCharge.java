@@ -0,0 +1,194 @@
+package loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Test de charge de WebPageSaver, entièrement local et hors ligne.
+ *
+ * Démarre une origine factice (OrigineFactice), lance un vrai serveur
+ * WebPageSaver dans un processus séparé et un répertoire temporaire (ou
+ * utilise celui donné par --serveur), l'échauffe, puis lui envoie un
+ * trafic /add, /view et /list à débit imposé (GenerateurCharge). Affiche
+ * le débit obtenu et les latences p50, p99 et p999 de chaque point d'accès.
+ *
+ * usage: java -cp <classes de webpagesaver et de loadtest> loadtest.TestCharge [--option=valeur...]
+ *   --debit=50             requêtes par seconde
+ *   --duree=30             durée de la mesure, en secondes
+ *   --echauffement=5       durée de l'échauffement (non mesuré), en secondes
+ *   --melange=add:30,view:60,list:10
+ *   --pages=1000           nombre de pages distinctes de l'origine
+ *   --hotes=4              nombre d'hôtes (127.0.0.1 à 127.0.0.n)
+ *   --taille=20000         taille d'une page, en octets
+ *   --complexite=8         éléments (styles, images) par kilo-octet
+ *   --arrivees=poisson     ou « regulieres »
+ *   --serveur=hote:port    serveur déjà lancé (sinon un serveur est lancé puis arrêté)
+ *   --garder=false         garder le répertoire du serveur lancé
+ * Les options -Dwebpagesaver.* de la JVM sont transmises au serveur lancé.
+ */
+public class TestCharge {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.out.println("Option invalide: " + arg);
+                return;
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        double debit = Double.parseDouble(options.getOrDefault("debit", "50"));
+        long dureeMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("duree", "30")));
+        long echauffementMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("echauffement", "5")));
+        Map<String, Integer> melange = melange(options.getOrDefault("melange", "add:30,view:60,list:10"));
+        int pages = Integer.parseInt(options.getOrDefault("pages", "1000"));
+        int hotes = Integer.parseInt(options.getOrDefault("hotes", "4"));
+        int taille = Integer.parseInt(options.getOrDefault("taille", "20000"));
+        int complexite = Integer.parseInt(options.getOrDefault("complexite", "8"));
+        boolean poisson = !options.getOrDefault("arrivees", "poisson").equals("regulieres");
+        boolean garder = Boolean.parseBoolean(options.getOrDefault("garder", "false"));
+
+        OrigineFactice origine = new OrigineFactice(taille, complexite);
+        int portOrigine = origine.demarrer(0);
+        System.out.println("Origine factice sur le port " + portOrigine + " (" + pages + " pages de " + taille + " octets, " + hotes + " hôtes)");
+
+        String serveur = options.get("serveur");
+        Process processus = null;
+        Path repertoire = null;
+        try {
+            if (serveur == null) {
+                repertoire = Files.createTempDirectory("webpagesaver-charge");
+                int port = portLibre();
+                processus = lancerServeur(repertoire, port);
+                serveur = "127.0.0.1:" + port;
+                attendreServeur(serveur, processus);
+                System.out.println("Serveur WebPageSaver lancé sur " + serveur + " dans " + repertoire);
+            }
+
+            GenerateurCharge generateur = new GenerateurCharge(serveur, portOrigine, pages, hotes, melange, poisson);
+            if (echauffementMillis > 0) {
+                System.out.println("Échauffement : " + echauffementMillis / 1000 + " s");
+                generateur.executer(debit, echauffementMillis, false);
+            }
+            System.out.println("Mesure : " + dureeMillis / 1000 + " s à " + debit + " requêtes/s (" + (poisson ? "arrivées de Poisson" : "arrivées régulières") + ")");
+            long dureeNanos = generateur.executer(debit, dureeMillis, true);
+            rapport(generateur.mesures(), dureeNanos);
+        } finally {
+            if (processus != null) {
+                arreterServeur(serveur, processus);
+            }
+            origine.arreter();
+            if (repertoire != null && !garder) {
+                supprimer(repertoire);
+            }
+        }
+    }
+
+    // add:30,view:60,list:10
+    private static Map<String, Integer> melange(String texte) {
+        Map<String, Integer> melange = new LinkedHashMap<>();
+        for (String part : texte.split(",")) {
+            String[] champs = part.split(":");
+            if (!champs[0].equals("add") && !champs[0].equals("view") && !champs[0].equals("list")) {
+                throw new IllegalArgumentException("Point d'accès inconnu: " + champs[0]);
+            }
+            melange.put(champs[0], Integer.parseInt(champs[1]));
+        }
+        return melange;
+    }
+
+    private static void rapport(Map<String, GenerateurCharge.Mesures> mesures, long dureeNanos) {
+        double secondes = dureeNanos / 1e9;
+        System.out.println();
+        System.out.printf("%-6s %9s %8s %10s %10s %10s %10s %10s%n", "point", "requêtes", "erreurs", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        long total = 0;
+        for (Map.Entry<String, GenerateurCharge.Mesures> entree : mesures.entrySet()) {
+            Histogramme h = entree.getValue().latences;
+            if (h.total() == 0) {
+                continue;
+            }
+            total += h.total();
+            System.out.printf("/%-5s %9d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n", entree.getKey(), h.total(),
+                    entree.getValue().erreurs.get(), h.total() / secondes,
+                    h.quantile(0.50) / 1000.0, h.quantile(0.99) / 1000.0, h.quantile(0.999) / 1000.0, h.maximum() / 1000.0);
+        }
+        System.out.printf("total  %9d %8s %10.1f%n", total, "", total / secondes);
+    }
+
+    private static int portLibre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Lance « WebPageSaver start » avec le même classpath, dans son propre répertoire (donc son propre cache)
+    private static Process lancerServeur(Path repertoire, int port) throws IOException {
+        List<String> commande = new ArrayList<>();
+        commande.add(ProcessHandle.current().info().command().orElse("java"));
+        commande.add("-Djava.awt.headless=true");
+        commande.add("-Dwebpagesaver.port=" + port);
+        // Pas de rafraîchissement de fond pendant la mesure, sauf demande explicite
+        commande.add("-Dwebpagesaver.rafraichissementMinutes=0");
+        for (String nom : System.getProperties().stringPropertyNames()) {
+            if (nom.startsWith("webpagesaver.")) {
+                commande.add("-D" + nom + "=" + System.getProperty(nom));
+            }
+        }
+        commande.add("-cp");
+        commande.add(System.getProperty("java.class.path"));
+        commande.add("webpagesaver.WebPageSaver");
+        commande.add("start");
+        return new ProcessBuilder(commande)
+                .directory(repertoire.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(repertoire.resolve("serveur.log").toFile())
+                .start();
+    }
+
+    private static void attendreServeur(String serveur, Process processus) throws IOException, InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < limite) {
+            if (!processus.isAlive()) {
+                throw new IOException("Le serveur s'est arrêté au démarrage (code " + processus.exitValue() + ")");
+            }
+            try {
+                if (GenerateurCharge.get("http://" + serveur + "/test") == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Pas encore prêt
+            }
+            Thread.sleep(100);
+        }
+        throw new IOException("Le serveur ne répond pas sur " + serveur);
+    }
+
+    private static void arreterServeur(String serveur, Process processus) throws InterruptedException {
+        try {
+            GenerateurCharge.get("http://" + serveur + "/stop");
+        } catch (IOException e) {
+            // Déjà arrêté
+        }
+        if (!processus.waitFor(10, TimeUnit.SECONDS)) {
+            processus.destroyForcibly();
+        }
+    }
+
+    private static void supprimer(Path repertoire) throws IOException {
+        try (Stream<Path> chemins = Files.walk(repertoire)) {
+            for (Path chemin : (Iterable<Path>) chemins.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(chemin);
+            }
+        }
+    }
+}
@@ -6,7 +6,9 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,6 +24,60 @@ import java.util.PriorityQueue;
 @SuppressWarnings("unused")
 public class ArbreBinaire implements Comparator<Noeud>{
 	/**
+	 * Signature des fichiers au format binaire ("WC"), suivie du mode d'encodage.
+	 * L'ancien format commence par un caractère sur 8 bits suivi du séparateur
+	 * 01111111110 : son deuxième octet vaut toujours 0x7F et ne peut pas être 'C'.
+	 */
+	public static final byte[] SIGNATURE = {'W', 'C'};
+	
+	/**
+	 * Mode d'encodage : Huffman canonique, sur 1 ou 4 flux entrelacés.
+	 */
+	public static final byte MODE_HUFFMAN = 1;
+	
+	/**
+	 * Mode d'encodage : tANS (voir CodeurANS).
+	 */
+	public static final byte MODE_ANS = 2;
+	
+	/**
+	 * Mode d'encodage : Huffman d'ordre 1, une table par groupe de contextes (voir CodeurContexte).
+	 */
+	public static final byte MODE_CONTEXTE = 3;
+	
+	/**
+	 * Bit de l'octet de paramètre du mode Huffman (qui porte le nombre de
+	 * flux) : la table de codes n'est pas dans le contenu, qui ne contient
+	 * qu'une référence à une table partagée (voir Tables).
+	 */
+	public static final int TABLE_EXTERNE = 0x80;
+	
+	/**
+	 * Trouve une table de codes partagée à partir de la référence écrite
+	 * dans un contenu encodé avec une table externe.
+	 */
+	public interface Tables {
+		/**
+		 * @param reference La référence de la table
+		 * @return La table
+		 * @throws IllegalArgumentException Si la table est inconnue
+		 */
+		TableHuffman table(byte[] reference);
+	}
+	
+	/**
+	 * Taille maximale d'un bloc, en octets. Chaque bloc est découpé en flux
+	 * indépendants qui partagent la table de codes du fichier.
+	 */
+	public static final int TAILLE_BLOC = 1 << 17;
+	
+	/**
+	 * Longueur des segments lus par frequencesEchantillon : assez longs pour
+	 * lire des lignes de cache entières, assez courts pour couvrir tout le contenu.
+	 */
+	public static final int SEGMENT_ECHANTILLON = 64;
+	
+	/**
     * Les branches de l'arbre binaire sont elles-mêmes des arbres binaire.
     * Comme l'arbre est strictement binaire, il peut y avoir soit deux branches,
     * soit aucune (en ce cas, l'arbre est composée juste d'une feuille).
@@ -65,11 +121,6 @@ public class ArbreBinaire implements Comparator<Noeud>{
 		// On stocke les lettres et leur nombre d'apparition
 		HashMap<Character, Integer> lettres = new HashMap<>();
 		
-		// On stoque les noeuds qu'on a crée dans un priority queue 
-		// pour les trier par la suite
-		PriorityQueue<Noeud> noeuds = new PriorityQueue<>(this);
-		
-		HashMap<Noeud, ArbreBinaire> arbreBinaires = new HashMap<>();
 		// On converti le String texte en tableau de char pour le parcourir
 		for(char c : texte.toCharArray()) {
 			if(lettres.containsKey(c)) {
@@ -80,6 +131,39 @@ public class ArbreBinaire implements Comparator<Noeud>{
 			}
 		}
 		
+		construire(lettres);
+	}
+	
+	/**
+     * Ce constructeur génère un arbre binaire à partir des fréquences des octets
+     * d'un contenu quelconque (texte ou binaire).
+     * @param frequences Le nombre d'apparitions de chaque octet (256 cases)
+     */
+	public ArbreBinaire(int[] frequences) {
+		
+		HashMap<Character, Integer> lettres = new HashMap<>();
+		
+		for(int octet = 0; octet < 256; octet++) {
+			if(frequences[octet] > 0) {
+				lettres.put((char) octet, frequences[octet]);
+			}
+		}
+		
+		construire(lettres);
+	}
+	
+	/**
+     * Construit l'arbre de Huffman à partir du nombre d'apparitions de chaque caractère.
+     * @param lettres Les caractères et leur nombre d'apparitions
+     */
+	private void construire(Map<Character, Integer> lettres) {
+		
+		// On stoque les noeuds qu'on a crée dans un priority queue 
+		// pour les trier par la suite
+		PriorityQueue<Noeud> noeuds = new PriorityQueue<>(this);
+		
+		HashMap<Noeud, ArbreBinaire> arbreBinaires = new HashMap<>();
+		
 		// On remplit la priority queue avec les noeuds
 		for(Character key : lettres.keySet()) {
 			noeuds.add(new Noeud(key, lettres.get(key)));
@@ -120,7 +204,18 @@ public class ArbreBinaire implements Comparator<Noeud>{
 		}
 			
 		this.noeud = noeuds.poll();
-		this.branches = arbreBinaires.get(this.noeud).branches;
+		
+		// Texte vide ou d'un seul caractère : l'arbre se réduit à une feuille
+		if(this.noeud == null) {
+			this.noeud = new Noeud("", 0);
+			this.branches = new ArbreBinaire[0];
+		}
+		else if(arbreBinaires.containsKey(this.noeud)) {
+			this.branches = arbreBinaires.get(this.noeud).branches;
+		}
+		else {
+			this.branches = new ArbreBinaire[0];
+		}
 	}
 					
 	 /**
@@ -366,7 +461,16 @@ public class ArbreBinaire implements Comparator<Noeud>{
 	 * 4. Parcourir le texte encodé et reconstruire le texte original en utilisant le dictionnaire.
 	 */
 	public StringBuilder decode(byte[] byteArray) {
+		StringBuilder texteDecode = decodeTexte(byteArray);
+
+	    System.out.println(texteDecode);
 	    
+	    writeCode(texteDecode.toString());
+	    return texteDecode;
+	}
+
+	// Décodage de l'ancien format, sans affichage ni écriture de fichier
+	private StringBuilder decodeTexte(byte[] byteArray) {
 		String code = byteArrayToBinaryString(byteArray);
 		String separateurCodeDictionnaire = "1000000000000001";
 		// Trouver la position du séparateur
@@ -396,10 +500,6 @@ public class ArbreBinaire implements Comparator<Noeud>{
 			    temp = "";
 			}
 	    }
-
-	    System.out.println(texteDecode);
-	    
-	    writeCode(texteDecode.toString());
 	    return texteDecode;
 	}
 
@@ -417,6 +517,570 @@ public class ArbreBinaire implements Comparator<Noeud>{
 		return dictionnaire;
 	}
 
+	/**
+	 * Compte le nombre d'apparitions de chaque octet.
+	 * @param donnees Le contenu à analyser
+	 * @return Un tableau de 256 fréquences, à passer au constructeur ArbreBinaire(int[])
+	 */
+	public static int[] frequences(byte[] donnees) {
+		int[] frequences = new int[256];
+		for(byte b : donnees) {
+			frequences[b & 0xFF]++;
+		}
+		return frequences;
+	}
+	
+	/**
+	 * Compte le nombre d'apparitions de chaque octet entre la position et la
+	 * limite d'un buffer (éventuellement direct ou projeté en mémoire), sans
+	 * modifier sa position.
+	 * @param donnees Le contenu à analyser
+	 * @return Un tableau de 256 fréquences
+	 */
+	public static int[] frequences(ByteBuffer donnees) {
+		int[] frequences = new int[256];
+		for(int i = donnees.position(); i < donnees.limit(); i++) {
+			frequences[donnees.get(i) & 0xFF]++;
+		}
+		return frequences;
+	}
+	
+	/**
+	 * Estime les fréquences des octets à partir d'un échantillon, pour les
+	 * gros contenus : au lieu de lire tout le contenu avant de l'encoder, on
+	 * lit environ tailleEchantillon octets, par segments de
+	 * SEGMENT_ECHANTILLON octets régulièrement espacés, et l'encodage devient
+	 * la seule lecture complète du contenu.
+	 *
+	 * Les comptes sont ramenés à la taille du contenu. Un octet absent de
+	 * l'échantillon a une fréquence nulle, donc pas de code : voir
+	 * encodeOctetsEchantillon et plancher.
+	 * @param donnees Le contenu à analyser, entre sa position et sa limite (non modifiées)
+	 * @param tailleEchantillon Le nombre d'octets à lire ; si le contenu n'est pas plus grand, il est lu en entier
+	 * @return Un tableau de 256 fréquences estimées
+	 */
+	public static int[] frequencesEchantillon(ByteBuffer donnees, int tailleEchantillon) {
+		int taille = donnees.remaining();
+		int nbSegments = tailleEchantillon / SEGMENT_ECHANTILLON;
+		if(nbSegments == 0 || taille <= tailleEchantillon) {
+			return frequences(donnees);
+		}
+		
+		int[] comptes = new int[256];
+		long lus = 0;
+		long pas = (long) taille * SEGMENT_ECHANTILLON / tailleEchantillon;
+		for(int k = 0; k < nbSegments; k++) {
+			int debut = donnees.position() + (int) (k * pas);
+			int fin = Math.min(donnees.limit(), debut + SEGMENT_ECHANTILLON);
+			for(int i = debut; i < fin; i++) {
+				comptes[donnees.get(i) & 0xFF]++;
+			}
+			lus += fin - debut;
+		}
+		
+		int[] frequences = new int[256];
+		for(int octet = 0; octet < 256; octet++) {
+			frequences[octet] = comptes[octet] == 0 ? 0 : (int) Math.max(1, (long) comptes[octet] * taille / lus);
+		}
+		return frequences;
+	}
+	
+	/**
+	 * Donne une fréquence de 1 aux octets qui n'en ont pas : chacun reçoit un
+	 * code, et l'encodage ne peut plus échouer. Avec des codes d'au plus
+	 * TableHuffman.LONGUEUR_MAX bits, chaque code ajouté prend 1/2048 de
+	 * l'espace des codes : sur du texte, où la moitié des octets n'apparaît
+	 * jamais, le contenu encodé grossit de quelques pour cent.
+	 * @param frequences Des fréquences (non modifiées)
+	 * @return Les fréquences, toutes non nulles
+	 */
+	public static int[] plancher(int[] frequences) {
+		int[] resultat = new int[256];
+		for(int octet = 0; octet < 256; octet++) {
+			resultat[octet] = Math.max(1, frequences[octet]);
+		}
+		return resultat;
+	}
+	
+	/**
+	 * Encode un gros contenu avec des codes construits sur un échantillon
+	 * (frequencesEchantillon), pour ne lire le contenu en entier qu'une fois.
+	 *
+	 * Deux façons de traiter les octets que l'échantillon n'a pas vus :
+	 * - avec plancher, chaque octet a un code : une seule lecture, toujours,
+	 *   mais quelques pour cent de compression en moins sur du texte ;
+	 * - sinon, l'encodage est tenté avec les seuls octets vus, et s'il en
+	 *   rencontre un autre, il reprend avec les fréquences exactes : codes
+	 *   optimaux, mais une lecture de plus (et le début relu) dans ce cas.
+	 * La pénalité effective se mesure avec penalite et les fréquences
+	 * exactes relevées.
+	 * @param source Le contenu à encoder, entre sa position et sa limite ; sa position avance jusqu'à la limite
+	 * @param destination Le buffer qui reçoit le contenu encodé (voir majorant)
+	 * @param nbFlux Le nombre de flux par bloc (1 ou 4)
+	 * @param tailleEchantillon Le nombre d'octets de l'échantillon
+	 * @param avecPlancher true pour donner un code à tous les octets (une seule lecture garantie)
+	 * @param frequencesExactes Un tableau de 256 cases, rempli avec les fréquences exactes du contenu (ou null)
+	 * @return L'arbre dont les codes ont servi à l'encodage
+	 */
+	public static ArbreBinaire encodeOctetsEchantillon(ByteBuffer source, ByteBuffer destination, int nbFlux,
+			int tailleEchantillon, boolean avecPlancher, int[] frequencesExactes) {
+		if(nbFlux != 1 && nbFlux != 4) {
+			throw new IllegalArgumentException("Nombre de flux non supporté : " + nbFlux);
+		}
+		int[] estimees = frequencesEchantillon(source, tailleEchantillon);
+		ArbreBinaire arbre = new ArbreBinaire(avecPlancher ? plancher(estimees) : estimees);
+		try {
+			arbre.encodeOctets(source, destination, nbFlux, frequencesExactes);
+			return arbre;
+		}
+		catch(IllegalArgumentException e) {
+			if(avecPlancher) {
+				throw e;
+			}
+			// Octet absent de l'échantillon : les buffers n'ont pas bougé, on recommence avec les fréquences exactes
+			if(frequencesExactes != null) {
+				Arrays.fill(frequencesExactes, 0);
+			}
+			arbre = new ArbreBinaire(frequences(source));
+			arbre.encodeOctets(source, destination, nbFlux, frequencesExactes);
+			return arbre;
+		}
+	}
+	
+	/**
+	 * Mesure la perte de compression due à des codes construits sur des
+	 * fréquences approchées (frequencesEchantillon) : taille du contenu
+	 * encodé avec les codes de cet arbre, comparée à sa taille avec les codes
+	 * construits sur les fréquences exactes (tables non comprises).
+	 * @param frequencesExactes Les fréquences exactes du contenu, par exemple relevées par encodeOctets
+	 * @return La pénalité relative : 0.02 pour un contenu encodé 2 % plus gros
+	 */
+	public double penalite(int[] frequencesExactes) {
+		TableHuffman estimee = tableCanonique();
+		TableHuffman exacte = new ArbreBinaire(frequencesExactes).tableCanonique();
+		long bitsEstimes = 0;
+		long bitsExacts = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			bitsEstimes += (long) frequencesExactes[octet] * estimee.longueurs[octet];
+			bitsExacts += (long) frequencesExactes[octet] * exacte.longueurs[octet];
+		}
+		return bitsExacts == 0 ? 0 : (double) bitsEstimes / bitsExacts - 1;
+	}
+	
+	/**
+	 * Calcule la table de codes canonique équivalente à l'arbre, avec des
+	 * codes d'au plus TableHuffman.LONGUEUR_MAX bits.
+	 * L'arbre doit avoir été construit à partir d'octets (constructeur ArbreBinaire(int[])).
+	 * @return La table de codes
+	 */
+	public TableHuffman tableCanonique() {
+		int[] longueurs = new int[256];
+		creerLongueurs(this, longueurs, 0);
+		TableHuffman.limiterLongueurs(longueurs);
+		return new TableHuffman(longueurs);
+	}
+	
+	/**
+	 * Remplit la longueur du code de chaque feuille : c'est sa profondeur dans l'arbre.
+	 * @param arbreBinaire L'arbre binaire
+	 * @param longueurs Les longueurs à remplir, indexées par octet
+	 * @param profondeur La profondeur de l'arbre courant
+	 */
+	private void creerLongueurs(ArbreBinaire arbreBinaire, int[] longueurs, int profondeur) {
+		if(arbreBinaire.branches.length == 0) {
+			String nom = arbreBinaire.noeud.getNom();
+			if(!nom.isEmpty()) {
+				// Un arbre d'une seule feuille utilise quand même un bit par octet
+				longueurs[nom.charAt(0)] = Math.max(1, profondeur);
+			}
+		}
+		else {
+			creerLongueurs(arbreBinaire.branches[0], longueurs, profondeur + 1);
+			creerLongueurs(arbreBinaire.branches[1], longueurs, profondeur + 1);
+		}
+	}
+	
+	/**
+	 * Majore la taille d'un contenu encodé par encodeOctets, pour dimensionner
+	 * le buffer de destination.
+	 * @param taille La taille du contenu d'origine
+	 * @param nbFlux Le nombre de flux par bloc
+	 * @return Le nombre d'octets maximal du contenu encodé
+	 */
+	public static int majorant(int taille, int nbFlux) {
+		// En-tête, table, tailles et bourrage des flux, LONGUEUR_MAX bits par octet
+		int nbBlocs = (taille + TAILLE_BLOC - 1) / TAILLE_BLOC;
+		return (int) (8 + 160 + (long) nbBlocs * nbFlux * 8 + ((long) taille * TableHuffman.LONGUEUR_MAX + 7) / 8);
+	}
+	
+	/**
+	 * Encode un contenu binaire avec les codes canoniques de l'arbre.
+	 * @param donnees Le contenu à encoder ; chaque octet doit avoir un code dans l'arbre
+	 * @param nbFlux Le nombre de flux par bloc (1 ou 4)
+	 * @return Le contenu encodé
+	 * @see #encodeOctets(ByteBuffer, ByteBuffer, int)
+	 */
+	public byte[] encodeOctets(byte[] donnees, int nbFlux) {
+		ByteBuffer sortie = ByteBuffer.allocate(majorant(donnees.length, nbFlux));
+		encodeOctets(ByteBuffer.wrap(donnees), sortie, nbFlux);
+		return Arrays.copyOf(sortie.array(), sortie.position());
+	}
+	
+	/**
+	 * Encode un contenu binaire avec les codes canoniques de l'arbre.
+	 *
+	 * Format : signature "WC", mode, nombre de flux, taille d'origine (4 octets),
+	 * table de codes, puis les blocs. Chaque bloc commence par la taille en
+	 * octets de chacun de ses flux ; le flux k contient le k-ième quart du bloc.
+	 * Avec 4 flux, le décodeur avance les quatre flux dans la même boucle :
+	 * leurs chaînes de dépendances sont indépendantes, et le processeur peut
+	 * les exécuter en parallèle.
+	 *
+	 * Les deux buffers peuvent être directs (hors du tas Java), par exemple
+	 * un fichier projeté en mémoire avec FileChannel.map et un buffer alloué
+	 * par ByteBuffer.allocateDirect : le contenu n'est alors jamais copié
+	 * dans le tas.
+	 *
+	 * @param source Le contenu à encoder, entre sa position et sa limite ; sa position avance jusqu'à la limite
+	 * @param destination Le buffer qui reçoit le contenu encodé à partir de sa position, qui avance d'autant
+	 * @param nbFlux Le nombre de flux par bloc (1 ou 4)
+	 * @return Le nombre d'octets écrits
+	 */
+	public int encodeOctets(ByteBuffer source, ByteBuffer destination, int nbFlux) {
+		return encodeOctets(source, destination, nbFlux, null);
+	}
+	
+	/**
+	 * Encode comme encodeOctets(ByteBuffer, ByteBuffer, int), en relevant au
+	 * passage les fréquences exactes du contenu : avec un arbre construit sur
+	 * un échantillon, elles donnent la pénalité de compression (penalite)
+	 * sans relire le contenu.
+	 * @param frequencesExactes Un tableau de 256 cases, incrémenté pour chaque octet encodé (ou null)
+	 */
+	public int encodeOctets(ByteBuffer source, ByteBuffer destination, int nbFlux, int[] frequencesExactes) {
+		return encoder(tableCanonique(), null, source, destination, nbFlux, frequencesExactes);
+	}
+	
+	/**
+	 * Encode un contenu binaire avec une table de codes partagée par
+	 * plusieurs contenus : au lieu de la table, l'en-tête ne contient que sa
+	 * référence (un octet de longueur, puis la référence), et le bit
+	 * TABLE_EXTERNE est mis dans l'octet du nombre de flux. Le décodage
+	 * passe par decodeOctets(ByteBuffer, ByteBuffer, Tables).
+	 * @param table La table partagée ; chaque octet du contenu doit y avoir un code
+	 * @param reference Sa référence, d'au plus 255 octets
+	 * @param source Le contenu à encoder, entre sa position et sa limite ; sa position avance jusqu'à la limite
+	 * @param destination Le buffer qui reçoit le contenu encodé à partir de sa position, qui avance d'autant (voir majorant)
+	 * @param nbFlux Le nombre de flux par bloc (1 ou 4)
+	 * @return Le nombre d'octets écrits
+	 */
+	public static int encodeOctets(TableHuffman table, byte[] reference, ByteBuffer source, ByteBuffer destination, int nbFlux) {
+		if(reference.length > 255) {
+			throw new IllegalArgumentException("Référence de table trop longue : " + reference.length + " octets");
+		}
+		return encoder(table, reference, source, destination, nbFlux, null);
+	}
+	
+	/**
+	 * @param code Un contenu au format binaire, à partir de sa position
+	 * @return La référence de sa table de codes partagée, ou null si le contenu porte sa propre table
+	 */
+	public static byte[] referenceTable(ByteBuffer code) {
+		int p = code.position() + SIGNATURE.length;
+		if(!estFormatBinaire(code) || code.get(p) != MODE_HUFFMAN || (code.get(p + 1) & TABLE_EXTERNE) == 0) {
+			return null;
+		}
+		ByteBuffer entree = code.duplicate();
+		entree.position(p + 6);
+		byte[] reference = new byte[entree.get() & 0xFF];
+		entree.get(reference);
+		return reference;
+	}
+	
+	private static int encoder(TableHuffman table, byte[] reference, ByteBuffer source, ByteBuffer destination, int nbFlux, int[] frequencesExactes) {
+		if(nbFlux != 1 && nbFlux != 4) {
+			throw new IllegalArgumentException("Nombre de flux non supporté : " + nbFlux);
+		}
+		int base = source.position();
+		int taille = source.remaining();
+		
+		// Le format est gros-boutiste, quel que soit l'ordre choisi par l'appelant
+		ByteBuffer sortie = destination.duplicate();
+		sortie.put(SIGNATURE).put(MODE_HUFFMAN).put((byte) (reference == null ? nbFlux : nbFlux | TABLE_EXTERNE)).putInt(taille);
+		if(reference == null) {
+			table.ecrire(sortie);
+		}
+		else {
+			sortie.put((byte) reference.length).put(reference);
+		}
+		
+		EcrivainBits ecrivain = new EcrivainBits(sortie);
+		for(int debut = 0; debut < taille; debut += TAILLE_BLOC) {
+			int fin = Math.min(taille, debut + TAILLE_BLOC);
+			int tailleSegment = (fin - debut + nbFlux - 1) / nbFlux;
+			
+			// Les tailles des flux sont réécrites une fois les flux encodés
+			int positionTailles = sortie.position();
+			sortie.position(positionTailles + 4 * nbFlux);
+			
+			for(int flux = 0; flux < nbFlux; flux++) {
+				int debutFlux = sortie.position();
+				int a = Math.min(fin, debut + flux * tailleSegment);
+				int b = Math.min(fin, a + tailleSegment);
+				for(int i = base + a; i < base + b; i++) {
+					int octet = source.get(i) & 0xFF;
+					int longueur = table.longueurs[octet];
+					if(longueur == 0) {
+						throw new IllegalArgumentException("L'octet " + octet + " n'a pas de code dans l'arbre");
+					}
+					ecrivain.ecrire(table.codes[octet], longueur);
+					if(frequencesExactes != null) {
+						frequencesExactes[octet]++;
+					}
+				}
+				ecrivain.terminer();
+				sortie.putInt(positionTailles + 4 * flux, sortie.position() - debutFlux);
+			}
+		}
+		
+		int ecrits = sortie.position() - destination.position();
+		source.position(source.limit());
+		destination.position(sortie.position());
+		return ecrits;
+	}
+	
+	/**
+	 * @param code Un contenu compressé
+	 * @return true s'il est au format binaire (encodeOctets), false pour l'ancien format
+	 */
+	public static boolean estFormatBinaire(byte[] code) {
+		return estFormatBinaire(ByteBuffer.wrap(code));
+	}
+	
+	/**
+	 * @param code Un contenu compressé, à partir de sa position
+	 * @return true s'il est au format binaire (encodeOctets ou CodeurANS)
+	 */
+	public static boolean estFormatBinaire(ByteBuffer code) {
+		int p = code.position();
+		return code.remaining() >= 8 && code.get(p) == SIGNATURE[0] && code.get(p + 1) == SIGNATURE[1];
+	}
+	
+	/**
+	 * Lit dans l'en-tête la taille du contenu d'origine, pour dimensionner
+	 * le buffer passé à decodeOctets(ByteBuffer, ByteBuffer).
+	 * @param code Un contenu au format binaire, à partir de sa position
+	 * @return La taille du contenu d'origine
+	 */
+	public static int tailleOrigine(ByteBuffer code) {
+		if(!estFormatBinaire(code)) {
+			throw new IllegalArgumentException("Ancien format : taille d'origine inconnue avant décodage");
+		}
+		// Après la signature, le mode et un octet de paramètre (flux ou taille de table)
+		return code.duplicate().getInt(code.position() + SIGNATURE.length + 2);
+	}
+	
+	/**
+	 * Décode un contenu produit par encodeOctets, par CodeurANS, par CodeurContexte, ou par encode pour l'ancien format.
+	 * @param code Le contenu compressé
+	 * @return Le contenu d'origine
+	 */
+	public static byte[] decodeOctets(byte[] code) {
+		if(!estFormatBinaire(code)) {
+			return new ArbreBinaire(new Noeud("", 0)).decodeTexte(code).toString().getBytes();
+		}
+		ByteBuffer entree = ByteBuffer.wrap(code);
+		byte[] sortie = new byte[tailleOrigine(entree)];
+		decodeOctets(entree, ByteBuffer.wrap(sortie));
+		return sortie;
+	}
+	
+	/**
+	 * Décode un contenu au format binaire d'un buffer à l'autre, sans passer
+	 * par le tas si les deux buffers sont directs.
+	 * @param source Le contenu compressé, à partir de sa position, qui avance jusqu'à la fin du contenu
+	 * @param destination Le buffer qui reçoit le contenu d'origine (voir tailleOrigine) ; sa position avance d'autant
+	 * @return Le nombre d'octets décodés
+	 */
+	public static int decodeOctets(ByteBuffer source, ByteBuffer destination) {
+		return decodeOctets(source, destination, null);
+	}
+	
+	/**
+	 * Décode comme decodeOctets(ByteBuffer, ByteBuffer), y compris un contenu
+	 * encodé avec une table de codes partagée.
+	 * @param tables Les tables partagées (null si le contenu porte sa propre table)
+	 */
+	public static int decodeOctets(ByteBuffer source, ByteBuffer destination, Tables tables) {
+		if(!estFormatBinaire(source)) {
+			throw new IllegalArgumentException("Contenu sans signature : utiliser decodeOctets(byte[])");
+		}
+		if(source.get(source.position() + SIGNATURE.length) == MODE_ANS) {
+			return CodeurANS.decodeOctets(source, destination);
+		}
+		if(source.get(source.position() + SIGNATURE.length) == MODE_CONTEXTE) {
+			return CodeurContexte.decodeOctets(source, destination);
+		}
+		
+		ByteBuffer entree = source.duplicate();
+		entree.position(entree.position() + SIGNATURE.length);
+		byte mode = entree.get();
+		if(mode != MODE_HUFFMAN) {
+			throw new IllegalArgumentException("Mode d'encodage inconnu : " + mode);
+		}
+		int parametre = entree.get() & 0xFF;
+		int nbFlux = parametre & ~TABLE_EXTERNE;
+		if(nbFlux != 1 && nbFlux != 4) {
+			throw new IllegalArgumentException("Nombre de flux non supporté : " + nbFlux);
+		}
+		int taille = entree.getInt();
+		if(destination.remaining() < taille) {
+			throw new IllegalArgumentException("Buffer de destination trop petit : " + taille + " octets nécessaires");
+		}
+		TableHuffman table;
+		if((parametre & TABLE_EXTERNE) != 0) {
+			byte[] reference = new byte[entree.get() & 0xFF];
+			entree.get(reference);
+			if(tables == null) {
+				throw new IllegalArgumentException("Table de codes partagée : utiliser decodeOctets(source, destination, tables)");
+			}
+			table = tables.table(reference);
+		}
+		else {
+			table = TableHuffman.lire(entree);
+		}
+		short[] tableDecodage = table.tableDecodage();
+		
+		int base = destination.position();
+		for(int debut = 0; debut < taille; debut += TAILLE_BLOC) {
+			int fin = Math.min(taille, debut + TAILLE_BLOC);
+			int tailleSegment = (fin - debut + nbFlux - 1) / nbFlux;
+			
+			LecteurBits[] lecteurs = new LecteurBits[nbFlux];
+			int positionFlux = entree.position() + 4 * nbFlux;
+			for(int flux = 0; flux < nbFlux; flux++) {
+				int tailleFlux = entree.getInt();
+				lecteurs[flux] = new LecteurBits(entree, positionFlux, positionFlux + tailleFlux);
+				positionFlux += tailleFlux;
+			}
+			entree.position(positionFlux);
+			
+			if(nbFlux == 4) {
+				decoderQuatreFlux(lecteurs, tableDecodage, destination, base + debut, base + fin, tailleSegment);
+			}
+			else {
+				for(int flux = 0; flux < nbFlux; flux++) {
+					int a = Math.min(fin, debut + flux * tailleSegment);
+					decoderFlux(lecteurs[flux], tableDecodage, destination, base + a, base + Math.min(fin, a + tailleSegment));
+				}
+			}
+		}
+		
+		source.position(entree.position());
+		destination.position(base + taille);
+		return taille;
+	}
+	
+	/**
+	 * Décode les quatre quarts d'un bloc en avançant les quatre flux ensemble.
+	 * Dans la boucle principale, l'état des quatre lecteurs est gardé dans des
+	 * variables locales : le compilateur peut les laisser dans des registres,
+	 * ce qu'il ne fait pas pour les champs de quatre objets distincts.
+	 */
+	private static void decoderQuatreFlux(LecteurBits[] lecteurs, short[] table, ByteBuffer sortie, int debut, int fin, int tailleSegment) {
+		LecteurBits l0 = lecteurs[0], l1 = lecteurs[1], l2 = lecteurs[2], l3 = lecteurs[3];
+		ByteBuffer entree = l0.entree;
+		int i0 = debut;
+		int i1 = Math.min(fin, i0 + tailleSegment);
+		int i2 = Math.min(fin, i1 + tailleSegment);
+		int i3 = Math.min(fin, i2 + tailleSegment);
+		int fin0 = i1, fin1 = i2, fin2 = i3;
+		
+		long c0 = l0.conteneur, c1 = l1.conteneur, c2 = l2.conteneur, c3 = l3.conteneur;
+		int n0 = l0.nbBits, n1 = l1.nbBits, n2 = l2.nbBits, n3 = l3.nbBits;
+		int p0 = l0.position, p1 = l1.position, p2 = l2.position, p3 = l3.position;
+		
+		// Une recharge garantit 56 bits, soit 4 codes de LONGUEUR_MAX bits par flux ;
+		// près de la fin d'un flux, on termine avec les lecteurs ordinaires
+		while(i0 + 4 <= fin0 && i3 + 4 <= fin
+				&& p0 + 8 <= l0.fin && p1 + 8 <= l1.fin && p2 + 8 <= l2.fin && p3 + 8 <= l3.fin) {
+			c0 |= entree.getLong(p0) >>> n0;
+			c1 |= entree.getLong(p1) >>> n1;
+			c2 |= entree.getLong(p2) >>> n2;
+			c3 |= entree.getLong(p3) >>> n3;
+			int o0 = (63 - n0) >>> 3, o1 = (63 - n1) >>> 3, o2 = (63 - n2) >>> 3, o3 = (63 - n3) >>> 3;
+			p0 += o0;
+			p1 += o1;
+			p2 += o2;
+			p3 += o3;
+			n0 += o0 << 3;
+			n1 += o1 << 3;
+			n2 += o2 << 3;
+			n3 += o3 << 3;
+			for(int k = 0; k < 4; k++) {
+				int e0 = table[(int) (c0 >>> (64 - TableHuffman.LONGUEUR_MAX))];
+				int e1 = table[(int) (c1 >>> (64 - TableHuffman.LONGUEUR_MAX))];
+				int e2 = table[(int) (c2 >>> (64 - TableHuffman.LONGUEUR_MAX))];
+				int e3 = table[(int) (c3 >>> (64 - TableHuffman.LONGUEUR_MAX))];
+				if(((e0 & 0x0F) == 0) | ((e1 & 0x0F) == 0) | ((e2 & 0x0F) == 0) | ((e3 & 0x0F) == 0)) {
+					throw new IllegalArgumentException("Flux de Huffman corrompu");
+				}
+				c0 <<= e0 & 0x0F;
+				c1 <<= e1 & 0x0F;
+				c2 <<= e2 & 0x0F;
+				c3 <<= e3 & 0x0F;
+				n0 -= e0 & 0x0F;
+				n1 -= e1 & 0x0F;
+				n2 -= e2 & 0x0F;
+				n3 -= e3 & 0x0F;
+				sortie.put(i0++, (byte) (e0 >>> 4));
+				sortie.put(i1++, (byte) (e1 >>> 4));
+				sortie.put(i2++, (byte) (e2 >>> 4));
+				sortie.put(i3++, (byte) (e3 >>> 4));
+			}
+		}
+		
+		l0.conteneur = c0; l1.conteneur = c1; l2.conteneur = c2; l3.conteneur = c3;
+		l0.nbBits = n0; l1.nbBits = n1; l2.nbBits = n2; l3.nbBits = n3;
+		l0.position = p0; l1.position = p1; l2.position = p2; l3.position = p3;
+		
+		decoderFlux(l0, table, sortie, i0, fin0);
+		decoderFlux(l1, table, sortie, i1, fin1);
+		decoderFlux(l2, table, sortie, i2, fin2);
+		decoderFlux(l3, table, sortie, i3, fin);
+	}
+	
+	/**
+	 * Décode un flux entre les positions debut (incluse) et fin (exclue) de la sortie.
+	 */
+	private static void decoderFlux(LecteurBits lecteur, short[] table, ByteBuffer sortie, int debut, int fin) {
+		int i = debut;
+		while(i + 4 <= fin) {
+			lecteur.recharger();
+			sortie.put(i++, symbole(lecteur, table));
+			sortie.put(i++, symbole(lecteur, table));
+			sortie.put(i++, symbole(lecteur, table));
+			sortie.put(i++, symbole(lecteur, table));
+		}
+		while(i < fin) {
+			lecteur.recharger();
+			sortie.put(i++, symbole(lecteur, table));
+		}
+	}
+	
+	/**
+	 * Lit un symbole : une seule lecture dans la table de décodage.
+	 */
+	private static byte symbole(LecteurBits lecteur, short[] table) {
+		int entree = table[lecteur.regarder(TableHuffman.LONGUEUR_MAX)];
+		int longueur = entree & 0x0F;
+		if(longueur == 0) {
+			throw new IllegalArgumentException("Flux de Huffman corrompu");
+		}
+		lecteur.avancer(longueur);
+		return (byte) (entree >>> 4);
+	}
+
    /**
      * Compare deux nœuds en fonction de leur poids. Si les poids sont égaux, compare les nœuds en fonction de leur nom.
      * @param noeud1 Le premier nœud à comparer
@@ -0,0 +1,373 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codeur entropique tANS (table-based Asymmetric Numeral Systems, aussi
+ * appelé FSE), alternative au codage de Huffman d'ArbreBinaire.
+ *
+ * Huffman attribue à chaque octet un nombre entier de bits ; tANS code un
+ * octet de probabilité p sur environ -log2(p) bits, fractions comprises, ce
+ * qui gagne sur les distributions très déséquilibrées du HTML (espaces,
+ * '<', 'e', 't'...). Comme pour Huffman, tout passe par des tables : un
+ * état de logTable bits, et chaque octet coûte une lecture de table
+ * et une lecture de bits, sans branchement dépendant des données.
+ *
+ * Les fréquences sont normalisées pour que leur somme fasse 2^logTable ;
+ * ce sont elles que l'en-tête stocke.
+ */
+public class CodeurANS {
+
+	/**
+	 * Taille maximale de la table d'états, en bits.
+	 */
+	public static final int LOG_TABLE_MAX = 11;
+
+	private final int logTable;
+
+	/**
+	 * Fréquence normalisée de chaque octet (somme = 2^logTable).
+	 */
+	private final int[] normalisees;
+
+	/**
+	 * Crée un codeur à partir des fréquences des octets d'un contenu.
+	 * @param frequences Le nombre d'apparitions de chaque octet (voir ArbreBinaire.frequences)
+	 */
+	public CodeurANS(int[] frequences) {
+		long total = 0;
+		int nbSymboles = 0;
+		for(int frequence : frequences) {
+			total += frequence;
+			if(frequence > 0) {
+				nbSymboles++;
+			}
+		}
+
+		// Table assez grande pour que chaque octet présent ait au moins un état, sans dépasser le contenu
+		int logMin = 33 - Integer.numberOfLeadingZeros(Math.max(1, nbSymboles - 1));
+		int logContenu = 32 - Integer.numberOfLeadingZeros((int) Math.max(1, Math.min(total, 1 << LOG_TABLE_MAX) - 1));
+		this.logTable = Math.max(5, Math.max(logMin, Math.min(LOG_TABLE_MAX, logContenu)));
+		this.normalisees = normaliser(frequences, total, logTable);
+	}
+
+	private CodeurANS(int logTable, int[] normalisees) {
+		this.logTable = logTable;
+		this.normalisees = normalisees;
+	}
+
+	/**
+	 * Ramène les fréquences à une somme de 2^logTable, chaque octet présent
+	 * gardant au moins 1.
+	 */
+	private static int[] normaliser(int[] frequences, long total, int logTable) {
+		int[] normalisees = new int[256];
+		if(total == 0) {
+			return normalisees;
+		}
+		int taille = 1 << logTable;
+		int reste = taille;
+		int plusFrequent = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			if(frequences[octet] > 0) {
+				normalisees[octet] = (int) Math.max(1, Math.round((double) frequences[octet] * taille / total));
+				reste -= normalisees[octet];
+				if(frequences[octet] > frequences[plusFrequent]) {
+					plusFrequent = octet;
+				}
+			}
+		}
+
+		// L'écart dû aux arrondis est reporté sur l'octet le plus fréquent, où il coûte le moins
+		if(normalisees[plusFrequent] + reste >= 1) {
+			normalisees[plusFrequent] += reste;
+			return normalisees;
+		}
+		normalisees[plusFrequent] = Math.max(1, normalisees[plusFrequent] + reste);
+		reste = taille;
+		for(int normalisee : normalisees) {
+			reste -= normalisee;
+		}
+		while(reste < 0) {
+			int choisi = 0;
+			for(int octet = 1; octet < 256; octet++) {
+				if(normalisees[octet] > normalisees[choisi]) {
+					choisi = octet;
+				}
+			}
+			normalisees[choisi]--;
+			reste++;
+		}
+		return normalisees;
+	}
+
+	/**
+	 * Répartit les états entre les octets, proportionnellement à leur
+	 * fréquence normalisée, en les dispersant dans la table.
+	 * @return L'octet associé à chaque état
+	 */
+	private static byte[] repartir(int[] normalisees, int logTable) {
+		int taille = 1 << logTable;
+		int masque = taille - 1;
+		// Pas impair, donc premier avec la taille : chaque case est visitée une fois
+		int pas = (taille >>> 1) + (taille >>> 3) + 3;
+		byte[] symboles = new byte[taille];
+		int position = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			for(int i = 0; i < normalisees[octet]; i++) {
+				symboles[position] = (byte) octet;
+				position = (position + pas) & masque;
+			}
+		}
+		return symboles;
+	}
+
+	/**
+	 * Majore la taille d'un contenu encodé, pour dimensionner le buffer de destination.
+	 * @param taille La taille du contenu d'origine
+	 * @return Le nombre d'octets maximal du contenu encodé
+	 */
+	public int majorant(int taille) {
+		int nbBlocs = (taille + ArbreBinaire.TAILLE_BLOC - 1) / ArbreBinaire.TAILLE_BLOC;
+		return (int) (8 + 32 + 2 * 256 + (long) nbBlocs * 9 + ((long) taille * logTable + 7) / 8);
+	}
+
+	/**
+	 * Encode un contenu.
+	 * @param donnees Le contenu à encoder ; chaque octet doit avoir une fréquence non nulle
+	 * @return Le contenu encodé
+	 * @see #encodeOctets(ByteBuffer, ByteBuffer)
+	 */
+	public byte[] encodeOctets(byte[] donnees) {
+		ByteBuffer sortie = ByteBuffer.allocate(majorant(donnees.length));
+		encodeOctets(ByteBuffer.wrap(donnees), sortie);
+		return Arrays.copyOf(sortie.array(), sortie.position());
+	}
+
+	/**
+	 * Encode un contenu d'un buffer à l'autre (buffers directs acceptés).
+	 *
+	 * Format : signature "WC", mode ANS, logTable, taille d'origine (4 octets),
+	 * fréquences normalisées, puis des blocs de TAILLE_BLOC octets au plus,
+	 * chacun précédé de la taille en octets de son flux de bits.
+	 * Le codage tANS se fait à l'envers (du dernier octet au premier) : les
+	 * bits de chaque bloc sont mémorisés puis écrits dans l'ordre inverse,
+	 * pour que le décodeur lise le flux vers l'avant.
+	 *
+	 * @param source Le contenu à encoder, entre sa position et sa limite ; sa position avance jusqu'à la limite
+	 * @param destination Le buffer qui reçoit le contenu encodé à partir de sa position, qui avance d'autant
+	 * @return Le nombre d'octets écrits
+	 */
+	public int encodeOctets(ByteBuffer source, ByteBuffer destination) {
+		int taille = 1 << logTable;
+		int base = source.position();
+		int longueur = source.remaining();
+
+		// Table de transition : pour chaque octet, ses états dans l'ordre de la table
+		int[] cumuls = new int[257];
+		for(int octet = 0; octet < 256; octet++) {
+			cumuls[octet + 1] = cumuls[octet] + normalisees[octet];
+		}
+		byte[] symboles = repartir(normalisees, logTable);
+		int[] etatsSuivants = new int[taille];
+		int[] positions = Arrays.copyOf(cumuls, 256);
+		for(int etat = 0; etat < taille; etat++) {
+			etatsSuivants[positions[symboles[etat] & 0xFF]++] = taille + etat;
+		}
+
+		// Pour chaque octet : de quoi calculer sans branchement le nombre de bits
+		// à émettre (deltaNbBits) et l'état suivant (deltaEtat)
+		int[] deltaNbBits = new int[256];
+		int[] deltaEtat = new int[256];
+		for(int octet = 0; octet < 256; octet++) {
+			int normalisee = normalisees[octet];
+			if(normalisee == 0) {
+				continue;
+			}
+			int bitsMax = normalisee == 1 ? logTable : logTable - (31 - Integer.numberOfLeadingZeros(normalisee - 1));
+			deltaNbBits[octet] = (bitsMax << 16) - (normalisee << bitsMax);
+			deltaEtat[octet] = cumuls[octet] - normalisee;
+		}
+
+		// Le format est gros-boutiste, quel que soit l'ordre choisi par l'appelant
+		ByteBuffer sortie = destination.duplicate();
+		sortie.put(ArbreBinaire.SIGNATURE).put(ArbreBinaire.MODE_ANS).put((byte) logTable).putInt(longueur);
+		ecrireFrequences(sortie);
+
+		int[] valeurs = new int[Math.min(longueur, ArbreBinaire.TAILLE_BLOC)];
+		byte[] longueurs = new byte[valeurs.length];
+		EcrivainBits ecrivain = new EcrivainBits(sortie);
+		for(int debut = base; debut < base + longueur; debut += ArbreBinaire.TAILLE_BLOC) {
+			int fin = Math.min(base + longueur, debut + ArbreBinaire.TAILLE_BLOC);
+
+			// Du dernier octet au premier ; les bits émis pour le dernier octet sont inutiles au décodeur
+			int etat = taille;
+			int nb = 0;
+			for(int i = fin - 1; i >= debut; i--) {
+				int octet = source.get(i) & 0xFF;
+				if(normalisees[octet] == 0) {
+					throw new IllegalArgumentException("L'octet " + octet + " n'a pas de fréquence dans le codeur");
+				}
+				int nbBits = (etat + deltaNbBits[octet]) >>> 16;
+				if(i != fin - 1) {
+					valeurs[nb] = etat;
+					longueurs[nb] = (byte) nbBits;
+					nb++;
+				}
+				etat = etatsSuivants[(etat >>> nbBits) + deltaEtat[octet]];
+			}
+
+			int positionTaille = sortie.position();
+			sortie.position(positionTaille + 4);
+			ecrivain.ecrire(etat - taille, logTable);
+			for(int k = nb - 1; k >= 0; k--) {
+				ecrivain.ecrire(valeurs[k], longueurs[k]);
+			}
+			ecrivain.terminer();
+			sortie.putInt(positionTaille, sortie.position() - positionTaille - 4);
+		}
+
+		int ecrits = sortie.position() - destination.position();
+		source.position(source.limit());
+		destination.position(sortie.position());
+		return ecrits;
+	}
+
+	/**
+	 * Décode un contenu produit par encodeOctets.
+	 * @param code Le contenu compressé (signature comprise)
+	 * @return Le contenu d'origine
+	 */
+	public static byte[] decodeOctets(byte[] code) {
+		ByteBuffer entree = ByteBuffer.wrap(code);
+		byte[] sortie = new byte[ArbreBinaire.tailleOrigine(entree)];
+		decodeOctets(entree, ByteBuffer.wrap(sortie));
+		return sortie;
+	}
+
+	/**
+	 * Décode un contenu d'un buffer à l'autre (buffers directs acceptés).
+	 * @param source Le contenu compressé, à partir de sa position, qui avance jusqu'à la fin du contenu
+	 * @param destination Le buffer qui reçoit le contenu d'origine ; sa position avance d'autant
+	 * @return Le nombre d'octets décodés
+	 */
+	public static int decodeOctets(ByteBuffer source, ByteBuffer destination) {
+		ByteBuffer entree = source.duplicate();
+		entree.position(entree.position() + ArbreBinaire.SIGNATURE.length);
+		if(entree.get() != ArbreBinaire.MODE_ANS) {
+			throw new IllegalArgumentException("Ce contenu n'a pas été encodé par CodeurANS");
+		}
+		int logTable = entree.get();
+		if(logTable < 1 || logTable > LOG_TABLE_MAX) {
+			throw new IllegalArgumentException("Taille de table ANS invalide : " + logTable);
+		}
+		int tailleOrigine = entree.getInt();
+		if(destination.remaining() < tailleOrigine) {
+			throw new IllegalArgumentException("Buffer de destination trop petit : " + tailleOrigine + " octets nécessaires");
+		}
+		CodeurANS codeur = new CodeurANS(logTable, lireFrequences(entree, logTable));
+		int[] table = codeur.tableDecodage();
+
+		int base = destination.position();
+		for(int debut = base; debut < base + tailleOrigine; debut += ArbreBinaire.TAILLE_BLOC) {
+			int fin = Math.min(base + tailleOrigine, debut + ArbreBinaire.TAILLE_BLOC);
+			int tailleFlux = entree.getInt();
+			LecteurBits lecteur = new LecteurBits(entree, entree.position(), entree.position() + tailleFlux);
+			entree.position(entree.position() + tailleFlux);
+
+			int etat = lecteur.lire(logTable);
+			int i = debut;
+			// Une recharge garantit 56 bits, soit 4 octets de logTable bits au plus
+			while(i + 4 < fin) {
+				lecteur.recharger();
+				for(int k = 0; k < 4; k++) {
+					int entreeTable = table[etat];
+					destination.put(i++, (byte) entreeTable);
+					etat = (entreeTable >>> 16) + lecteur.lire((entreeTable >>> 8) & 0xFF);
+				}
+			}
+			while(i < fin - 1) {
+				lecteur.recharger();
+				int entreeTable = table[etat];
+				destination.put(i++, (byte) entreeTable);
+				etat = (entreeTable >>> 16) + lecteur.lire((entreeTable >>> 8) & 0xFF);
+			}
+			destination.put(fin - 1, (byte) table[etat]);
+		}
+
+		source.position(entree.position());
+		destination.position(base + tailleOrigine);
+		return tailleOrigine;
+	}
+
+	/**
+	 * Construit la table de décodage : pour chaque état,
+	 * (base de l'état suivant << 16) | (bits à lire << 8) | octet.
+	 */
+	private int[] tableDecodage() {
+		int taille = 1 << logTable;
+		byte[] symboles = repartir(normalisees, logTable);
+		int[] suivants = normalisees.clone();
+		int[] table = new int[taille];
+		for(int etat = 0; etat < taille; etat++) {
+			int octet = symboles[etat] & 0xFF;
+			int x = suivants[octet]++;
+			int nbBits = logTable - (31 - Integer.numberOfLeadingZeros(x));
+			int base = (x << nbBits) - taille;
+			table[etat] = (base << 16) | (nbBits << 8) | octet;
+		}
+		return table;
+	}
+
+	/**
+	 * En-tête des fréquences : masque de 32 octets des octets présents,
+	 * puis chaque fréquence normalisée moins 1, sur 1 octet (< 128) ou 2.
+	 */
+	private void ecrireFrequences(ByteBuffer sortie) {
+		for(int i = 0; i < 32; i++) {
+			int masque = 0;
+			for(int j = 0; j < 8; j++) {
+				if(normalisees[i * 8 + j] > 0) {
+					masque |= 0x80 >>> j;
+				}
+			}
+			sortie.put((byte) masque);
+		}
+		for(int octet = 0; octet < 256; octet++) {
+			int valeur = normalisees[octet] - 1;
+			if(valeur >= 0x80) {
+				sortie.put((byte) (0x80 | (valeur >>> 8))).put((byte) valeur);
+			}
+			else if(valeur >= 0) {
+				sortie.put((byte) valeur);
+			}
+		}
+	}
+
+	private static int[] lireFrequences(ByteBuffer entree, int logTable) {
+		boolean[] presents = new boolean[256];
+		for(int i = 0; i < 32; i++) {
+			int masque = entree.get() & 0xFF;
+			for(int j = 0; j < 8; j++) {
+				presents[i * 8 + j] = (masque & (0x80 >>> j)) != 0;
+			}
+		}
+		int[] normalisees = new int[256];
+		long somme = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			if(presents[octet]) {
+				int valeur = entree.get() & 0xFF;
+				if(valeur >= 0x80) {
+					valeur = ((valeur & 0x7F) << 8) | (entree.get() & 0xFF);
+				}
+				normalisees[octet] = valeur + 1;
+				somme += normalisees[octet];
+			}
+		}
+		if(somme != 0 && somme != 1 << logTable) {
+			throw new IllegalArgumentException("Fréquences ANS invalides");
+		}
+		return normalisees;
+	}
+}
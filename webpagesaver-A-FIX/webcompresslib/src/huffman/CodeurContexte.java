@@ -0,0 +1,366 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codage de Huffman d'ordre 1 : le code d'un octet dépend de l'octet qui le
+ * précède.
+ *
+ * Dans du HTML ou du CSS, l'octet précédent prédit bien le suivant (une
+ * lettre après '<', un espace ou un chiffre après ':', '/' après "<"...).
+ * Une table par octet précédent coûterait 256 tables dans l'en-tête ; les
+ * contextes sont donc regroupés en au plus NB_TABLES_MAX groupes, chacun
+ * avec sa table de Huffman canonique. Le regroupement est glouton : on part
+ * d'un groupe par contexte et on fusionne à chaque étape les deux groupes
+ * dont la fusion coûte le moins de bits (entropie des données plus taille
+ * de la table), tant qu'il y a trop de groupes ou qu'une fusion fait gagner.
+ *
+ * L'en-tête stocke la carte des contextes (le numéro de table de chacun des
+ * 256 contextes, sur le nombre de bits juste nécessaire) puis les tables.
+ */
+public class CodeurContexte {
+
+	/**
+	 * Nombre maximal de tables de codes.
+	 */
+	public static final int NB_TABLES_MAX = 16;
+
+	/**
+	 * Contexte du premier octet, qui n'a pas de prédécesseur.
+	 */
+	private static final int CONTEXTE_INITIAL = 0;
+
+	/**
+	 * Numéro de table de chaque contexte (octet précédent).
+	 */
+	private final int[] carte;
+
+	private final TableHuffman[] tables;
+
+	/**
+	 * Crée un codeur à partir des fréquences d'ordre 1 d'un contenu.
+	 * @param frequences frequences[precedent][octet] : voir frequences(ByteBuffer)
+	 */
+	public CodeurContexte(int[][] frequences) {
+		this.carte = new int[256];
+		int[][] groupes = regrouper(frequences, carte);
+		this.tables = new TableHuffman[groupes.length];
+		for(int t = 0; t < groupes.length; t++) {
+			tables[t] = new ArbreBinaire(groupes[t]).tableCanonique();
+		}
+	}
+
+	private CodeurContexte(int[] carte, TableHuffman[] tables) {
+		this.carte = carte;
+		this.tables = tables;
+	}
+
+	/**
+	 * Compte les apparitions de chaque octet selon l'octet qui le précède,
+	 * sans modifier la position du buffer.
+	 * @param donnees Le contenu à analyser, entre sa position et sa limite
+	 * @return Un tableau [précédent][octet] de 256 x 256 fréquences
+	 */
+	public static int[][] frequences(ByteBuffer donnees) {
+		int[][] frequences = new int[256][256];
+		int precedent = CONTEXTE_INITIAL;
+		for(int i = donnees.position(); i < donnees.limit(); i++) {
+			int octet = donnees.get(i) & 0xFF;
+			frequences[precedent][octet]++;
+			precedent = octet;
+		}
+		return frequences;
+	}
+
+	/**
+	 * @param donnees Le contenu à analyser
+	 * @return Un tableau [précédent][octet] de 256 x 256 fréquences
+	 */
+	public static int[][] frequences(byte[] donnees) {
+		return frequences(ByteBuffer.wrap(donnees));
+	}
+
+	/**
+	 * Regroupe les contextes de façon gloutonne.
+	 * @param frequences Les fréquences d'ordre 1
+	 * @param carte Reçoit le numéro de groupe de chaque contexte
+	 * @return L'histogramme de chaque groupe
+	 */
+	private static int[][] regrouper(int[][] frequences, int[] carte) {
+		// Un groupe par contexte présent
+		int[] contextes = new int[256];
+		int k = 0;
+		for(int precedent = 0; precedent < 256; precedent++) {
+			for(int frequence : frequences[precedent]) {
+				if(frequence > 0) {
+					contextes[k++] = precedent;
+					break;
+				}
+			}
+		}
+		int[][] histogrammes = new int[k][];
+		double[] couts = new double[k];
+		int[] groupeDe = new int[256];
+		for(int g = 0; g < k; g++) {
+			histogrammes[g] = frequences[contextes[g]].clone();
+			couts[g] = cout(histogrammes[g], null);
+			groupeDe[contextes[g]] = g;
+		}
+
+		// Gain (négatif) ou perte de chaque fusion possible
+		double[][] ecarts = new double[k][k];
+		for(int a = 0; a < k; a++) {
+			for(int b = a + 1; b < k; b++) {
+				ecarts[a][b] = cout(histogrammes[a], histogrammes[b]) - couts[a] - couts[b];
+			}
+		}
+
+		boolean[] fusionne = new boolean[k];
+		int restants = k;
+		while(restants > 1) {
+			int meilleurA = -1, meilleurB = -1;
+			for(int a = 0; a < k; a++) {
+				if(fusionne[a]) {
+					continue;
+				}
+				for(int b = a + 1; b < k; b++) {
+					if(!fusionne[b] && (meilleurA < 0 || ecarts[a][b] < ecarts[meilleurA][meilleurB])) {
+						meilleurA = a;
+						meilleurB = b;
+					}
+				}
+			}
+			if(restants <= NB_TABLES_MAX && ecarts[meilleurA][meilleurB] >= 0) {
+				break;
+			}
+
+			// Fusion de meilleurB dans meilleurA
+			for(int octet = 0; octet < 256; octet++) {
+				histogrammes[meilleurA][octet] += histogrammes[meilleurB][octet];
+			}
+			couts[meilleurA] += couts[meilleurB] + ecarts[meilleurA][meilleurB];
+			fusionne[meilleurB] = true;
+			restants--;
+			for(int c = 0; c < 256; c++) {
+				if(groupeDe[c] == meilleurB) {
+					groupeDe[c] = meilleurA;
+				}
+			}
+			for(int autre = 0; autre < k; autre++) {
+				if(!fusionne[autre] && autre != meilleurA) {
+					int a = Math.min(autre, meilleurA), b = Math.max(autre, meilleurA);
+					ecarts[a][b] = cout(histogrammes[a], histogrammes[b]) - couts[a] - couts[b];
+				}
+			}
+		}
+
+		// Renumérotation des groupes restants ; les contextes absents vont dans le groupe 0
+		int[] numeros = new int[k];
+		int[][] groupes = new int[restants][];
+		int t = 0;
+		for(int g = 0; g < k; g++) {
+			if(!fusionne[g]) {
+				numeros[g] = t;
+				groupes[t++] = histogrammes[g];
+			}
+		}
+		for(int g = 0; g < k; g++) {
+			carte[contextes[g]] = numeros[groupeDe[contextes[g]]];
+		}
+		return groupes;
+	}
+
+	/**
+	 * Estime le nombre de bits pour coder un histogramme (ou la somme de
+	 * deux) : son entropie, plus la taille de sa table dans l'en-tête.
+	 */
+	private static double cout(int[] histogramme, int[] autre) {
+		long total = 0;
+		double somme = 0;
+		int nbSymboles = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			int n = histogramme[octet] + (autre == null ? 0 : autre[octet]);
+			if(n > 0) {
+				total += n;
+				somme += n * Math.log(n);
+				nbSymboles++;
+			}
+		}
+		double entropie = (total * Math.log(total) - somme) / Math.log(2);
+		return entropie + (32 + (nbSymboles + 1) / 2) * 8;
+	}
+
+	/**
+	 * @return Le nombre de bits d'un numéro de table dans la carte des contextes
+	 */
+	private static int bitsParContexte(int nbTables) {
+		return nbTables <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(nbTables - 1);
+	}
+
+	/**
+	 * @return Le nombre de tables de codes retenues
+	 */
+	public int nbTables() {
+		return tables.length;
+	}
+
+	/**
+	 * Majore la taille d'un contenu encodé, pour dimensionner le buffer de destination.
+	 * @param taille La taille du contenu d'origine
+	 * @return Le nombre d'octets maximal du contenu encodé
+	 */
+	public int majorant(int taille) {
+		return (int) (8 + 128 + tables.length * 160 + 4 + ((long) taille * TableHuffman.LONGUEUR_MAX + 7) / 8);
+	}
+
+	/**
+	 * Encode un contenu.
+	 * @param donnees Le contenu à encoder, celui dont les fréquences ont servi à créer le codeur
+	 * @return Le contenu encodé
+	 * @see #encodeOctets(ByteBuffer, ByteBuffer)
+	 */
+	public byte[] encodeOctets(byte[] donnees) {
+		ByteBuffer sortie = ByteBuffer.allocate(majorant(donnees.length));
+		encodeOctets(ByteBuffer.wrap(donnees), sortie);
+		return Arrays.copyOf(sortie.array(), sortie.position());
+	}
+
+	/**
+	 * Encode un contenu d'un buffer à l'autre (buffers directs acceptés).
+	 *
+	 * Format : signature "WC", mode contexte, nombre de tables, taille
+	 * d'origine (4 octets), carte des contextes, tables de codes, puis la
+	 * taille en octets du flux de bits et le flux lui-même. Chaque octet
+	 * dépendant du précédent, le flux n'est pas découpé.
+	 *
+	 * @param source Le contenu à encoder, entre sa position et sa limite ; sa position avance jusqu'à la limite
+	 * @param destination Le buffer qui reçoit le contenu encodé à partir de sa position, qui avance d'autant
+	 * @return Le nombre d'octets écrits
+	 */
+	public int encodeOctets(ByteBuffer source, ByteBuffer destination) {
+		int base = source.position();
+		int longueur = source.remaining();
+
+		// Le format est gros-boutiste, quel que soit l'ordre choisi par l'appelant
+		ByteBuffer sortie = destination.duplicate();
+		sortie.put(ArbreBinaire.SIGNATURE).put(ArbreBinaire.MODE_CONTEXTE).put((byte) tables.length).putInt(longueur);
+		EcrivainBits ecrivain = new EcrivainBits(sortie);
+		int bits = bitsParContexte(tables.length);
+		for(int contexte = 0; contexte < 256; contexte++) {
+			ecrivain.ecrire(carte[contexte], bits);
+		}
+		ecrivain.terminer();
+		for(TableHuffman table : tables) {
+			table.ecrire(sortie);
+		}
+
+		int positionTaille = sortie.position();
+		sortie.position(positionTaille + 4);
+		int precedent = CONTEXTE_INITIAL;
+		for(int i = base; i < base + longueur; i++) {
+			int octet = source.get(i) & 0xFF;
+			TableHuffman table = tables[carte[precedent]];
+			int longueurCode = table.longueurs[octet];
+			if(longueurCode == 0) {
+				throw new IllegalArgumentException("L'octet " + octet + " n'a pas de code après l'octet " + precedent);
+			}
+			ecrivain.ecrire(table.codes[octet], longueurCode);
+			precedent = octet;
+		}
+		ecrivain.terminer();
+		sortie.putInt(positionTaille, sortie.position() - positionTaille - 4);
+
+		int ecrits = sortie.position() - destination.position();
+		source.position(source.limit());
+		destination.position(sortie.position());
+		return ecrits;
+	}
+
+	/**
+	 * Décode un contenu produit par encodeOctets.
+	 * @param code Le contenu compressé (signature comprise)
+	 * @return Le contenu d'origine
+	 */
+	public static byte[] decodeOctets(byte[] code) {
+		ByteBuffer entree = ByteBuffer.wrap(code);
+		byte[] sortie = new byte[ArbreBinaire.tailleOrigine(entree)];
+		decodeOctets(entree, ByteBuffer.wrap(sortie));
+		return sortie;
+	}
+
+	/**
+	 * Décode un contenu d'un buffer à l'autre (buffers directs acceptés).
+	 * @param source Le contenu compressé, à partir de sa position, qui avance jusqu'à la fin du contenu
+	 * @param destination Le buffer qui reçoit le contenu d'origine ; sa position avance d'autant
+	 * @return Le nombre d'octets décodés
+	 */
+	public static int decodeOctets(ByteBuffer source, ByteBuffer destination) {
+		ByteBuffer entree = source.duplicate();
+		entree.position(entree.position() + ArbreBinaire.SIGNATURE.length);
+		if(entree.get() != ArbreBinaire.MODE_CONTEXTE) {
+			throw new IllegalArgumentException("Ce contenu n'a pas été encodé par CodeurContexte");
+		}
+		int nbTables = entree.get();
+		if(nbTables < 0 || nbTables > NB_TABLES_MAX) {
+			throw new IllegalArgumentException("Nombre de tables invalide : " + nbTables);
+		}
+		int tailleOrigine = entree.getInt();
+		if(destination.remaining() < tailleOrigine) {
+			throw new IllegalArgumentException("Buffer de destination trop petit : " + tailleOrigine + " octets nécessaires");
+		}
+
+		int bits = bitsParContexte(nbTables);
+		int octetsCarte = (256 * bits + 7) / 8;
+		LecteurBits lecteurCarte = new LecteurBits(entree, entree.position(), entree.position() + octetsCarte);
+		int[] carte = new int[256];
+		for(int contexte = 0; contexte < 256; contexte++) {
+			lecteurCarte.recharger();
+			carte[contexte] = lecteurCarte.lire(bits);
+			if(carte[contexte] >= Math.max(1, nbTables)) {
+				throw new IllegalArgumentException("Carte des contextes corrompue");
+			}
+		}
+		entree.position(entree.position() + octetsCarte);
+		TableHuffman[] tables = new TableHuffman[nbTables];
+		for(int t = 0; t < nbTables; t++) {
+			tables[t] = TableHuffman.lire(entree);
+		}
+		if(tailleOrigine > 0 && nbTables == 0) {
+			throw new IllegalArgumentException("Contenu sans table de codes");
+		}
+
+		// Table de décodage de chaque contexte, pour une seule indirection par octet
+		short[][] parContexte = new short[256][];
+		for(int contexte = 0; contexte < 256 && nbTables > 0; contexte++) {
+			parContexte[contexte] = tables[carte[contexte]].tableDecodage();
+		}
+
+		int tailleFlux = entree.getInt();
+		LecteurBits lecteur = new LecteurBits(entree, entree.position(), entree.position() + tailleFlux);
+		entree.position(entree.position() + tailleFlux);
+
+		int base = destination.position();
+		int fin = base + tailleOrigine;
+		int precedent = CONTEXTE_INITIAL;
+		int i = base;
+		while(i < fin) {
+			// Une recharge garantit 56 bits, soit 4 codes de LONGUEUR_MAX bits
+			lecteur.recharger();
+			for(int k = Math.min(4, fin - i); k > 0; k--) {
+				int entreeTable = parContexte[precedent][lecteur.regarder(TableHuffman.LONGUEUR_MAX)];
+				int longueur = entreeTable & 0x0F;
+				if(longueur == 0) {
+					throw new IllegalArgumentException("Flux de Huffman corrompu");
+				}
+				lecteur.avancer(longueur);
+				precedent = entreeTable >>> 4;
+				destination.put(i++, (byte) precedent);
+			}
+		}
+
+		source.position(entree.position());
+		destination.position(fin);
+		return tailleOrigine;
+	}
+}
@@ -0,0 +1,236 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Delta binaire entre deux versions d'un contenu : la nouvelle version est
+ * décrite par une suite d'opérations « copier n octets de l'ancienne
+ * version à partir de telle position » et « insérer ces octets ».
+ *
+ * Les copies sont trouvées avec une table de hachage des fenêtres de
+ * FENETRE octets de l'ancienne version, comme un LZ77 dont le dictionnaire
+ * serait l'ancienne version. Une page modifiée à quelques endroits donne
+ * donc quelques copies longues et de petites insertions.
+ *
+ * Format (avant codage entropique) : taille de l'ancienne version, taille
+ * de la nouvelle, CRC32 de la nouvelle, puis les opérations. Les nombres
+ * sont des entiers de taille variable (7 bits par octet).
+ */
+public class Delta {
+
+	/**
+	 * Taille minimale d'une copie, en octets.
+	 */
+	public static final int FENETRE = 8;
+
+	private static final int INSERER = 0;
+	private static final int COPIER = 1;
+
+	private Delta() {
+	}
+
+	/**
+	 * Calcule le delta qui transforme ancien en nouveau, codé avec
+	 * ArbreBinaire.encodeOctets.
+	 * @param ancien La version de référence
+	 * @param nouveau La nouvelle version
+	 * @return Le delta compressé
+	 */
+	public static byte[] encoder(byte[] ancien, byte[] nouveau) {
+		byte[] operations = operations(ancien, nouveau);
+		return new ArbreBinaire(ArbreBinaire.frequences(operations)).encodeOctets(operations, 1);
+	}
+
+	/**
+	 * Reconstruit la nouvelle version à partir de l'ancienne et d'un delta produit par encoder.
+	 * @param ancien La version de référence
+	 * @param delta Le delta compressé
+	 * @return La nouvelle version
+	 * @throws IllegalArgumentException Si le delta ne correspond pas à cette version de référence, ou s'il est corrompu
+	 */
+	public static byte[] appliquer(byte[] ancien, byte[] delta) {
+		ByteBuffer entree = ByteBuffer.wrap(decoder(delta));
+		if(lireEntier(entree) != ancien.length) {
+			throw new IllegalArgumentException("Delta calculé sur une autre version de référence");
+		}
+		int taille = lireEntier(entree);
+		if(taille < 0 || entree.remaining() < 4) {
+			throw new IllegalArgumentException("Delta corrompu");
+		}
+		int crc = entree.getInt();
+
+		// Première passe : les opérations sont vérifiées avant d'allouer la nouvelle version (un delta corrompu peut en
+		// annoncer n'importe quelle taille) ; aucune ne lit ni n'écrit hors des deux versions
+		int debut = entree.position();
+		long total = 0;
+		while(entree.hasRemaining()) {
+			int operation = entree.get();
+			int longueur = lireEntier(entree);
+			if(longueur < 0 || longueur > taille - total) {
+				throw new IllegalArgumentException("Delta corrompu : opération au-delà de la nouvelle version");
+			}
+			if(operation == COPIER) {
+				int source = lireEntier(entree);
+				if(source < 0 || longueur > ancien.length - source) {
+					throw new IllegalArgumentException("Delta corrompu : copie au-delà de la version de référence");
+				}
+			}
+			else if(operation == INSERER) {
+				if(longueur > entree.remaining()) {
+					throw new IllegalArgumentException("Delta corrompu : insertion tronquée");
+				}
+				entree.position(entree.position() + longueur);
+			}
+			else {
+				throw new IllegalArgumentException("Opération de delta inconnue : " + operation);
+			}
+			total += longueur;
+		}
+		if(total != taille) {
+			throw new IllegalArgumentException("Delta corrompu");
+		}
+
+		byte[] nouveau = new byte[taille];
+		entree.position(debut);
+		int position = 0;
+		while(entree.hasRemaining()) {
+			int operation = entree.get();
+			int longueur = lireEntier(entree);
+			if(operation == COPIER) {
+				System.arraycopy(ancien, lireEntier(entree), nouveau, position, longueur);
+			}
+			else {
+				entree.get(nouveau, position, longueur);
+			}
+			position += longueur;
+		}
+		if(crc(nouveau) != crc) {
+			throw new IllegalArgumentException("Delta corrompu");
+		}
+		return nouveau;
+	}
+
+	// Un delta est toujours encodé en mode Huffman : chaque bloc de TAILLE_BLOC octets décodés coûte au moins les
+	// 4 octets de la taille de son flux, ce qui borne la taille annoncée avant de l'allouer
+	private static byte[] decoder(byte[] delta) {
+		if(!ArbreBinaire.estFormatBinaire(delta) || delta.length < ArbreBinaire.SIGNATURE.length + 6
+				|| delta[ArbreBinaire.SIGNATURE.length] != ArbreBinaire.MODE_HUFFMAN) {
+			throw new IllegalArgumentException("Delta corrompu : format inconnu");
+		}
+		int taille = ArbreBinaire.tailleOrigine(ByteBuffer.wrap(delta));
+		if(taille < 0 || taille > (long) ArbreBinaire.TAILLE_BLOC * (delta.length / 4 + 1)) {
+			throw new IllegalArgumentException("Delta corrompu : taille " + taille);
+		}
+		try {
+			return ArbreBinaire.decodeOctets(delta);
+		}
+		catch(IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new IllegalArgumentException("Delta corrompu", e);
+		}
+	}
+
+	/**
+	 * Calcule la suite d'opérations (non compressée).
+	 */
+	static byte[] operations(byte[] ancien, byte[] nouveau) {
+		ByteArrayOutputStream sortie = new ByteArrayOutputStream(nouveau.length / 8 + 16);
+		ecrireEntier(sortie, ancien.length);
+		ecrireEntier(sortie, nouveau.length);
+		int crc = crc(nouveau);
+		sortie.write(crc >>> 24);
+		sortie.write(crc >>> 16);
+		sortie.write(crc >>> 8);
+		sortie.write(crc);
+
+		// Dernière position de l'ancienne version pour chaque empreinte de fenêtre
+		int bits = Math.max(10, Math.min(22, 33 - Integer.numberOfLeadingZeros(ancien.length)));
+		int[] table = new int[1 << bits];
+		ByteBuffer vueAncien = ByteBuffer.wrap(ancien);
+		ByteBuffer vueNouveau = ByteBuffer.wrap(nouveau);
+		for(int i = 0; i + FENETRE <= ancien.length; i++) {
+			table[empreinte(vueAncien.getLong(i), bits)] = i + 1;
+		}
+
+		int debutInsertion = 0;
+		int position = 0;
+		int suite = -1;
+		while(position + FENETRE <= nouveau.length) {
+			// Après une copie, on essaie d'abord de continuer au même endroit de l'ancienne version
+			int candidat = suite;
+			if(candidat < 0 || candidat + FENETRE > ancien.length || vueAncien.getLong(candidat) != vueNouveau.getLong(position)) {
+				candidat = table[empreinte(vueNouveau.getLong(position), bits)] - 1;
+			}
+			if(candidat < 0 || vueAncien.getLong(candidat) != vueNouveau.getLong(position)) {
+				position++;
+				suite = -1;
+				continue;
+			}
+
+			// Extension de la copie vers l'avant, puis vers l'arrière sur les octets pas encore émis
+			int longueur = FENETRE;
+			while(position + longueur < nouveau.length && candidat + longueur < ancien.length
+					&& nouveau[position + longueur] == ancien[candidat + longueur]) {
+				longueur++;
+			}
+			while(position > debutInsertion && candidat > 0 && nouveau[position - 1] == ancien[candidat - 1]) {
+				position--;
+				candidat--;
+				longueur++;
+			}
+
+			if(position > debutInsertion) {
+				sortie.write(INSERER);
+				ecrireEntier(sortie, position - debutInsertion);
+				sortie.write(nouveau, debutInsertion, position - debutInsertion);
+			}
+			sortie.write(COPIER);
+			ecrireEntier(sortie, longueur);
+			ecrireEntier(sortie, candidat);
+			position += longueur;
+			debutInsertion = position;
+			suite = candidat + longueur;
+		}
+		if(nouveau.length > debutInsertion) {
+			sortie.write(INSERER);
+			ecrireEntier(sortie, nouveau.length - debutInsertion);
+			sortie.write(nouveau, debutInsertion, nouveau.length - debutInsertion);
+		}
+		return sortie.toByteArray();
+	}
+
+	private static int empreinte(long fenetre, int bits) {
+		return (int) ((fenetre * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+	}
+
+	private static int crc(byte[] contenu) {
+		CRC32 crc = new CRC32();
+		crc.update(contenu);
+		return (int) crc.getValue();
+	}
+
+	private static void ecrireEntier(ByteArrayOutputStream sortie, int valeur) {
+		while((valeur & ~0x7F) != 0) {
+			sortie.write((valeur & 0x7F) | 0x80);
+			valeur >>>= 7;
+		}
+		sortie.write(valeur);
+	}
+
+	private static int lireEntier(ByteBuffer entree) {
+		int valeur = 0;
+		for(int decalage = 0; decalage < 35; decalage += 7) {
+			if(!entree.hasRemaining()) {
+				throw new IllegalArgumentException("Delta tronqué");
+			}
+			int octet = entree.get() & 0xFF;
+			valeur |= (octet & 0x7F) << decalage;
+			if(octet < 0x80) {
+				return valeur;
+			}
+		}
+		throw new IllegalArgumentException("Entier de delta invalide");
+	}
+}
@@ -0,0 +1,45 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Écrit une suite de codes de longueur variable dans un buffer,
+ * bit de poids fort en premier.
+ * Les bits sont accumulés dans un long et écrits 32 par 32.
+ */
+class EcrivainBits {
+	private final ByteBuffer sortie;
+	private long accumulateur = 0;
+	private int nbBits = 0;
+
+	EcrivainBits(ByteBuffer sortie) {
+		this.sortie = sortie;
+	}
+
+	/**
+	 * Ajoute un code au flux.
+	 * @param code Le code, aligné à droite
+	 * @param longueur Le nombre de bits du code (au plus 32)
+	 */
+	void ecrire(int code, int longueur) {
+		accumulateur = (accumulateur << longueur) | (code & ((1L << longueur) - 1));
+		nbBits += longueur;
+		if(nbBits >= 32) {
+			nbBits -= 32;
+			sortie.putInt((int) (accumulateur >>> nbBits));
+		}
+	}
+
+	/**
+	 * Écrit les derniers bits, complétés par des 0 jusqu'à l'octet suivant.
+	 */
+	void terminer() {
+		while(nbBits > 0) {
+			int decalage = nbBits - 8;
+			sortie.put((byte) (decalage >= 0 ? accumulateur >>> decalage : accumulateur << -decalage));
+			nbBits -= 8;
+		}
+		nbBits = 0;
+		accumulateur = 0;
+	}
+}
@@ -0,0 +1,82 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lit un flux de bits écrit par EcrivainBits, entre deux positions d'un buffer.
+ *
+ * Les bits à lire sont gardés alignés à gauche dans un long : regarder les
+ * k prochains bits est un simple décalage, et une recharge en apporte au
+ * moins 56. Les bits lus au-delà de la fin du flux valent 0.
+ */
+class LecteurBits {
+	// Champs accessibles au paquetage : le décodeur à 4 flux les recopie dans
+	// des variables locales pour sa boucle principale
+	final ByteBuffer entree;
+	final int fin;
+	int position;
+	long conteneur = 0;
+	int nbBits = 0;
+
+	/**
+	 * @param entree Le buffer contenant le flux
+	 * @param debut La position du premier octet du flux
+	 * @param fin La position qui suit le dernier octet du flux
+	 */
+	LecteurBits(ByteBuffer entree, int debut, int fin) {
+		this.entree = entree;
+		this.position = debut;
+		this.fin = fin;
+		recharger();
+	}
+
+	/**
+	 * Complète le conteneur pour qu'il contienne au moins 56 bits (sauf en fin de flux).
+	 */
+	void recharger() {
+		if(position + 8 <= fin) {
+			// Lecture de 8 octets d'un coup ; seuls les octets entiers sont consommés,
+			// les bits en trop seront relus à l'identique à la prochaine recharge
+			conteneur |= entree.getLong(position) >>> nbBits;
+			int octets = (63 - nbBits) >>> 3;
+			position += octets;
+			nbBits += octets << 3;
+		}
+		else {
+			while(nbBits <= 56 && position < fin) {
+				conteneur |= (entree.get(position++) & 0xFFL) << (56 - nbBits);
+				nbBits += 8;
+			}
+			// Au-delà de la fin, des 0 : on considère le conteneur toujours plein
+			if(position >= fin) {
+				nbBits = 64;
+			}
+		}
+	}
+
+	/**
+	 * @param n Le nombre de bits (1 à 32)
+	 * @return Les n prochains bits, sans les consommer
+	 */
+	int regarder(int n) {
+		return (int) (conteneur >>> (64 - n));
+	}
+
+	/**
+	 * Consomme n bits.
+	 */
+	void avancer(int n) {
+		conteneur <<= n;
+		nbBits -= n;
+	}
+
+	/**
+	 * Lit et consomme n bits (0 à 32).
+	 */
+	int lire(int n) {
+		// Double décalage : un décalage de 64 ne ferait rien en Java, alors qu'on veut 0 pour n = 0
+		int valeur = (int) ((conteneur >>> 1) >>> (63 - n));
+		avancer(n);
+		return valeur;
+	}
+}
@@ -0,0 +1,261 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table de codes de Huffman canonique sur les 256 valeurs d'octet.
+ *
+ * Seules les longueurs de code sont stockées dans l'en-tête d'un fichier
+ * compressé : les codes eux-mêmes s'en déduisent (codes canoniques, comme
+ * dans deflate). Les longueurs sont limitées à LONGUEUR_MAX bits, ce qui
+ * permet de décoder un symbole par une seule lecture dans une table de
+ * 2^LONGUEUR_MAX entrées au lieu de descendre dans l'arbre bit par bit.
+ */
+public class TableHuffman {
+
+	/**
+	 * Longueur maximale d'un code, en bits.
+	 */
+	public static final int LONGUEUR_MAX = 11;
+
+	/**
+	 * Longueur du code de chaque octet (0 si l'octet n'apparaît pas).
+	 */
+	final int[] longueurs;
+
+	/**
+	 * Code canonique de chaque octet, aligné à droite sur longueurs[octet] bits.
+	 */
+	final int[] codes = new int[256];
+
+	/**
+	 * Table de décodage : pour les LONGUEUR_MAX prochains bits du flux,
+	 * (octet << 4) | longueur du code qui les commence.
+	 */
+	private short[] tableDecodage;
+
+	/**
+	 * Crée la table à partir des longueurs de code.
+	 * @param longueurs La longueur du code de chaque octet (256 cases, 0 = absent)
+	 * @throws IllegalArgumentException Si les longueurs ne forment pas un code préfixe valide
+	 */
+	public TableHuffman(int[] longueurs) {
+		this.longueurs = longueurs.clone();
+
+		// Vérification de l'inégalité de Kraft : la somme des 2^-longueur ne dépasse pas 1
+		long kraft = 0;
+		int[] nbParLongueur = new int[LONGUEUR_MAX + 2];
+		for(int octet = 0; octet < 256; octet++) {
+			int longueur = this.longueurs[octet];
+			if(longueur < 0 || longueur > LONGUEUR_MAX) {
+				throw new IllegalArgumentException("Table de Huffman invalide : longueur " + longueur);
+			}
+			if(longueur > 0) {
+				kraft += 1L << (LONGUEUR_MAX - longueur);
+				nbParLongueur[longueur]++;
+			}
+		}
+		if(kraft > 1L << LONGUEUR_MAX) {
+			throw new IllegalArgumentException("Table de Huffman invalide : code non préfixe");
+		}
+
+		// Attribution des codes canoniques : par longueur croissante, puis par octet croissant
+		int[] prochainCode = new int[LONGUEUR_MAX + 2];
+		int code = 0;
+		for(int longueur = 1; longueur <= LONGUEUR_MAX; longueur++) {
+			code = (code + nbParLongueur[longueur - 1]) << 1;
+			prochainCode[longueur] = code;
+		}
+		for(int octet = 0; octet < 256; octet++) {
+			int longueur = this.longueurs[octet];
+			if(longueur > 0) {
+				codes[octet] = prochainCode[longueur]++;
+			}
+		}
+	}
+
+	/**
+	 * Ramène toutes les longueurs à au plus LONGUEUR_MAX bits.
+	 * Les codes trop longs sont tronqués, puis on allonge les codes les plus
+	 * longs restants (ceux des octets les plus rares) jusqu'à respecter de
+	 * nouveau l'inégalité de Kraft.
+	 * @param longueurs Les longueurs issues de l'arbre de Huffman, modifiées sur place
+	 */
+	static void limiterLongueurs(int[] longueurs) {
+		long capacite = 1L << LONGUEUR_MAX;
+		long kraft = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			if(longueurs[octet] > LONGUEUR_MAX) {
+				longueurs[octet] = LONGUEUR_MAX;
+			}
+			if(longueurs[octet] > 0) {
+				kraft += 1L << (LONGUEUR_MAX - longueurs[octet]);
+			}
+		}
+
+		while(kraft > capacite) {
+			int choisi = -1;
+			for(int octet = 0; octet < 256; octet++) {
+				int longueur = longueurs[octet];
+				if(longueur > 0 && longueur < LONGUEUR_MAX && (choisi < 0 || longueur > longueurs[choisi])) {
+					choisi = octet;
+				}
+			}
+			kraft -= 1L << (LONGUEUR_MAX - longueurs[choisi] - 1);
+			longueurs[choisi]++;
+		}
+	}
+
+	/**
+	 * @param octet Un octet (0 à 255)
+	 * @return La longueur de son code, 0 s'il n'a pas de code
+	 */
+	public int longueur(int octet) {
+		return longueurs[octet];
+	}
+
+	/**
+	 * Coût d'un contenu encodé avec cette table, calculé sur son histogramme
+	 * seul, sans l'encoder.
+	 * @param frequences Le nombre d'apparitions de chaque octet du contenu
+	 * @return Le nombre de bits du contenu encodé (table non comprise), ou -1 si un octet du contenu n'a pas de code
+	 */
+	public long cout(int[] frequences) {
+		long bits = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			if(frequences[octet] > 0) {
+				if(longueurs[octet] == 0) {
+					return -1;
+				}
+				bits += (long) frequences[octet] * longueurs[octet];
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Borne d'entropie d'un histogramme : aucun code par octet ne fait mieux,
+	 * et la table de Huffman construite sur cet histogramme s'en approche.
+	 * @param frequences Le nombre d'apparitions de chaque octet
+	 * @return Le nombre minimal de bits du contenu encodé
+	 */
+	public static double entropie(int[] frequences) {
+		long total = 0;
+		for(int f : frequences) {
+			total += f;
+		}
+		double bits = 0;
+		for(int f : frequences) {
+			if(f > 0) {
+				bits += f * (Math.log((double) total / f) / Math.log(2));
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * @return La taille de la table écrite par ecrire(), en octets
+	 */
+	public int tailleEcrite() {
+		int nbPresents = 0;
+		for(int longueur : longueurs) {
+			if(longueur > 0) {
+				nbPresents++;
+			}
+		}
+		return 32 + (nbPresents + 1) / 2;
+	}
+
+	/**
+	 * Construit (une seule fois) la table de décodage directe.
+	 * @return La table de 2^LONGUEUR_MAX entrées
+	 */
+	short[] tableDecodage() {
+		if(tableDecodage == null) {
+			short[] table = new short[1 << LONGUEUR_MAX];
+			for(int octet = 0; octet < 256; octet++) {
+				int longueur = longueurs[octet];
+				if(longueur > 0) {
+					int debut = codes[octet] << (LONGUEUR_MAX - longueur);
+					int fin = debut + (1 << (LONGUEUR_MAX - longueur));
+					for(int i = debut; i < fin; i++) {
+						table[i] = (short) ((octet << 4) | longueur);
+					}
+				}
+			}
+			tableDecodage = table;
+		}
+		return tableDecodage;
+	}
+
+	/**
+	 * Écrit la table : un masque de 32 octets indiquant les octets présents,
+	 * puis la longueur de chaque octet présent sur 4 bits.
+	 * @param sortie Le buffer de sortie
+	 */
+	public void ecrire(ByteBuffer sortie) {
+		int nbPresents = 0;
+		for(int i = 0; i < 32; i++) {
+			int masque = 0;
+			for(int j = 0; j < 8; j++) {
+				if(longueurs[i * 8 + j] > 0) {
+					masque |= 0x80 >>> j;
+					nbPresents++;
+				}
+			}
+			sortie.put((byte) masque);
+		}
+
+		int quartet = 0;
+		int rang = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			if(longueurs[octet] > 0) {
+				if(rang % 2 == 0) {
+					quartet = longueurs[octet] << 4;
+				}
+				else {
+					sortie.put((byte) (quartet | longueurs[octet]));
+				}
+				rang++;
+			}
+		}
+		if(nbPresents % 2 == 1) {
+			sortie.put((byte) quartet);
+		}
+	}
+
+	/**
+	 * Relit une table écrite par ecrire().
+	 * @param entree Le buffer, positionné au début de la table
+	 * @return La table lue
+	 */
+	public static TableHuffman lire(ByteBuffer entree) {
+		boolean[] presents = new boolean[256];
+		for(int i = 0; i < 32; i++) {
+			int masque = entree.get() & 0xFF;
+			for(int j = 0; j < 8; j++) {
+				presents[i * 8 + j] = (masque & (0x80 >>> j)) != 0;
+			}
+		}
+
+		int[] longueurs = new int[256];
+		int rang = 0;
+		int quartets = 0;
+		for(int octet = 0; octet < 256; octet++) {
+			if(presents[octet]) {
+				if(rang % 2 == 0) {
+					quartets = entree.get() & 0xFF;
+					longueurs[octet] = quartets >>> 4;
+				}
+				else {
+					longueurs[octet] = quartets & 0x0F;
+				}
+				if(longueurs[octet] == 0) {
+					throw new IllegalArgumentException("Table de Huffman invalide : longueur nulle");
+				}
+				rang++;
+			}
+		}
+		return new TableHuffman(longueurs);
+	}
+}
@@ -1,10 +1,148 @@
 package huffman;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Vérifications aller-retour du format binaire de Huffman (1 et 4 flux,
+ * table partagée, codes construits sur un échantillon). Les jeux de données
+ * et la vérification servent aussi aux tests des autres codeurs.
+ * Chaque test s'arrête avec le code de sortie 1 au premier échec.
+ */
 public class testArbreBinaire {
 	public static void main(String[] args) {
+		for(Map.Entry<String, byte[]> jeu : jeux().entrySet()) {
+			String nom = jeu.getKey();
+			byte[] donnees = jeu.getValue();
+			ArbreBinaire arbre = new ArbreBinaire(ArbreBinaire.frequences(donnees));
+			for(int nbFlux : new int[] {1, 4}) {
+				byte[] code = arbre.encodeOctets(donnees, nbFlux);
+				verifier(nom + ", " + nbFlux + " flux", donnees, ArbreBinaire.decodeOctets(code));
+
+				// Table partagée : l'en-tête ne porte que la référence
+				TableHuffman table = arbre.tableCanonique();
+				byte[] reference = {1, 2, 3};
+				ByteBuffer sortie = ByteBuffer.allocate(ArbreBinaire.majorant(donnees.length, nbFlux));
+				ArbreBinaire.encodeOctets(table, reference, ByteBuffer.wrap(donnees), sortie, nbFlux);
+				sortie.flip();
+				verifier(nom + ", " + nbFlux + " flux, référence", reference, ArbreBinaire.referenceTable(sortie));
+				byte[] decode = new byte[ArbreBinaire.tailleOrigine(sortie)];
+				ArbreBinaire.decodeOctets(sortie, ByteBuffer.wrap(decode), r -> table);
+				verifier(nom + ", " + nbFlux + " flux, table partagée", donnees, decode);
+			}
+
+			// Codes construits sur un échantillon, avec et sans plancher
+			for(boolean avecPlancher : new boolean[] {true, false}) {
+				ByteBuffer sortie = ByteBuffer.allocate(ArbreBinaire.majorant(donnees.length, 4));
+				ArbreBinaire.encodeOctetsEchantillon(ByteBuffer.wrap(donnees), sortie, 4, 4096, avecPlancher, null);
+				verifier(nom + ", échantillon" + (avecPlancher ? " avec plancher" : ""), donnees,
+						ArbreBinaire.decodeOctets(Arrays.copyOf(sortie.array(), sortie.position())));
+			}
+		}
+
+		// Longueurs limitées : une distribution de Fibonacci donnerait des codes de plus de LONGUEUR_MAX bits
+		int[] longueurs = new ArbreBinaire(ArbreBinaire.frequences(jeux().get("fibonacci"))).tableCanonique().longueurs;
+		for(int octet = 0; octet < 256; octet++) {
+			if(longueurs[octet] > TableHuffman.LONGUEUR_MAX) {
+				echec("fibonacci, longueur du code de " + octet + " : " + longueurs[octet] + " bits");
+			}
+		}
+
+		// Ancien format, sur un fichier texte s'il est présent
 		String fichier = "fichiers/texte.txt";
-		ArbreBinaire arbre = new ArbreBinaire(fichier);
-		arbre.encode(fichier);
-		arbre.decode(arbre.encode(fichier));
+		if(new File(fichier).exists()) {
+			ArbreBinaire arbre = new ArbreBinaire(fichier);
+			arbre.encode(fichier);
+
+			// decodeOctets n'affiche ni n'écrit le texte décodé, contrairement à decode
+			File texteDecode = new File("fichiers/texteDecode.txt");
+			texteDecode.delete();
+			String texte = arbre.getContentFichier(fichier);
+			verifier("ancien format", texte.getBytes(), ArbreBinaire.decodeOctets(arbre.encode(fichier)));
+			if(texteDecode.exists()) {
+				echec("ancien format : decodeOctets a écrit " + texteDecode);
+			}
+			arbre.decode(arbre.encode(fichier));
+		}
+		System.out.println("ArbreBinaire : OK");
+	}
+
+	/**
+	 * @return Des contenus qui exercent les cas limites des codeurs : vide,
+	 * un seul octet ou symbole, distribution très déséquilibrée, tailles
+	 * autour des bords de flux et de blocs (TAILLE_BLOC), contenu aléatoire
+	 */
+	static Map<String, byte[]> jeux() {
+		Map<String, byte[]> jeux = new LinkedHashMap<>();
+		Random aleatoire = new Random(42);
+		jeux.put("vide", new byte[0]);
+		jeux.put("un octet", new byte[] {'a'});
+		byte[] unSymbole = new byte[1000];
+		Arrays.fill(unSymbole, (byte) 0xFF);
+		jeux.put("un symbole", unSymbole);
+		jeux.put("deux symboles", new byte[] {0, 1, 0, 0, 1});
+
+		// L'octet i apparaît fib(i) fois : un arbre de Huffman de 25 niveaux
+		ByteBuffer fibonacci = ByteBuffer.allocate(250_000);
+		int a = 1;
+		int b = 1;
+		for(int octet = 0; octet < 25; octet++) {
+			for(int k = 0; k < a && fibonacci.hasRemaining(); k++) {
+				fibonacci.put((byte) octet);
+			}
+			int suivant = a + b;
+			a = b;
+			b = suivant;
+		}
+		jeux.put("fibonacci", melanger(Arrays.copyOf(fibonacci.array(), fibonacci.position()), aleatoire));
+
+		// Bords des 4 flux d'un bloc et des blocs
+		for(int taille : new int[] {2, 3, 5, 7, ArbreBinaire.TAILLE_BLOC - 1, ArbreBinaire.TAILLE_BLOC,
+				ArbreBinaire.TAILLE_BLOC + 1, 2 * ArbreBinaire.TAILLE_BLOC + 3}) {
+			jeux.put("texte de " + taille + " octets", texte(taille, aleatoire));
+		}
+		byte[] hasard = new byte[ArbreBinaire.TAILLE_BLOC + 17];
+		aleatoire.nextBytes(hasard);
+		jeux.put("aléatoire", hasard);
+		return jeux;
+	}
+
+	/**
+	 * @return Un texte HTML répétitif, peu d'octets très fréquents
+	 */
+	static byte[] texte(int taille, Random aleatoire) {
+		String[] mots = {"<div class=\"article\">", "</div>\n", "<p>", "</p>", "le ", "de ", "la ", "page ", "é", "\t"};
+		ByteBuffer texte = ByteBuffer.allocate(taille);
+		while(texte.hasRemaining()) {
+			byte[] mot = mots[aleatoire.nextInt(mots.length)].getBytes(StandardCharsets.UTF_8);
+			texte.put(mot, 0, Math.min(mot.length, texte.remaining()));
+		}
+		return texte.array();
+	}
+
+	private static byte[] melanger(byte[] octets, Random aleatoire) {
+		for(int i = octets.length - 1; i > 0; i--) {
+			int j = aleatoire.nextInt(i + 1);
+			byte echange = octets[i];
+			octets[i] = octets[j];
+			octets[j] = echange;
+		}
+		return octets;
+	}
+
+	static void verifier(String cas, byte[] attendu, byte[] obtenu) {
+		if(!Arrays.equals(attendu, obtenu)) {
+			echec(cas + " : contenu différent après décodage");
+		}
+	}
+
+	static void echec(String message) {
+		System.err.println("ÉCHEC " + message);
+		System.exit(1);
 	}
 }
@@ -0,0 +1,35 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Vérifications aller-retour de CodeurANS, sur les jeux de testArbreBinaire.
+ */
+public class testCodeurANS {
+	public static void main(String[] args) {
+		for(Map.Entry<String, byte[]> jeu : testArbreBinaire.jeux().entrySet()) {
+			String nom = jeu.getKey();
+			byte[] donnees = jeu.getValue();
+			CodeurANS codeur = new CodeurANS(ArbreBinaire.frequences(donnees));
+			byte[] code = codeur.encodeOctets(donnees);
+			testArbreBinaire.verifier(nom, donnees, CodeurANS.decodeOctets(code));
+			testArbreBinaire.verifier(nom + ", via ArbreBinaire", donnees, ArbreBinaire.decodeOctets(code));
+
+			// Buffers directs, à une position non nulle
+			ByteBuffer source = ByteBuffer.allocateDirect(donnees.length + 3);
+			source.position(3);
+			source.put(donnees).position(3);
+			ByteBuffer sortie = ByteBuffer.allocateDirect(codeur.majorant(donnees.length));
+			codeur.encodeOctets(source, sortie);
+			sortie.flip();
+			ByteBuffer decode = ByteBuffer.allocateDirect(ArbreBinaire.tailleOrigine(sortie));
+			CodeurANS.decodeOctets(sortie, decode);
+			byte[] obtenu = new byte[donnees.length];
+			decode.flip();
+			decode.get(obtenu);
+			testArbreBinaire.verifier(nom + ", buffers directs", donnees, obtenu);
+		}
+		System.out.println("CodeurANS : OK");
+	}
+}
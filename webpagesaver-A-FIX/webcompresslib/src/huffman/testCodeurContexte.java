@@ -0,0 +1,23 @@
+package huffman;
+
+import java.util.Map;
+
+/**
+ * Vérifications aller-retour de CodeurContexte, sur les jeux de testArbreBinaire.
+ */
+public class testCodeurContexte {
+	public static void main(String[] args) {
+		for(Map.Entry<String, byte[]> jeu : testArbreBinaire.jeux().entrySet()) {
+			String nom = jeu.getKey();
+			byte[] donnees = jeu.getValue();
+			CodeurContexte codeur = new CodeurContexte(CodeurContexte.frequences(donnees));
+			if(codeur.nbTables() > CodeurContexte.NB_TABLES_MAX) {
+				testArbreBinaire.echec(nom + " : " + codeur.nbTables() + " tables");
+			}
+			byte[] code = codeur.encodeOctets(donnees);
+			testArbreBinaire.verifier(nom, donnees, CodeurContexte.decodeOctets(code));
+			testArbreBinaire.verifier(nom + ", via ArbreBinaire", donnees, ArbreBinaire.decodeOctets(code));
+		}
+		System.out.println("CodeurContexte : OK");
+	}
+}
@@ -0,0 +1,82 @@
+package huffman;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Vérifications aller-retour de Delta : chaque jeu de testArbreBinaire
+ * contre une version vide, contre lui-même et contre une version modifiée.
+ */
+public class testDelta {
+	public static void main(String[] args) {
+		Random aleatoire = new Random(7);
+		for(Map.Entry<String, byte[]> jeu : testArbreBinaire.jeux().entrySet()) {
+			String nom = jeu.getKey();
+			byte[] donnees = jeu.getValue();
+			verifier(nom + ", depuis vide", new byte[0], donnees);
+			verifier(nom + ", vers vide", donnees, new byte[0]);
+			verifier(nom + ", identique", donnees, donnees);
+			verifier(nom + ", modifié", donnees, modifier(donnees, aleatoire));
+		}
+
+		// Une version plus courte que la fenêtre de copie
+		verifier("plus court que la fenêtre", new byte[Delta.FENETRE - 1], new byte[Delta.FENETRE - 1]);
+
+		// Un delta ne s'applique qu'à sa version de référence
+		byte[] ancien = testArbreBinaire.texte(1000, aleatoire);
+		byte[] delta = Delta.encoder(ancien, modifier(ancien, aleatoire));
+		try {
+			Delta.appliquer(Arrays.copyOf(ancien, 999), delta);
+			testArbreBinaire.echec("delta appliqué à une autre version");
+		}
+		catch(IllegalArgumentException e) {
+			// Attendu
+		}
+
+		// Un delta corrompu (octets changés, tronqué) est refusé par IllegalArgumentException, jamais par un débordement
+		byte[] nouveau = modifier(ancien, aleatoire);
+		byte[] valide = Delta.encoder(ancien, nouveau);
+		for(int essai = 0; essai < 2000; essai++) {
+			byte[] corrompu = essai % 2 == 0 ? valide.clone() : Arrays.copyOf(valide, aleatoire.nextInt(valide.length));
+			if(essai % 2 == 0) {
+				for(int k = 0; k <= essai % 3; k++) {
+					corrompu[aleatoire.nextInt(corrompu.length)] ^= (byte) (1 + aleatoire.nextInt(255));
+				}
+			}
+			try {
+				if(!Arrays.equals(Delta.appliquer(ancien, corrompu), nouveau)) {
+					testArbreBinaire.echec("delta corrompu accepté (essai " + essai + ")");
+				}
+			}
+			catch(IllegalArgumentException e) {
+				// Attendu
+			}
+			catch(RuntimeException e) {
+				testArbreBinaire.echec("delta corrompu (essai " + essai + ") : " + e);
+			}
+		}
+		System.out.println("Delta : OK");
+	}
+
+	private static void verifier(String cas, byte[] ancien, byte[] nouveau) {
+		testArbreBinaire.verifier(cas, nouveau, Delta.appliquer(ancien, Delta.encoder(ancien, nouveau)));
+	}
+
+	// Insère, supprime et remplace quelques passages
+	private static byte[] modifier(byte[] donnees, Random aleatoire) {
+		byte[] resultat = donnees.clone();
+		for(int k = 0; k < 3 && resultat.length > 0; k++) {
+			int position = aleatoire.nextInt(resultat.length);
+			int longueur = Math.min(resultat.length - position, 1 + aleatoire.nextInt(20));
+			byte[] insere = new byte[aleatoire.nextInt(30)];
+			aleatoire.nextBytes(insere);
+			byte[] suivant = new byte[resultat.length - longueur + insere.length];
+			System.arraycopy(resultat, 0, suivant, 0, position);
+			System.arraycopy(insere, 0, suivant, position, insere.length);
+			System.arraycopy(resultat, position + longueur, suivant, position + insere.length, resultat.length - position - longueur);
+			resultat = suivant;
+		}
+		return resultat;
+	}
+}
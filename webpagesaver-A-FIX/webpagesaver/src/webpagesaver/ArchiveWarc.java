@@ -0,0 +1,365 @@
+package webpagesaver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Lecture et écriture d'une archive du cache au format WARC 1.1, en flux.
+ *
+ * L'archive commence par un enregistrement warcinfo. Chaque page
+ * sauvegardée donne un enregistrement metadata (WARC-Target-URI : l'URL de
+ * la page ; champs entree, etag et last-modified), et chaque fichier du
+ * cache un enregistrement resource dont l'URI est son chemin dans le cache
+ * (urn:webpagesaver:HTMLexemple.com.txt,
+ * urn:webpagesaver:versions/HTMLexemple.com/3.delta,
+ * urn:webpagesaver:morceaux/ab/abcd..., urn:webpagesaver:tables/0123...).
+ * Les fichiers sont copiés tels quels, déjà compressés : ni décodage ni
+ * réencodage.
+ *
+ * Les blocs passent d'un canal à l'autre par FileChannel.transferTo et
+ * transferFrom : entre deux fichiers, ou vers une socket, le noyau copie
+ * les octets sans qu'ils traversent le tas Java. Seuls les en-têtes sont
+ * lus dans un tampon de taille fixe, quelle que soit la taille de l'archive.
+ */
+public class ArchiveWarc {
+
+    /**
+     * Préfixe des URIs des fichiers du cache.
+     */
+    public static final String PREFIXE = "urn:webpagesaver:";
+
+    private static final String VERSION = "WARC/1.1";
+    private static final byte[] FIN_BLOC = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int TAILLE_TAMPON = 64 * 1024;
+
+    private ArchiveWarc() {
+    }
+
+    /**
+     * Écrit les enregistrements d'une archive dans un canal.
+     */
+    public static class Ecrivain {
+        private final WritableByteChannel sortie;
+        private long octets;
+
+        /**
+         * @param sortie Le canal de l'archive (un FileChannel ou une socket pour une copie sans tampon)
+         */
+        public Ecrivain(WritableByteChannel sortie) {
+            this.sortie = sortie;
+        }
+
+        /**
+         * Écrit l'enregistrement warcinfo qui ouvre l'archive.
+         * @param champs Ses champs (nom et valeur)
+         */
+        public void info(Map<String, String> champs) throws IOException {
+            bloc("warcinfo", null, champs);
+        }
+
+        /**
+         * Écrit l'enregistrement metadata d'une page.
+         * @param url L'URL de la page
+         * @param champs Ses champs ; une valeur null est omise
+         */
+        public void metadonnees(String url, Map<String, String> champs) throws IOException {
+            bloc("metadata", url, champs);
+        }
+
+        /**
+         * Écrit un fichier du cache, copié tel quel de son canal vers celui de l'archive.
+         * @param chemin Le chemin du fichier, relatif au cache (séparateur /)
+         * @param fichier Le fichier
+         * @return La taille du fichier
+         */
+        public long fichier(String chemin, Path fichier) throws IOException {
+            try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+                return fichier(chemin, canal);
+            }
+        }
+
+        /**
+         * Écrit un fichier du cache déjà ouvert : l'appelant peut lire autre chose
+         * dans le même canal, donc dans la même version du fichier.
+         * @param chemin Le chemin du fichier, relatif au cache (séparateur /)
+         * @param canal Le canal du fichier (sa position n'est pas modifiée)
+         * @return La taille du fichier
+         */
+        public long fichier(String chemin, FileChannel canal) throws IOException {
+            // Un fichier du cache est remplacé, jamais modifié sur place : le canal ouvert garde une taille fixe
+            long taille = canal.size();
+            ecrire(entete("resource", PREFIXE + chemin, "application/octet-stream", taille));
+            long position = 0;
+            while (position < taille) {
+                position += canal.transferTo(position, taille - position, sortie);
+            }
+            octets += taille;
+            ecrire(ByteBuffer.wrap(FIN_BLOC));
+            return taille;
+        }
+
+        /**
+         * @return Le nombre d'octets écrits jusqu'ici
+         */
+        public long octets() {
+            return octets;
+        }
+
+        private void bloc(String type, String uri, Map<String, String> champs) throws IOException {
+            StringBuilder texte = new StringBuilder();
+            for (Map.Entry<String, String> champ : champs.entrySet()) {
+                if (champ.getValue() != null) {
+                    texte.append(champ.getKey()).append(": ").append(champ.getValue()).append("\r\n");
+                }
+            }
+            byte[] contenu = texte.toString().getBytes(StandardCharsets.UTF_8);
+            ecrire(entete(type, uri, "application/warc-fields", contenu.length));
+            ecrire(ByteBuffer.wrap(contenu));
+            ecrire(ByteBuffer.wrap(FIN_BLOC));
+            octets += contenu.length;
+        }
+
+        private ByteBuffer entete(String type, String uri, String typeContenu, long longueur) {
+            StringBuilder entete = new StringBuilder(VERSION).append("\r\n");
+            entete.append("WARC-Type: ").append(type).append("\r\n");
+            entete.append("WARC-Record-ID: <urn:uuid:").append(UUID.randomUUID()).append(">\r\n");
+            entete.append("WARC-Date: ").append(Instant.now().truncatedTo(ChronoUnit.SECONDS)).append("\r\n");
+            if (uri != null) {
+                entete.append("WARC-Target-URI: ").append(uri).append("\r\n");
+            }
+            entete.append("Content-Type: ").append(typeContenu).append("\r\n");
+            entete.append("Content-Length: ").append(longueur).append("\r\n\r\n");
+            byte[] octetsEntete = entete.toString().getBytes(StandardCharsets.UTF_8);
+            octets += octetsEntete.length + FIN_BLOC.length;
+            return ByteBuffer.wrap(octetsEntete);
+        }
+
+        private void ecrire(ByteBuffer tampon) throws IOException {
+            while (tampon.hasRemaining()) {
+                sortie.write(tampon);
+            }
+        }
+    }
+
+    /**
+     * En-tête d'un enregistrement lu.
+     */
+    public static class Enregistrement {
+        public final String type;
+        public final String uri;
+        public final String typeContenu;
+        public final long longueur;
+
+        Enregistrement(String type, String uri, String typeContenu, long longueur) {
+            this.type = type;
+            this.uri = uri;
+            this.typeContenu = typeContenu;
+            this.longueur = longueur;
+        }
+    }
+
+    /**
+     * Lit les enregistrements d'une archive, un par un. Après suivant(), le
+     * bloc de l'enregistrement doit être consommé par une seule des méthodes
+     * champs(), copier() ou sauter().
+     */
+    public static class Lecteur {
+        private final ReadableByteChannel entree;
+        // Octets lus mais pas encore consommés, entre position et limite
+        private final ByteBuffer tampon = ByteBuffer.allocate(TAILLE_TAMPON);
+        private long restant;
+
+        /**
+         * @param entree Le canal de l'archive (un FileChannel pour une copie sans tampon)
+         */
+        public Lecteur(ReadableByteChannel entree) {
+            this.entree = entree;
+            tampon.flip();
+        }
+
+        /**
+         * @return L'en-tête de l'enregistrement suivant, ou null à la fin de l'archive
+         * @throws IOException Si l'archive n'est pas au format WARC ou est tronquée
+         */
+        public Enregistrement suivant() throws IOException {
+            if (restant > 0) {
+                sauter();
+            }
+            String ligne;
+            do {
+                ligne = ligne();
+                if (ligne == null) {
+                    return null;
+                }
+            } while (ligne.isEmpty());
+            if (!ligne.startsWith("WARC/1.")) {
+                throw new IOException("Archive WARC invalide : « " + ligne + " »");
+            }
+
+            Map<String, String> champs = new LinkedHashMap<>();
+            while (!(ligne = ligneObligatoire()).isEmpty()) {
+                int deuxPoints = ligne.indexOf(':');
+                if (deuxPoints > 0) {
+                    champs.put(ligne.substring(0, deuxPoints).trim().toLowerCase(), ligne.substring(deuxPoints + 1).trim());
+                }
+            }
+            try {
+                restant = Long.parseLong(champs.getOrDefault("content-length", ""));
+            } catch (NumberFormatException e) {
+                throw new IOException("Content-Length absent ou invalide dans l'archive WARC");
+            }
+            return new Enregistrement(champs.getOrDefault("warc-type", ""), champs.get("warc-target-uri"),
+                    champs.getOrDefault("content-type", ""), restant);
+        }
+
+        /**
+         * Lit un bloc application/warc-fields.
+         * @return Ses champs, noms en minuscules
+         */
+        public Map<String, String> champs() throws IOException {
+            if (restant > TAILLE_TAMPON) {
+                throw new IOException("Bloc de métadonnées trop grand : " + restant + " octets");
+            }
+            byte[] contenu = new byte[(int) restant];
+            int lus = 0;
+            while (lus < contenu.length) {
+                if (!tampon.hasRemaining() && !remplir()) {
+                    throw new EOFException("Archive WARC tronquée");
+                }
+                int n = Math.min(tampon.remaining(), contenu.length - lus);
+                tampon.get(contenu, lus, n);
+                lus += n;
+            }
+            restant = 0;
+            finBloc();
+
+            Map<String, String> champs = new LinkedHashMap<>();
+            for (String ligne : new String(contenu, StandardCharsets.UTF_8).split("\r?\n")) {
+                int deuxPoints = ligne.indexOf(':');
+                if (deuxPoints > 0) {
+                    champs.put(ligne.substring(0, deuxPoints).trim().toLowerCase(), ligne.substring(deuxPoints + 1).trim());
+                }
+            }
+            return champs;
+        }
+
+        /**
+         * Copie le bloc dans un fichier, remplacé atomiquement (fichier temporaire puis renommage).
+         * @param cible Le fichier
+         * @return La taille du bloc
+         */
+        public long copier(Path cible) throws IOException {
+            long taille = restant;
+            Path temporaire = Files.createTempFile(cible.toAbsolutePath().getParent(), cible.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel sortie = FileChannel.open(temporaire, StandardOpenOption.WRITE)) {
+                    // D'abord ce que le tampon contient déjà, puis le reste directement du canal de l'archive
+                    if (tampon.hasRemaining()) {
+                        ByteBuffer debut = tampon.duplicate();
+                        debut.limit(debut.position() + (int) Math.min(debut.remaining(), restant));
+                        tampon.position(debut.limit());
+                        restant -= debut.remaining();
+                        while (debut.hasRemaining()) {
+                            sortie.write(debut);
+                        }
+                    }
+                    while (restant > 0) {
+                        long copies = sortie.transferFrom(entree, taille - restant, restant);
+                        if (copies <= 0) {
+                            throw new EOFException("Archive WARC tronquée");
+                        }
+                        restant -= copies;
+                    }
+                }
+                Files.move(temporaire, cible, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporaire);
+            }
+            finBloc();
+            return taille;
+        }
+
+        /**
+         * Passe le bloc sans le lire.
+         */
+        public void sauter() throws IOException {
+            while (restant > 0) {
+                if (!tampon.hasRemaining() && !remplir()) {
+                    throw new EOFException("Archive WARC tronquée");
+                }
+                int n = (int) Math.min(tampon.remaining(), restant);
+                tampon.position(tampon.position() + n);
+                restant -= n;
+            }
+            finBloc();
+        }
+
+        // Les deux fins de ligne qui suivent chaque bloc
+        private void finBloc() throws IOException {
+            for (byte attendu : FIN_BLOC) {
+                if (!tampon.hasRemaining() && !remplir()) {
+                    throw new EOFException("Archive WARC tronquée");
+                }
+                if (tampon.get() != attendu) {
+                    throw new IOException("Archive WARC invalide : fin de bloc attendue");
+                }
+            }
+        }
+
+        // Une ligne d'en-tête, sans sa fin de ligne ; null à la fin de l'archive
+        private String ligne() throws IOException {
+            while (true) {
+                for (int i = tampon.position(); i < tampon.limit(); i++) {
+                    if (tampon.get(i) == '\n') {
+                        int fin = i > tampon.position() && tampon.get(i - 1) == '\r' ? i - 1 : i;
+                        byte[] octets = new byte[fin - tampon.position()];
+                        tampon.get(octets);
+                        tampon.position(i + 1);
+                        return new String(octets, StandardCharsets.UTF_8);
+                    }
+                }
+                if (tampon.remaining() == tampon.capacity()) {
+                    throw new IOException("Ligne d'en-tête WARC trop longue");
+                }
+                if (!remplir()) {
+                    if (tampon.hasRemaining()) {
+                        throw new EOFException("Archive WARC tronquée");
+                    }
+                    return null;
+                }
+            }
+        }
+
+        private String ligneObligatoire() throws IOException {
+            String ligne = ligne();
+            if (ligne == null) {
+                throw new EOFException("Archive WARC tronquée");
+            }
+            return ligne;
+        }
+
+        // Complète le tampon ; false à la fin du canal
+        private boolean remplir() throws IOException {
+            tampon.compact();
+            try {
+                return entree.read(tampon) > 0;
+            } finally {
+                tampon.flip();
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package webpagesaver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Canal de contrôle local entre la ligne de commande et le démon.
+ *
+ * Le démon écoute sur une socket Unix (par défaut cache/webpagesaver.sock).
+ * Chaque requête est une trame binaire [opcode:1][longueur:4][argument UTF-8],
+ * chaque réponse une trame [code:2][longueur:4][message UTF-8], où le code
+ * reprend les codes HTTP du serveur (200, 400, 404...).
+ * Une connexion peut enchaîner plusieurs requêtes.
+ */
+public class CanalControle {
+    public static final byte PING = 1;
+    public static final byte ADD = 2;
+    public static final byte REMOVE = 3;
+    // Liste par morceaux ; l'argument est la dernière URL déjà reçue (vide : depuis le début), la réponse 206 s'il en reste
+    public static final byte LIST = 4;
+    public static final byte VIEW = 5;
+    public static final byte STOP = 6;
+    // Export et import d'une archive WARC ; l'argument est le chemin absolu du fichier, lu ou écrit par le démon
+    public static final byte EXPORT = 7;
+    public static final byte IMPORT = 8;
+
+    // Taille maximale acceptée pour l'argument d'une trame
+    private static final int TAILLE_MAX = 1 << 20;
+
+    private final Path chemin;
+    private ServerSocketChannel serveur;
+    private ExecutorService connexions;
+
+    public CanalControle(Path chemin) {
+        this.chemin = chemin;
+    }
+
+    /**
+     * Réponse renvoyée par le démon pour une requête.
+     */
+    public static class Reponse {
+        public final int code;
+        public final String message;
+
+        public Reponse(int code, String message) {
+            this.code = code;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Traitement d'une requête côté démon.
+     */
+    public interface Traitement {
+        Reponse traiter(byte opcode, String argument) throws IOException;
+    }
+
+    /**
+     * Ouvre la socket et lance le thread d'acceptation. La socket n'est créée
+     * qu'une fois le démon prêt : un client qui réussit à s'y connecter peut
+     * donc lui envoyer des commandes immédiatement.
+     * @param traitement Le traitement appliqué à chaque requête reçue
+     */
+    public synchronized void demarrer(Traitement traitement) throws IOException {
+        if (serveur != null) {
+            return;
+        }
+        // Une socket restée d'un démon arrêté brutalement empêcherait le bind
+        if (Files.exists(chemin)) {
+            boolean actif;
+            try {
+                connecter(chemin).close();
+                actif = true;
+            } catch (IOException e) {
+                actif = false;
+            }
+            if (actif) {
+                throw new IOException("Un démon écoute déjà sur " + chemin);
+            }
+            Files.deleteIfExists(chemin);
+        }
+
+        serveur = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serveur.bind(UnixDomainSocketAddress.of(chemin));
+        connexions = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "canal-controle-connexion");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ServerSocketChannel ecoute = serveur;
+        Thread accepteur = new Thread(() -> {
+            try {
+                while (true) {
+                    SocketChannel client = ecoute.accept();
+                    connexions.execute(() -> servir(client, traitement));
+                }
+            } catch (ClosedChannelException e) {
+                // Arrêt normal du canal
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "canal-controle");
+        accepteur.start();
+        System.out.println("Canal de contrôle ouvert sur " + chemin);
+    }
+
+    /**
+     * Ferme la socket du démon et supprime le fichier associé.
+     */
+    public synchronized void arreter() {
+        if (serveur == null) {
+            return;
+        }
+        try {
+            serveur.close();
+            Files.deleteIfExists(chemin);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connexions.shutdown();
+        serveur = null;
+    }
+
+    private static void servir(SocketChannel client, Traitement traitement) {
+        try (SocketChannel canal = client) {
+            ByteBuffer entete = ByteBuffer.allocate(5);
+            while (true) {
+                entete.clear();
+                if (!lireComplet(canal, entete, true)) {
+                    return;
+                }
+                entete.flip();
+                byte opcode = entete.get();
+                String argument = lireChaine(canal, entete.getInt());
+
+                if (opcode == STOP) {
+                    // La JVM s'arrête dès qu'il ne reste que des threads démons : l'arrêt et sa réponse se font dans un thread qui n'en est pas un
+                    Thread arret = new Thread(() -> {
+                        try {
+                            repondre(canal, traitement, opcode, argument);
+                        } catch (IOException e) {
+                            // Client parti avant la réponse
+                        }
+                    }, "canal-controle-arret");
+                    // Un thread créé par un thread démon en est un aussi
+                    arret.setDaemon(false);
+                    arret.start();
+                    arret.join();
+                    return;
+                }
+                repondre(canal, traitement, opcode, argument);
+            }
+        } catch (IOException e) {
+            // Client déconnecté au milieu d'une trame : rien à faire
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void repondre(SocketChannel canal, Traitement traitement, byte opcode, String argument) throws IOException {
+        Reponse reponse;
+        try {
+            reponse = traitement.traiter(opcode, argument);
+        } catch (IOException | RuntimeException e) {
+            reponse = new Reponse(500, "Erreur: " + e.getMessage());
+        }
+        ecrireTrame(canal, 6, (short) reponse.code, reponse.message);
+    }
+
+    /**
+     * Ouvre une connexion vers le démon.
+     * @param chemin Le chemin de la socket
+     * @return Le canal connecté, en mode bloquant
+     * @throws IOException Si aucun démon n'écoute sur cette socket
+     */
+    public static SocketChannel connecter(Path chemin) throws IOException {
+        SocketChannel canal = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            canal.connect(UnixDomainSocketAddress.of(chemin));
+            return canal;
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Attend que le démon réponde à un PING, en réessayant avec un délai
+     * croissant (1 ms, 2 ms, ... plafonné à 50 ms) jusqu'au délai maximal.
+     * @param chemin Le chemin de la socket
+     * @param delaiMaxMillis Le temps d'attente maximal
+     * @return Un canal connecté à un démon prêt
+     */
+    public static SocketChannel attendrePret(Path chemin, long delaiMaxMillis) throws IOException {
+        long limite = System.nanoTime() + delaiMaxMillis * 1_000_000L;
+        long attente = 1;
+        while (true) {
+            SocketChannel canal = null;
+            try {
+                canal = connecter(chemin);
+                envoyer(canal, PING, "");
+                return canal;
+            } catch (IOException e) {
+                if (canal != null) {
+                    canal.close();
+                }
+                if (System.nanoTime() > limite) {
+                    throw new IOException("Le démon n'a pas répondu sur " + chemin, e);
+                }
+            }
+            try {
+                Thread.sleep(attente);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Attente du démon interrompue", e);
+            }
+            attente = Math.min(attente * 2, 50);
+        }
+    }
+
+    /**
+     * Envoie une requête au démon et attend sa réponse.
+     * @param canal Le canal connecté au démon
+     * @param opcode Le code de la commande
+     * @param argument L'argument de la commande (une URL, ou une chaîne vide)
+     * @return La réponse du démon
+     */
+    public static Reponse envoyer(SocketChannel canal, byte opcode, String argument) throws IOException {
+        ecrireTrame(canal, 5, opcode, argument);
+        ByteBuffer entete = ByteBuffer.allocate(6);
+        lireComplet(canal, entete, false);
+        entete.flip();
+        int code = entete.getShort();
+        return new Reponse(code, lireChaine(canal, entete.getInt()));
+    }
+
+    private static void ecrireTrame(SocketChannel canal, int tailleEntete, short code, String contenu) throws IOException {
+        byte[] octets = contenu.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer trame = ByteBuffer.allocate(tailleEntete + octets.length);
+        if (tailleEntete == 5) {
+            trame.put((byte) code);
+        } else {
+            trame.putShort(code);
+        }
+        trame.putInt(octets.length).put(octets).flip();
+        while (trame.hasRemaining()) {
+            canal.write(trame);
+        }
+    }
+
+    private static String lireChaine(SocketChannel canal, int longueur) throws IOException {
+        if (longueur < 0 || longueur > TAILLE_MAX) {
+            throw new IOException("Trame invalide (" + longueur + " octets)");
+        }
+        ByteBuffer contenu = ByteBuffer.allocate(longueur);
+        lireComplet(canal, contenu, false);
+        return new String(contenu.array(), StandardCharsets.UTF_8);
+    }
+
+    // Remplit le buffer ; renvoie false si le pair ferme proprement avant le premier octet
+    private static boolean lireComplet(SocketChannel canal, ByteBuffer buffer, boolean finAutorisee) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer) < 0) {
+                if (finAutorisee && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connexion fermée par le pair");
+            }
+        }
+        return true;
+    }
+}
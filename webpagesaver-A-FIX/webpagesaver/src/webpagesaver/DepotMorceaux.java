@@ -0,0 +1,617 @@
+package webpagesaver;
+
+import huffman.ArbreBinaire;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Dépôt de morceaux adressés par leur contenu, partagé par tout le cache.
+ *
+ * Une version complète d'un fichier du cache est découpée en morceaux selon
+ * son contenu (hachage glissant) : une modification locale ne déplace que
+ * les frontières voisines, et un même bloc (en-tête, pied de page, bloc CSS,
+ * liste d'images) donne le même morceau d'une page à l'autre. Chaque
+ * morceau est compressé et stocké une seule fois, sous son empreinte
+ * SHA-256 (cache/morceaux/ab/abcd...) ; le fichier du cache ne contient
+ * plus que le manifeste, la liste des empreintes.
+ *
+ * Le nombre de manifestes qui utilisent chaque morceau est tenu dans
+ * references.txt, un journal de lignes « empreinte +n » compacté au
+ * chargement. Un morceau dont le compteur tombe à 0 est supprimé.
+ *
+ * Le mode d'encodage de chaque morceau écrit ou déjà lu est gardé en
+ * mémoire : le gestionnaire de stockage n'ouvre un morceau que pour le
+ * réencoder. Il ne revisite que les morceaux écrits depuis sa passe
+ * précédente (nouveaux), et ne recherche les tables de codes inutilisées
+ * qu'après la suppression ou le réencodage de morceaux (tablesACollecter).
+ */
+public class DepotMorceaux {
+
+    /**
+     * Signature d'un manifeste ; l'ancien format texte a toujours 0x7F en deuxième octet,
+     * et le format compressé commence par "WC".
+     */
+    private static final byte[] SIGNATURE = {'W', 'M'};
+
+    // Taille des morceaux : au moins 1 Kio, 4 Kio en moyenne, au plus 32 Kio
+    private static final int TAILLE_MIN = 1 << 10;
+    private static final int MASQUE = (1 << 12) - 1;
+    private static final int TAILLE_MAX = 1 << 15;
+
+    private static final int TAILLE_EMPREINTE = 32;
+
+    // Valeurs aléatoires du hachage glissant (« gear ») : la graine est fixe, les frontières ne changent pas d'une exécution à l'autre
+    private static final int[] GEAR = new int[256];
+    static {
+        Random random = new Random(0x57434D);
+        for (int i = 0; i < 256; i++) {
+            GEAR[i] = random.nextInt();
+        }
+    }
+
+    private final File repertoire;
+    private final TablesHote tables;
+    private final File journal;
+    private final JournalGroupe journalReferences;
+    private final Map<String, Integer> references = new HashMap<>();
+    // Morceaux nouveaux, comptés mais pas encore écrits
+    private final Map<String, CompletableFuture<Void>> enEcriture = new HashMap<>();
+    // Mode d'encodage des morceaux écrits ou lus depuis le chargement
+    private final Map<String, Byte> modes = new HashMap<>();
+    // Morceaux écrits ou recomptés depuis le dernier appel à nouveaux()
+    private final Set<String> nouveaux = new HashSet<>();
+    // Des morceaux ont été supprimés ou réencodés depuis la dernière recherche des tables inutilisées
+    private boolean tablesACollecter = true;
+
+    /**
+     * @param repertoire Le répertoire des morceaux
+     * @param tables Les tables de codes partagées auxquelles des morceaux peuvent faire référence
+     */
+    public DepotMorceaux(File repertoire, TablesHote tables) {
+        this.repertoire = repertoire;
+        this.tables = tables;
+        this.journal = new File(repertoire, "references.txt");
+        this.journalReferences = new JournalGroupe(journal);
+    }
+
+    /**
+     * Relit les compteurs de références et compacte leur journal.
+     */
+    public synchronized void charger() throws IOException {
+        references.clear();
+        if (!journal.exists()) {
+            return;
+        }
+        for (String line : journalReferences.lire()) {
+            String[] champs = line.split(" ");
+            if (champs.length == 2) {
+                references.merge(champs[0], Integer.parseInt(champs[1]), Integer::sum);
+            }
+        }
+        references.values().removeIf(n -> n <= 0);
+        compacter();
+    }
+
+    /**
+     * Recompte les références à partir des manifestes du cache (après un
+     * import) : les manifestes sont lus, et les morceaux cherchés, en
+     * parallèle. Les morceaux qu'aucun manifeste n'utilise plus sont
+     * supprimés, puis les tables de codes qu'aucun morceau n'utilise plus,
+     * et le journal est réécrit. Aucune sauvegarde ne doit être en cours.
+     * @param manifestes Les fichiers du cache qui peuvent être des manifestes (versions clés courantes et anciennes)
+     * @return Le nombre de morceaux référencés mais absents du dépôt
+     */
+    public long reconstruire(List<Path> manifestes) throws IOException {
+        Map<String, Integer> comptes = new ConcurrentHashMap<>();
+        try {
+            manifestes.parallelStream().forEach(chemin -> {
+                try {
+                    ByteBuffer contenu = ByteBuffer.wrap(Files.readAllBytes(chemin));
+                    if (estManifeste(contenu)) {
+                        for (String nom : empreintes(contenu)) {
+                            comptes.merge(nom, 1, Integer::sum);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long manquants = comptes.keySet().parallelStream().filter(nom -> !fichierMorceau(nom).exists()).count();
+
+        synchronized (this) {
+            references.clear();
+            references.putAll(comptes);
+            compacter();
+            // Les morceaux importés ont remplacé ceux du même nom, peut-être dans un autre mode
+            modes.clear();
+            nouveaux.addAll(comptes.keySet());
+        }
+
+        if (repertoire.exists()) {
+            try (Stream<Path> chemins = Files.walk(repertoire.toPath(), 2)) {
+                chemins.filter(chemin -> chemin.getFileName().toString().length() == 2 * TAILLE_EMPREINTE
+                                && !comptes.containsKey(chemin.getFileName().toString()))
+                        .forEach(chemin -> chemin.toFile().delete());
+            }
+        }
+        collecterTables();
+        return manquants;
+    }
+
+    /**
+     * Supprime les tables de codes partagées qu'aucun morceau n'utilise plus
+     * (leurs morceaux ont été supprimés ou réencodés avec leur propre table).
+     * @return Le nombre d'octets libérés
+     */
+    public long collecterTables() throws IOException {
+        synchronized (this) {
+            tablesACollecter = false;
+        }
+        try {
+            return tables.nettoyer(this);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                tablesACollecter = true;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return true si des morceaux ont été supprimés ou réencodés depuis le
+     * dernier appel à collecterTables (ou s'il n'a pas encore été appelé)
+     */
+    public synchronized boolean tablesACollecter() {
+        return tablesACollecter;
+    }
+
+    /**
+     * @return Les morceaux écrits depuis le dernier appel (ou recomptés par
+     * reconstruire), dont le mode d'encodage n'a pas encore été choisi par le
+     * gestionnaire de stockage
+     */
+    public synchronized Set<String> nouveaux() {
+        Set<String> copie = new HashSet<>(nouveaux);
+        nouveaux.clear();
+        return copie;
+    }
+
+    /**
+     * Lit l'en-tête de chaque morceau présent sur le disque, compté ou non
+     * (un import peut être en cours).
+     * @return Les noms des fichiers des tables auxquelles des morceaux font référence
+     */
+    Set<String> tablesUtilisees() throws IOException {
+        Set<String> utilisees = ConcurrentHashMap.newKeySet();
+        if (!repertoire.exists()) {
+            return utilisees;
+        }
+        try (Stream<Path> chemins = Files.walk(repertoire.toPath(), 2)) {
+            chemins.filter(chemin -> chemin.getFileName().toString().length() == 2 * TAILLE_EMPREINTE)
+                    .parallel()
+                    .forEach(chemin -> {
+                        try {
+                            byte[] reference;
+                            try (FileChannel canal = FileChannel.open(chemin, StandardOpenOption.READ)) {
+                                reference = referenceTable(canal);
+                            }
+                            if (reference != null) {
+                                utilisees.add(tables.fichier(reference).getName());
+                            }
+                        } catch (NoSuchFileException e) {
+                            // Libéré entre-temps
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return utilisees;
+    }
+
+    /**
+     * @param morceau Le canal ouvert d'un morceau (sa position n'est pas modifiée)
+     * @return La référence de sa table de codes partagée, lue dans son seul en-tête (null s'il porte sa propre table)
+     */
+    public static byte[] referenceTable(FileChannel morceau) throws IOException {
+        ByteBuffer entete = ByteBuffer.allocate(8 + 1 + 255);
+        while (entete.hasRemaining() && morceau.read(entete, entete.position()) > 0) {
+            // Lecture jusqu'à la fin de l'en-tête ou du fichier
+        }
+        entete.flip();
+        return ArbreBinaire.referenceTable(entete);
+    }
+
+    /**
+     * Vérifie un morceau venu d'ailleurs (import) : il doit se décoder, et
+     * son contenu avoir l'empreinte qui lui sert de nom. Un morceau gardé
+     * à tort serait réutilisé par toutes les sauvegardes suivantes.
+     * @param nom L'empreinte du morceau
+     * @return false si le morceau est illisible ou ne correspond pas à son nom
+     */
+    public boolean verifier(String nom) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichierMorceau(nom).toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer code = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            int taille = ArbreBinaire.tailleOrigine(code);
+            if (taille < 0 || taille > TAILLE_MAX) {
+                return false;
+            }
+            ByteBuffer contenu = ByteBuffer.allocateDirect(taille);
+            ArbreBinaire.decodeOctets(code, contenu, tables);
+            contenu.flip();
+            return nom.equals(hexadecimal(empreinte(contenu)));
+        } catch (RuntimeException e) {
+            // Format inconnu, contenu tronqué ou table de codes introuvable
+            return false;
+        }
+    }
+
+    // Réécrit le journal avec un seul compteur par morceau
+    private void compacter() throws IOException {
+        StringBuilder compacte = new StringBuilder();
+        for (Map.Entry<String, Integer> entree : references.entrySet()) {
+            compacte.append(entree.getKey()).append(' ').append(entree.getValue()).append('\n');
+        }
+        journalReferences.reecrire(compacte.toString());
+    }
+
+    /**
+     * Écrit les lignes du journal en attente et arrête son écrivain.
+     */
+    public void fermer() {
+        journalReferences.fermer();
+    }
+
+    /**
+     * @param contenu Le début d'un fichier du cache
+     * @return true si c'est un manifeste
+     */
+    public static boolean estManifeste(ByteBuffer contenu) {
+        int p = contenu.position();
+        return contenu.remaining() >= 8 && contenu.get(p) == SIGNATURE[0] && contenu.get(p + 1) == SIGNATURE[1];
+    }
+
+    /**
+     * Découpe un contenu en morceaux, stocke ceux qui ne sont pas encore dans le dépôt
+     * et compte une référence pour chacun.
+     *
+     * Seul le comptage des références se fait sous le verrou du dépôt : le
+     * découpage, les empreintes et la compression des nouveaux morceaux se
+     * font en parallèle avec les autres sauvegardes. Un nouveau morceau est
+     * réservé avant d'être écrit ; une sauvegarde qui le référence entre-temps
+     * attend son écriture avant de rendre son manifeste.
+     *
+     * @param contenu Le contenu, entre sa position et sa limite (non modifiées)
+     * @param compresseur Le codeur des nouveaux morceaux
+     * @return Le manifeste, prêt à être écrit
+     */
+    public ByteBuffer stocker(ByteBuffer contenu, Versions.Compresseur compresseur) throws IOException {
+        List<Integer> frontieres = decouper(contenu);
+        int nombre = frontieres.size() - 1;
+        String[] noms = new String[nombre];
+        ByteBuffer manifeste = ByteBuffer.allocate(8 + nombre * (4 + TAILLE_EMPREINTE));
+        manifeste.put(SIGNATURE).put((byte) 1).put((byte) 0).putInt(contenu.remaining());
+        for (int k = 0; k < nombre; k++) {
+            byte[] empreinte = empreinte(morceau(contenu, frontieres, k));
+            noms[k] = hexadecimal(empreinte);
+            manifeste.putInt(frontieres.get(k + 1) - frontieres.get(k)).put(empreinte);
+        }
+        manifeste.flip();
+
+        Map<Integer, CompletableFuture<Void>> aEcrire = new HashMap<>();
+        List<CompletableFuture<Void>> aAttendre = new ArrayList<>();
+        CompletableFuture<Void> journalise;
+        synchronized (this) {
+            StringBuilder lignes = new StringBuilder();
+            for (int k = 0; k < nombre; k++) {
+                if (references.merge(noms[k], 1, Integer::sum) == 1) {
+                    CompletableFuture<Void> ecriture = new CompletableFuture<>();
+                    enEcriture.put(noms[k], ecriture);
+                    aEcrire.put(k, ecriture);
+                } else if (enEcriture.containsKey(noms[k])) {
+                    aAttendre.add(enEcriture.get(noms[k]));
+                }
+                lignes.append(noms[k]).append(" 1\n");
+            }
+            journalise = ajouterJournal(lignes);
+        }
+
+        try {
+            for (Map.Entry<Integer, CompletableFuture<Void>> ecriture : aEcrire.entrySet()) {
+                try {
+                    String nom = noms[ecriture.getKey()];
+                    File fichier = fichierMorceau(nom);
+                    fichier.getParentFile().mkdirs();
+                    ByteBuffer code = compresseur.compresser(morceau(contenu, frontieres, ecriture.getKey()));
+                    Byte mode = mode(code);
+                    WebPageSaver.writeFileAtomically(fichier.toPath(), code);
+                    synchronized (this) {
+                        if (mode != null) {
+                            modes.put(nom, mode);
+                        }
+                        nouveaux.add(nom);
+                    }
+                    ecriture.getValue().complete(null);
+                } catch (IOException | RuntimeException e) {
+                    ecriture.getValue().completeExceptionally(e);
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        enEcriture.remove(noms[ecriture.getKey()]);
+                    }
+                }
+            }
+            for (CompletableFuture<Void> ecriture : aAttendre) {
+                try {
+                    ecriture.join();
+                } catch (CompletionException e) {
+                    throw new IOException("Échec de l'écriture d'un morceau partagé", e.getCause());
+                }
+            }
+            // Les références doivent être sur le disque avant le manifeste qui les utilise
+            JournalGroupe.attendre(journalise);
+        } catch (IOException | RuntimeException e) {
+            // Le manifeste ne sera pas écrit : ses références sont rendues
+            for (CompletableFuture<Void> ecriture : aEcrire.values()) {
+                ecriture.completeExceptionally(e);
+            }
+            liberer(manifeste);
+            throw e;
+        }
+        return manifeste;
+    }
+
+    private static ByteBuffer morceau(ByteBuffer contenu, List<Integer> frontieres, int k) {
+        ByteBuffer morceau = contenu.duplicate();
+        morceau.limit(frontieres.get(k + 1)).position(frontieres.get(k));
+        return morceau;
+    }
+
+    /**
+     * Reconstruit le contenu décrit par un manifeste, dans un buffer direct.
+     * @param manifeste Le manifeste, à partir de sa position
+     * @return Le contenu, prêt à être lu
+     */
+    public ByteBuffer assembler(ByteBuffer manifeste) throws IOException {
+        ByteBuffer entree = manifeste.duplicate();
+        entree.position(entree.position() + 4);
+        ByteBuffer contenu = ByteBuffer.allocateDirect(entree.getInt());
+        byte[] empreinte = new byte[TAILLE_EMPREINTE];
+        while (entree.hasRemaining()) {
+            int taille = entree.getInt();
+            entree.get(empreinte);
+            try (FileChannel canal = FileChannel.open(fichierMorceau(hexadecimal(empreinte)).toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer compresse = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+                if (ArbreBinaire.tailleOrigine(compresse) != taille) {
+                    throw new IOException("Morceau corrompu : " + hexadecimal(empreinte));
+                }
+                ArbreBinaire.decodeOctets(compresse, contenu, tables);
+            }
+        }
+        contenu.flip();
+        return contenu;
+    }
+
+    /**
+     * Retire une référence à chaque morceau d'un manifeste, et supprime les
+     * morceaux qui ne servent plus. Un morceau sans compteur est laissé tel quel.
+     * @param manifeste Le manifeste, à partir de sa position
+     * @return Le nombre d'octets des morceaux supprimés
+     */
+    public synchronized long liberer(ByteBuffer manifeste) throws IOException {
+        ByteBuffer entree = manifeste.duplicate();
+        entree.position(entree.position() + 8);
+        byte[] empreinte = new byte[TAILLE_EMPREINTE];
+        StringBuilder lignes = new StringBuilder();
+        long liberes = 0;
+        while (entree.hasRemaining()) {
+            entree.getInt();
+            entree.get(empreinte);
+            String nom = hexadecimal(empreinte);
+            Integer compte = references.get(nom);
+            if (compte == null) {
+                // Morceau qui n'est pas compté (références recomptées depuis) : d'autres manifestes l'utilisent peut-être
+                continue;
+            }
+            if (compte > 1) {
+                references.put(nom, compte - 1);
+            } else {
+                references.remove(nom);
+                modes.remove(nom);
+                File fichier = fichierMorceau(nom);
+                liberes += fichier.length();
+                Files.deleteIfExists(fichier.toPath());
+                tablesACollecter = true;
+            }
+            lignes.append(nom).append(" -1\n");
+        }
+        ajouterJournal(lignes);
+        return liberes;
+    }
+
+    /**
+     * @param manifeste Un manifeste, à partir de sa position
+     * @return Les empreintes de ses morceaux
+     */
+    public static List<String> empreintes(ByteBuffer manifeste) {
+        ByteBuffer entree = manifeste.duplicate();
+        entree.position(entree.position() + 8);
+        byte[] empreinte = new byte[TAILLE_EMPREINTE];
+        List<String> noms = new ArrayList<>();
+        while (entree.hasRemaining()) {
+            entree.getInt();
+            entree.get(empreinte);
+            noms.add(hexadecimal(empreinte));
+        }
+        return noms;
+    }
+
+    /**
+     * @return Les empreintes de tous les morceaux du dépôt (copie)
+     */
+    public synchronized Set<String> empreintes() {
+        return new HashSet<>(references.keySet());
+    }
+
+    /**
+     * Réencode un morceau avec un autre codeur, s'il n'est pas déjà dans le mode voulu.
+     * Le contenu, donc l'empreinte, ne change pas : les manifestes restent valables.
+     *
+     * Le décodage, l'encodage et l'écriture se font hors du verrou du dépôt,
+     * dans un fichier temporaire : les sauvegardes continuent pendant ce
+     * temps. Le verrou n'est pris que pour vérifier que le morceau sert
+     * toujours et mettre le nouveau fichier à sa place.
+     * @param nom L'empreinte du morceau
+     * @param mode Le mode d'encodage voulu (ArbreBinaire.MODE_*)
+     * @param compresseur Un codeur qui produit ce mode
+     * @return Le nombre d'octets traités, 0 si le morceau était déjà dans ce mode ou n'existe plus
+     */
+    public long recompresser(String nom, byte mode, Versions.Compresseur compresseur) throws IOException {
+        File fichier = fichierMorceau(nom);
+        synchronized (this) {
+            if (!references.containsKey(nom) || enEcriture.containsKey(nom) || Byte.valueOf(mode).equals(modes.get(nom))) {
+                return 0;
+            }
+        }
+        ByteBuffer contenu;
+        try (FileChannel canal = FileChannel.open(fichier.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer code = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            Byte actuel = mode(code);
+            if (actuel != null && actuel == mode) {
+                synchronized (this) {
+                    if (references.containsKey(nom)) {
+                        modes.put(nom, mode);
+                    }
+                }
+                return 0;
+            }
+            contenu = ByteBuffer.allocateDirect(ArbreBinaire.tailleOrigine(code));
+            ArbreBinaire.decodeOctets(code, contenu, tables);
+            contenu.flip();
+        } catch (NoSuchFileException e) {
+            // Libéré entre-temps
+            return 0;
+        }
+        long taille = contenu.remaining();
+        ByteBuffer code = compresseur.compresser(contenu);
+
+        Path temporaire = Files.createTempFile(fichier.getParentFile().toPath(), nom, ".tmp");
+        try {
+            try (FileChannel sortie = FileChannel.open(temporaire, StandardOpenOption.WRITE)) {
+                while (code.hasRemaining()) {
+                    sortie.write(code);
+                }
+                sortie.force(true);
+            }
+            synchronized (this) {
+                // Un morceau libéré pendant le réencodage n'est pas recréé
+                if (!references.containsKey(nom)) {
+                    return 0;
+                }
+                Files.move(temporaire, fichier.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                WebPageSaver.forcerRepertoire(fichier.getParentFile().toPath());
+                modes.put(nom, mode);
+                tablesACollecter = true;
+            }
+        } finally {
+            Files.deleteIfExists(temporaire);
+        }
+        return taille;
+    }
+
+    /**
+     * @return Le nombre de morceaux distincts du dépôt
+     */
+    public synchronized int taille() {
+        return references.size();
+    }
+
+    /**
+     * Calcule les frontières des morceaux : une frontière tombe là où les bits
+     * de poids faible du hachage glissant sont nuls, en respectant les tailles
+     * minimale et maximale.
+     * @return Les positions des frontières, début et fin du contenu compris
+     */
+    static List<Integer> decouper(ByteBuffer contenu) {
+        List<Integer> frontieres = new ArrayList<>();
+        int debut = contenu.position();
+        int fin = contenu.limit();
+        frontieres.add(debut);
+        while (debut < fin) {
+            int coupure = Math.min(fin, debut + TAILLE_MAX);
+            int hachage = 0;
+            for (int i = debut + TAILLE_MIN; i < coupure; i++) {
+                hachage = (hachage << 1) + GEAR[contenu.get(i) & 0xFF];
+                if ((hachage & MASQUE) == 0) {
+                    coupure = i + 1;
+                    break;
+                }
+            }
+            frontieres.add(coupure);
+            debut = coupure;
+        }
+        return frontieres;
+    }
+
+    File fichierMorceau(String nom) {
+        return new File(new File(repertoire, nom.substring(0, 2)), nom);
+    }
+
+    // Le mode d'encodage écrit dans l'en-tête d'un contenu compressé, null pour l'ancien format
+    private static Byte mode(ByteBuffer code) {
+        return ArbreBinaire.estFormatBinaire(code) ? code.get(code.position() + ArbreBinaire.SIGNATURE.length) : null;
+    }
+
+    private CompletableFuture<Void> ajouterJournal(StringBuilder lignes) {
+        if (lignes.length() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        lignes.setLength(lignes.length() - 1);
+        return journalReferences.ajouter(lignes.toString());
+    }
+
+    private static byte[] empreinte(ByteBuffer morceau) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(morceau);
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hexadecimal(byte[] octets) {
+        StringBuilder hex = new StringBuilder(octets.length * 2);
+        for (byte b : octets) {
+            hex.append(Character.forDigit((b >>> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,338 @@
+package webpagesaver;
+
+import huffman.ArbreBinaire;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Garde la taille du cache sous un quota, et l'encodage de chaque entrée
+ * adapté à son usage.
+ *
+ * Une entrée est l'ensemble des fichiers d'un hôte (HTML, CSS, images et
+ * leur historique). La date du dernier accès de chaque entrée (sauvegarde
+ * ou /view) est tenue dans acces.txt. Une tâche de fond, périodique :
+ * - supprime les entrées qui n'ont pas été consultées depuis ttlMillis ;
+ * - supprime les entrées les moins récemment consultées tant que le cache
+ *   dépasse le quota ;
+ * - réencode les morceaux des entrées froides (pas consultées depuis
+ *   froidMillis) avec le codeur le plus dense (Huffman d'ordre 1), et ceux
+ *   des entrées chaudes avec le plus rapide à décoder (Huffman à 4 flux) ;
+ * - supprime les tables de codes partagées qu'aucun morceau n'utilise plus.
+ *
+ * Chaque passe ne visite que les morceaux qui ont changé de température
+ * depuis la précédente et ceux écrits entre-temps (la première passe après
+ * le démarrage les visite tous) ; les manifestes d'une entrée chaude ne
+ * sont relus que si elle a été consultée ou sauvegardée. Les tables ne sont
+ * recherchées qu'après la suppression ou le réencodage de morceaux.
+ *
+ * La tâche tourne en priorité minimale, attend qu'aucune requête ne soit
+ * en cours avant chaque morceau, et se met en pause entre deux morceaux
+ * pour n'occuper qu'une petite part du temps. Le réencodage et la
+ * suppression des tables attendent aussi la fin des exports en cours.
+ */
+public class GestionnaireStockage {
+
+    /**
+     * Supprime une entrée du cache (fichiers, historique et URLs du registre).
+     */
+    public interface Evinceur {
+        /**
+         * @return Le nombre d'octets libérés sur le disque
+         */
+        long evincer(String entree) throws IOException;
+    }
+
+    /**
+     * Donne le codeur correspondant à un mode d'encodage.
+     */
+    public interface Codeurs {
+        Versions.Compresseur codeur(byte mode);
+    }
+
+    // Pause après chaque morceau réencodé : CHARGE_MAX fois son temps de traitement, soit au plus 20 % du temps
+    private static final int CHARGE_MAX = 4;
+
+    private final File cache;
+    private final File journal;
+    private final JournalGroupe journalAcces;
+    private final DepotMorceaux depot;
+    private final long quota;
+    private final long ttlMillis;
+    private final long froidMillis;
+    private final Evinceur evinceur;
+    private final Codeurs codeurs;
+    private final Map<String, Long> acces = new ConcurrentHashMap<>();
+    private final AtomicInteger requetesEnCours = new AtomicInteger();
+    // Pris en lecture par chaque export, en écriture pour réencoder un morceau ou supprimer des tables :
+    // un export ne copie jamais un morceau dont la table vient d'être supprimée
+    private final ReentrantReadWriteLock exports = new ReentrantReadWriteLock();
+    // Entrées consultées, sauvegardées ou oubliées depuis la passe précédente
+    private final Set<String> modifiees = ConcurrentHashMap.newKeySet();
+    // Morceaux de la version courante de chaque entrée chaude (thread de la tâche de fond seulement)
+    private final Map<String, List<String>> morceauxChauds = new HashMap<>();
+    // Morceaux chauds à la fin de la passe précédente ; null avant la première passe, qui visite tous les morceaux
+    private Set<String> chaudsPrecedents;
+    private ScheduledThreadPoolExecutor executeur;
+
+    /**
+     * @param cache Le répertoire du cache
+     * @param depot Le dépôt des morceaux
+     * @param quota La taille maximale du cache en octets (0 : pas de limite)
+     * @param ttlMillis La durée sans consultation après laquelle une entrée est supprimée (0 : jamais)
+     * @param froidMillis La durée sans consultation après laquelle une entrée est réencodée en mode dense
+     */
+    public GestionnaireStockage(File cache, DepotMorceaux depot, long quota, long ttlMillis, long froidMillis,
+                                Evinceur evinceur, Codeurs codeurs) {
+        this.cache = cache;
+        this.journal = new File(cache, "acces.txt");
+        this.journalAcces = new JournalGroupe(journal);
+        this.depot = depot;
+        this.quota = quota;
+        this.ttlMillis = ttlMillis;
+        this.froidMillis = froidMillis;
+        this.evinceur = evinceur;
+        this.codeurs = codeurs;
+    }
+
+    /**
+     * Relit les dates d'accès et compacte leur journal. Les entrées sans date
+     * (sauvegardées avant le gestionnaire) prennent la date de leur fichier HTML.
+     */
+    public synchronized void charger() throws IOException {
+        acces.clear();
+        for (String line : journalAcces.lire()) {
+            int espace = line.lastIndexOf(' ');
+            if (espace > 0) {
+                try {
+                    acces.put(line.substring(0, espace), Long.parseLong(line.substring(espace + 1)));
+                } catch (NumberFormatException e) {
+                    // Ligne illisible : l'entrée reprendra la date de son fichier HTML
+                }
+            }
+        }
+        acces.values().removeIf(date -> date == 0);
+
+        File[] fichiers = cache.listFiles((repertoire, nom) -> nom.startsWith("HTML") && nom.endsWith(".txt"));
+        for (File fichier : fichiers == null ? new File[0] : fichiers) {
+            String nom = fichier.getName();
+            acces.putIfAbsent(nom.substring(4, nom.length() - 4), fichier.lastModified());
+        }
+
+        StringBuilder compacte = new StringBuilder();
+        for (Map.Entry<String, Long> entree : acces.entrySet()) {
+            compacte.append(entree.getKey()).append(' ').append(entree.getValue()).append('\n');
+        }
+        journalAcces.reecrire(compacte.toString());
+    }
+
+    /**
+     * Note un accès à une entrée (sauvegarde ou consultation).
+     */
+    public synchronized void noterAcces(String entree) {
+        long maintenant = System.currentTimeMillis();
+        acces.put(entree, maintenant);
+        modifiees.add(entree);
+        // Sans attendre l'écriture : une date d'accès perdue ne fait qu'avancer une éviction
+        journalAcces.ajouter(entree + " " + maintenant);
+    }
+
+    /**
+     * Oublie une entrée supprimée du cache.
+     */
+    public synchronized void oublier(String entree) {
+        if (acces.remove(entree) != null) {
+            journalAcces.ajouter(entree + " 0");
+        }
+        modifiees.add(entree);
+    }
+
+    /**
+     * À appeler au début et à la fin de chaque requête : la tâche de fond
+     * ne travaille que lorsqu'aucune requête n'est en cours.
+     */
+    public void debutRequete() {
+        requetesEnCours.incrementAndGet();
+    }
+
+    public void finRequete() {
+        requetesEnCours.decrementAndGet();
+    }
+
+    /**
+     * À appeler au début et à la fin de chaque export, dans le même thread :
+     * le réencodage et la suppression des tables attendent la fin des exports.
+     */
+    public void debutExport() {
+        exports.readLock().lock();
+    }
+
+    public void finExport() {
+        exports.readLock().unlock();
+    }
+
+    /**
+     * Lance la tâche de fond.
+     * @param periodeMillis L'intervalle entre deux passes
+     */
+    public void demarrer(long periodeMillis) {
+        executeur = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "gestion-stockage");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executeur.scheduleWithFixedDelay(() -> {
+            try {
+                passe();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, periodeMillis, periodeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void arreter() {
+        if (executeur != null) {
+            executeur.shutdownNow();
+        }
+        journalAcces.fermer();
+    }
+
+    /**
+     * Une passe complète : expiration, quota, réencodage, puis tables inutilisées.
+     */
+    void passe() throws IOException, InterruptedException {
+        long maintenant = System.currentTimeMillis();
+
+        // Un seul parcours du cache par passe : chaque éviction en retire ensuite les octets libérés
+        long taille = quota > 0 ? tailleCache() : 0;
+        List<Map.Entry<String, Long>> parAge = new ArrayList<>(acces.entrySet());
+        parAge.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> entree : parAge) {
+            boolean expiree = ttlMillis > 0 && entree.getValue() < maintenant - ttlMillis;
+            if (expiree || (quota > 0 && taille > quota)) {
+                attendreCalme();
+                System.out.println("Éviction de " + entree.getKey() + (expiree ? " (expirée)" : " (quota dépassé)"));
+                taille -= evinceur.evincer(entree.getKey());
+                oublier(entree.getKey());
+            }
+        }
+
+        // Les morceaux de la version courante des entrées chaudes restent rapides à décoder ; tous les autres sont froids.
+        // Les manifestes ne sont relus que pour les entrées devenues chaudes, consultées ou sauvegardées
+        Set<String> revues = new HashSet<>();
+        for (Iterator<String> iterateur = modifiees.iterator(); iterateur.hasNext(); ) {
+            revues.add(iterateur.next());
+            iterateur.remove();
+        }
+        morceauxChauds.keySet().removeIf(entree -> revues.contains(entree) || !acces.containsKey(entree)
+                || acces.get(entree) < maintenant - froidMillis);
+        for (Map.Entry<String, Long> entree : acces.entrySet()) {
+            if (entree.getValue() >= maintenant - froidMillis && !morceauxChauds.containsKey(entree.getKey())) {
+                List<String> noms = new ArrayList<>();
+                for (String prefixe : new String[]{"HTML", "CSS", "IMG"}) {
+                    noms.addAll(morceaux(new File(cache, prefixe + entree.getKey() + ".txt").toPath()));
+                }
+                morceauxChauds.put(entree.getKey(), noms);
+            }
+        }
+        Set<String> chauds = new HashSet<>();
+        for (List<String> noms : morceauxChauds.values()) {
+            chauds.addAll(noms);
+        }
+
+        // Seuls les morceaux qui ont changé de température, et ceux écrits depuis la passe précédente, sont visités
+        Set<String> aVisiter = depot.nouveaux();
+        if (chaudsPrecedents == null) {
+            aVisiter = depot.empreintes();
+        } else {
+            for (String morceau : chauds) {
+                if (!chaudsPrecedents.contains(morceau)) {
+                    aVisiter.add(morceau);
+                }
+            }
+            for (String morceau : chaudsPrecedents) {
+                if (!chauds.contains(morceau)) {
+                    aVisiter.add(morceau);
+                }
+            }
+        }
+        // Une passe interrompue laisse des morceaux non visités : la suivante les visitera tous
+        chaudsPrecedents = null;
+        for (String morceau : aVisiter) {
+            attendreCalme();
+            byte mode = chauds.contains(morceau) ? ArbreBinaire.MODE_HUFFMAN : ArbreBinaire.MODE_CONTEXTE;
+            long debut = System.nanoTime();
+            long traites;
+            exports.writeLock().lockInterruptibly();
+            try {
+                traites = depot.recompresser(morceau, mode, codeurs.codeur(mode));
+            } finally {
+                exports.writeLock().unlock();
+            }
+            if (traites > 0) {
+                long duree = System.nanoTime() - debut;
+                TimeUnit.NANOSECONDS.sleep(Math.max(TimeUnit.MILLISECONDS.toNanos(1), CHARGE_MAX * duree));
+            }
+        }
+        chaudsPrecedents = chauds;
+
+        // Les évictions et le réencodage ont pu laisser des tables de codes partagées sans morceau
+        if (!depot.tablesACollecter()) {
+            return;
+        }
+        attendreCalme();
+        long liberes;
+        exports.writeLock().lockInterruptibly();
+        try {
+            liberes = depot.collecterTables();
+        } finally {
+            exports.writeLock().unlock();
+        }
+        if (liberes > 0) {
+            System.out.println("Tables de codes inutilisées supprimées : " + liberes + " octets");
+        }
+    }
+
+    // Attend qu'aucune requête ne soit en cours
+    private void attendreCalme() throws InterruptedException {
+        while (requetesEnCours.get() > 0) {
+            Thread.sleep(50);
+        }
+    }
+
+    private List<String> morceaux(Path fichier) throws IOException {
+        if (!Files.exists(fichier)) {
+            return List.of();
+        }
+        ByteBuffer manifeste = ByteBuffer.wrap(Files.readAllBytes(fichier));
+        return DepotMorceaux.estManifeste(manifeste) ? DepotMorceaux.empreintes(manifeste) : List.of();
+    }
+
+    /**
+     * @return La taille totale des fichiers du cache, en octets
+     */
+    public long tailleCache() throws IOException {
+        try (Stream<Path> chemins = Files.walk(cache.toPath())) {
+            return chemins.filter(Files::isRegularFile).mapToLong(chemin -> chemin.toFile().length()).sum();
+        }
+    }
+}
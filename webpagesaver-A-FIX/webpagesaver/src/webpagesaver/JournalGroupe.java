@@ -0,0 +1,276 @@
+package webpagesaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal en ajout seul, à validation groupée (« group commit »).
+ *
+ * Les lignes à ajouter sont déposées dans une file ; un unique thread
+ * écrivain les prend par lots et écrit chaque lot en une seule écriture,
+ * suivie d'un seul FileChannel.force. Mille ajouts simultanés coûtent donc
+ * quelques synchronisations disque, pas mille ouvertures de fichier.
+ *
+ * Le compromis latence / débit se règle avec la fenêtre de validation :
+ * après la première ligne d'un lot, l'écrivain attend au plus fenetreMicros
+ * d'autres lignes (0 : il ne prend que celles déjà en file), dans la limite
+ * de lotMax lignes. Sans synchronisation (synchrone à false), les lignes
+ * sont écrites mais peuvent être perdues si la machine s'arrête.
+ *
+ * Chaque ajout rend un CompletableFuture, terminé quand sa ligne est sur
+ * le disque : l'appelant choisit de l'attendre ou non. La réécriture
+ * complète du journal (compactage) passe par la même file, et reste donc
+ * ordonnée avec les ajouts.
+ *
+ * Un arrêt brutal peut laisser une dernière ligne incomplète (sans fin de
+ * ligne) : lire l'ignore et la retire du fichier avant tout nouvel ajout.
+ */
+public class JournalGroupe {
+
+    // Une demande : des lignes à ajouter, ou un contenu qui remplace tout le journal
+    private static final class Demande {
+        final byte[] lignes;
+        final ByteBuffer remplacement;
+        final CompletableFuture<Void> faite = new CompletableFuture<>();
+
+        Demande(byte[] lignes, ByteBuffer remplacement) {
+            this.lignes = lignes;
+            this.remplacement = remplacement;
+        }
+    }
+
+    // Demande de fin du thread écrivain
+    private static final Demande FIN = new Demande(null, null);
+
+    private final File fichier;
+    private final long fenetreNanos;
+    private final int lotMax;
+    private final boolean synchrone;
+    private final BlockingQueue<Demande> file = new LinkedBlockingQueue<>();
+    private Thread ecrivain;
+    // Utilisé par le seul thread écrivain
+    private FileChannel canal;
+
+    /**
+     * Journal réglé par les propriétés webpagesaver.journal.* (voir WebPageSaver).
+     */
+    public JournalGroupe(File fichier) {
+        this(fichier, WebPageSaver.fenetreJournalMicros, WebPageSaver.lotJournalMax, WebPageSaver.journalSynchrone);
+    }
+
+    /**
+     * @param fichier Le fichier du journal
+     * @param fenetreMicros L'attente maximale d'autres lignes avant d'écrire un lot, en microsecondes
+     * @param lotMax Le nombre maximal de demandes par lot
+     * @param synchrone true pour forcer chaque lot sur le disque
+     */
+    public JournalGroupe(File fichier, long fenetreMicros, int lotMax, boolean synchrone) {
+        this.fichier = fichier;
+        this.fenetreNanos = TimeUnit.MICROSECONDS.toNanos(fenetreMicros);
+        this.lotMax = Math.max(1, lotMax);
+        this.synchrone = synchrone;
+    }
+
+    /**
+     * Relit les lignes du journal. Une dernière ligne sans fin de ligne a été
+     * interrompue par un arrêt brutal : elle est ignorée, et retirée du
+     * fichier pour que les ajouts suivants ne s'y collent pas.
+     * @return Les lignes complètes et non vides, dans l'ordre (aucune si le fichier n'existe pas)
+     */
+    public List<String> lire() throws IOException {
+        List<String> lignes = new ArrayList<>();
+        if (!fichier.exists()) {
+            return lignes;
+        }
+        byte[] contenu = Files.readAllBytes(fichier.toPath());
+        int fin = contenu.length;
+        while (fin > 0 && contenu[fin - 1] != '\n') {
+            fin--;
+        }
+        for (String ligne : new String(contenu, 0, fin, StandardCharsets.UTF_8).split("\r?\n")) {
+            if (!ligne.isEmpty()) {
+                lignes.add(ligne);
+            }
+        }
+        if (fin < contenu.length) {
+            reecrire(ByteBuffer.wrap(contenu, 0, fin));
+        }
+        return lignes;
+    }
+
+    /**
+     * Ajoute une ou plusieurs lignes à la fin du journal.
+     * @param lignes Les lignes, sans retour à la ligne final
+     * @return Un futur terminé quand les lignes sont écrites (et forcées sur le disque si le journal est synchrone)
+     */
+    public CompletableFuture<Void> ajouter(String lignes) {
+        return soumettre(new Demande((lignes + "\n").getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    /**
+     * Remplace tout le contenu du journal (compactage), après les ajouts déjà demandés, et attend la fin de l'écriture.
+     * @param lignes Le nouveau contenu, chaque ligne terminée par un retour à la ligne
+     */
+    public void reecrire(String lignes) throws IOException {
+        reecrire(ByteBuffer.wrap(lignes.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void reecrire(ByteBuffer contenu) throws IOException {
+        attendre(soumettre(new Demande(null, contenu)));
+    }
+
+    /**
+     * Écrit les demandes en attente puis arrête le thread écrivain ; un ajout ultérieur le relance.
+     */
+    public synchronized void fermer() {
+        // Le verrou est gardé jusqu'à la fin de l'écrivain : un ajout simultané attend, puis en relance un autre,
+        // qui ne partage jamais le canal de celui-ci
+        if (ecrivain == null) {
+            return;
+        }
+        file.add(FIN);
+        boolean interrompu = false;
+        while (true) {
+            try {
+                ecrivain.join();
+                break;
+            } catch (InterruptedException e) {
+                interrompu = true;
+            }
+        }
+        ecrivain = null;
+        if (interrompu) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Attend un ajout, en rendant son éventuel échec sous forme d'IOException.
+     */
+    public static void attendre(CompletableFuture<Void> ajout) throws IOException {
+        try {
+            ajout.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private synchronized CompletableFuture<Void> soumettre(Demande demande) {
+        if (ecrivain == null) {
+            ecrivain = new Thread(this::ecrire, "journal-" + fichier.getName());
+            ecrivain.setDaemon(true);
+            ecrivain.start();
+        }
+        file.add(demande);
+        return demande.faite;
+    }
+
+    // Boucle du thread écrivain
+    private void ecrire() {
+        boolean fin = false;
+        while (!fin) {
+            List<Demande> lot = new ArrayList<>();
+            try {
+                lot.add(file.take());
+                long limite = System.nanoTime() + fenetreNanos;
+                while (lot.size() < lotMax && lot.get(lot.size() - 1) != FIN) {
+                    Demande suivante = fenetreNanos > 0
+                            ? file.poll(limite - System.nanoTime(), TimeUnit.NANOSECONDS)
+                            : file.poll();
+                    if (suivante == null) {
+                        break;
+                    }
+                    lot.add(suivante);
+                }
+            } catch (InterruptedException e) {
+                fin = true;
+            }
+            fin |= !lot.isEmpty() && lot.get(lot.size() - 1) == FIN;
+
+            try {
+                valider(lot);
+                for (Demande demande : lot) {
+                    demande.faite.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Demande demande : lot) {
+                    demande.faite.completeExceptionally(e);
+                }
+                fermerCanal();
+            }
+        }
+        fermerCanal();
+    }
+
+    // Écrit un lot : les lignes consécutives sont rassemblées en une seule écriture, et le lot forcé une seule fois
+    private void valider(List<Demande> lot) throws IOException {
+        List<ByteBuffer> lignes = new ArrayList<>();
+        for (Demande demande : lot) {
+            if (demande.lignes != null) {
+                lignes.add(ByteBuffer.wrap(demande.lignes));
+            } else if (demande.remplacement != null) {
+                ecrireLignes(lignes);
+                forcer();
+                fermerCanal();
+                WebPageSaver.writeFileAtomically(fichier.toPath(), demande.remplacement);
+            }
+        }
+        ecrireLignes(lignes);
+        forcer();
+    }
+
+    private void ecrireLignes(List<ByteBuffer> lignes) throws IOException {
+        if (lignes.isEmpty()) {
+            return;
+        }
+        if (canal == null) {
+            fichier.getAbsoluteFile().getParentFile().mkdirs();
+            canal = FileChannel.open(fichier.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        int taille = 0;
+        for (ByteBuffer ligne : lignes) {
+            taille += ligne.remaining();
+        }
+        ByteBuffer tampon = ByteBuffer.allocate(taille);
+        for (ByteBuffer ligne : lignes) {
+            tampon.put(ligne);
+        }
+        tampon.flip();
+        while (tampon.hasRemaining()) {
+            canal.write(tampon);
+        }
+        lignes.clear();
+    }
+
+    private void forcer() throws IOException {
+        if (synchrone && canal != null) {
+            canal.force(false);
+        }
+    }
+
+    private void fermerCanal() {
+        if (canal != null) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            canal = null;
+        }
+    }
+}
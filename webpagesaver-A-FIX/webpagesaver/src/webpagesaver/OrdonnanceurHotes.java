@@ -0,0 +1,163 @@
+package webpagesaver;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Ordonnance le téléchargement de nombreuses URLs en parallèle, en restant
+ * poli envers chaque site.
+ *
+ * Chaque hôte a sa propre file d'attente, traitée par au plus un thread à la
+ * fois : deux requêtes vers un même hôte sont toujours espacées d'au moins
+ * delaiHoteMillis. Les hôtes différents sont traités en parallèle, dans la
+ * limite du nombre de threads. Un hôte qui attend son délai n'occupe aucun
+ * thread : la suite de sa file est replanifiée.
+ *
+ * Chaque travail soumis voit son rappel appelé exactement une fois : les
+ * travaux encore en file à l'arrêt, ou soumis après, sont rappelés en échec.
+ */
+public class OrdonnanceurHotes {
+    private final ScheduledThreadPoolExecutor executeur;
+    private final long delaiHoteMillis;
+    private final Map<String, FileHote> hotes = new ConcurrentHashMap<>();
+
+    // File des travaux en attente pour un hôte
+    private static class FileHote {
+        final String hote;
+        final Queue<Travail> travaux = new ArrayDeque<>();
+        boolean actif = false;
+        long prochainAcces = 0;
+
+        FileHote(String hote) {
+            this.hote = hote;
+        }
+    }
+
+    private static class Travail {
+        final String url;
+        final Predicate<String> action;
+        final Consumer<Boolean> rappel;
+
+        Travail(String url, Predicate<String> action, Consumer<Boolean> rappel) {
+            this.url = url;
+            this.action = action;
+            this.rappel = rappel;
+        }
+    }
+
+    /**
+     * @param parallelisme Le nombre maximal de téléchargements simultanés
+     * @param delaiHoteMillis L'intervalle minimal entre deux requêtes vers un même hôte
+     */
+    public OrdonnanceurHotes(int parallelisme, long delaiHoteMillis) {
+        this.delaiHoteMillis = delaiHoteMillis;
+        this.executeur = new ScheduledThreadPoolExecutor(Math.max(1, parallelisme), r -> {
+            Thread thread = new Thread(r, "ordonnanceur-hotes");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Planifie un travail sur une URL.
+     * @param url L'URL à traiter
+     * @param action Le travail à exécuter, qui renvoie true en cas de succès
+     * @param rappel Appelé avec le résultat une fois le travail terminé
+     */
+    public void soumettre(String url, Predicate<String> action, Consumer<Boolean> rappel) {
+        String hote;
+        try {
+            hote = new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            rappel.accept(false);
+            return;
+        }
+
+        FileHote file = hotes.computeIfAbsent(hote, FileHote::new);
+        Travail travail = new Travail(url, action, rappel);
+        boolean accepte;
+        synchronized (file) {
+            // Après l'arrêt, arreter() a peut-être déjà vidé cette file : le travail y serait perdu
+            accepte = !executeur.isShutdown();
+            if (accepte) {
+                file.travaux.add(travail);
+                if (!file.actif) {
+                    try {
+                        long attente = file.prochainAcces - System.currentTimeMillis();
+                        executeur.schedule(() -> traiter(file), Math.max(0, attente), TimeUnit.MILLISECONDS);
+                        file.actif = true;
+                    } catch (RejectedExecutionException e) {
+                        file.travaux.remove(travail);
+                        accepte = false;
+                    }
+                }
+            }
+        }
+        if (!accepte) {
+            rappel.accept(false);
+        }
+    }
+
+    // Traite le prochain travail d'un hôte, puis replanifie la suite après le délai de politesse
+    private void traiter(FileHote file) {
+        Travail travail;
+        synchronized (file) {
+            travail = file.travaux.poll();
+            if (travail == null) {
+                file.actif = false;
+                return;
+            }
+        }
+
+        boolean succes;
+        try {
+            succes = travail.action.test(travail.url);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            succes = false;
+        }
+
+        synchronized (file) {
+            file.prochainAcces = System.currentTimeMillis() + delaiHoteMillis;
+        }
+        travail.rappel.accept(succes);
+        try {
+            executeur.schedule(() -> traiter(file), delaiHoteMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Arrêt pendant le travail : arreter() a déjà vidé la file
+        }
+    }
+
+    /**
+     * Arrête les téléchargements : les travaux en cours se terminent, ceux
+     * encore en file sont abandonnés et leurs rappels appelés avec false.
+     */
+    public void arreter() {
+        executeur.shutdownNow();
+        List<Travail> abandonnes = new ArrayList<>();
+        for (FileHote file : hotes.values()) {
+            synchronized (file) {
+                abandonnes.addAll(file.travaux);
+                file.travaux.clear();
+            }
+        }
+        for (Travail travail : abandonnes) {
+            try {
+                travail.rappel.accept(false);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package webpagesaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Rafraîchit périodiquement les pages sauvegardées, par requêtes conditionnelles.
+ *
+ * Les validateurs renvoyés par l'origine (ETag, Last-Modified) sont gardés
+ * par URL dans validateurs.txt ; une page inchangée répond 304 et ne coûte
+ * ni analyse ni compression. Chaque URL est revue toutes les
+ * intervalleMillis, à ±10 % près : les rafraîchissements s'étalent sur
+ * tout l'intervalle au lieu de partir tous ensemble. Ils passent par
+ * l'OrdonnanceurHotes, qui limite les connexions simultanées et espace
+ * les requêtes vers un même hôte.
+ */
+public class Rafraichisseur {
+
+    /**
+     * Validateurs d'une page : null quand l'origine n'en a pas envoyé.
+     */
+    public static class Validateurs {
+        public final String etag;
+        public final String derniereModification;
+
+        public Validateurs(String etag, String derniereModification) {
+            this.etag = etag;
+            this.derniereModification = derniereModification;
+        }
+    }
+
+    private final File journal;
+    private final JournalGroupe journalValidateurs;
+    private final long intervalleMillis;
+    private final Map<String, Validateurs> validateurs = new ConcurrentHashMap<>();
+    // URLs dont le prochain rafraîchissement est déjà planifié
+    private final Set<String> planifiees = ConcurrentHashMap.newKeySet();
+    private ScheduledThreadPoolExecutor executeur;
+    private OrdonnanceurHotes ordonnanceur;
+    private Predicate<String> actif;
+    private Predicate<String> rafraichir;
+
+    /**
+     * @param journal Le fichier des validateurs
+     * @param intervalleMillis L'intervalle moyen entre deux rafraîchissements d'une page (0 : pas de rafraîchissement)
+     */
+    public Rafraichisseur(File journal, long intervalleMillis) {
+        this.journal = journal;
+        this.journalValidateurs = new JournalGroupe(journal);
+        this.intervalleMillis = intervalleMillis;
+    }
+
+    /**
+     * Relit les validateurs et compacte leur journal.
+     */
+    public synchronized void charger() throws IOException {
+        validateurs.clear();
+        if (!journal.exists()) {
+            return;
+        }
+        for (String line : journalValidateurs.lire()) {
+            String[] champs = line.split("\t", -1);
+            if (champs.length == 3) {
+                if (champs[1].isEmpty() && champs[2].isEmpty()) {
+                    validateurs.remove(champs[0]);
+                } else {
+                    validateurs.put(champs[0], new Validateurs(vide(champs[1]), vide(champs[2])));
+                }
+            }
+        }
+
+        StringBuilder compacte = new StringBuilder();
+        for (Map.Entry<String, Validateurs> entree : validateurs.entrySet()) {
+            compacte.append(ligne(entree.getKey(), entree.getValue())).append('\n');
+        }
+        journalValidateurs.reecrire(compacte.toString());
+    }
+
+    /**
+     * @return Les validateurs connus pour cette URL, ou null
+     */
+    public Validateurs validateurs(String url) {
+        return validateurs.get(url);
+    }
+
+    /**
+     * Enregistre les validateurs renvoyés par l'origine après une sauvegarde réussie.
+     */
+    public synchronized void enregistrer(String url, Validateurs nouveaux) {
+        if (nouveaux.etag == null && nouveaux.derniereModification == null) {
+            oublier(url);
+            return;
+        }
+        validateurs.put(url, nouveaux);
+        journalValidateurs.ajouter(ligne(url, nouveaux));
+    }
+
+    /**
+     * Oublie les validateurs d'une URL (page supprimée, ou sans validateurs).
+     */
+    public synchronized void oublier(String url) {
+        if (validateurs.remove(url) != null) {
+            journalValidateurs.ajouter(url + "\t\t");
+        }
+    }
+
+    /**
+     * Planifie le rafraîchissement des URLs déjà sauvegardées, chacune à un instant tiré au hasard dans l'intervalle.
+     * @param urls Les URLs sauvegardées
+     * @param ordonnanceur L'ordonnanceur des téléchargements
+     * @param actif Indique si une URL est toujours sauvegardée (sinon elle n'est plus rafraîchie)
+     * @param rafraichir Le rafraîchissement d'une URL, qui renvoie true en cas de succès
+     */
+    public void demarrer(Collection<String> urls, OrdonnanceurHotes ordonnanceur, Predicate<String> actif, Predicate<String> rafraichir) {
+        if (intervalleMillis <= 0) {
+            return;
+        }
+        this.ordonnanceur = ordonnanceur;
+        this.actif = actif;
+        this.rafraichir = rafraichir;
+        executeur = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "rafraichisseur");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String url : urls) {
+            planifier(url, ThreadLocalRandom.current().nextLong(intervalleMillis));
+        }
+    }
+
+    /**
+     * Planifie le prochain rafraîchissement d'une URL qui vient d'être sauvegardée, s'il ne l'est pas déjà.
+     */
+    public void planifier(String url) {
+        if (executeur != null && !executeur.isShutdown()) {
+            planifier(url, (long) (intervalleMillis * ThreadLocalRandom.current().nextDouble(0.9, 1.1)));
+        }
+    }
+
+    private void planifier(String url, long delaiMillis) {
+        if (!planifiees.add(url)) {
+            return;
+        }
+        executeur.schedule(() -> {
+            planifiees.remove(url);
+            if (actif.test(url)) {
+                ordonnanceur.soumettre(url, rafraichir, succes -> planifier(url));
+            }
+        }, delaiMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void arreter() {
+        if (executeur != null) {
+            executeur.shutdownNow();
+        }
+        journalValidateurs.fermer();
+    }
+
+    private static String ligne(String url, Validateurs v) {
+        return url + "\t" + (v.etag == null ? "" : v.etag) + "\t" + (v.derniereModification == null ? "" : v.derniereModification);
+    }
+
+    private static String vide(String champ) {
+        return champ.isEmpty() ? null : champ;
+    }
+}
@@ -0,0 +1,155 @@
+package webpagesaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registre des URLs sauvegardées (cache/SavedURLFile.txt).
+ *
+ * Le fichier est lu une seule fois au démarrage du serveur ; les URLs sont
+ * ensuite gardées en mémoire pour tester rapidement si une page a déjà été
+ * sauvegardée, et chaque nouvelle URL est ajoutée à la fin du fichier.
+ *
+ * Les ajouts passent par un JournalGroupe : les URLs sauvegardées en même
+ * temps sont écrites ensemble, avec une seule synchronisation disque, et
+ * ajouter ne rend la main qu'une fois l'URL sur le disque.
+ *
+ * Les URLs sont gardées triées, ce qui permet de parcourir le registre par
+ * pages à partir d'un curseur (/list). Le numéro de version change à chaque
+ * ajout ou retrait : il sert d'ETag à la liste.
+ */
+public class Registre {
+    private final JournalGroupe journal;
+    private final NavigableSet<String> urls = new ConcurrentSkipListSet<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public Registre(File fichier) {
+        this.journal = new JournalGroupe(fichier);
+    }
+
+    /**
+     * Charge en mémoire les URLs déjà présentes dans le fichier du registre.
+     */
+    public synchronized void charger() {
+        urls.clear();
+        version.incrementAndGet();
+        try {
+            urls.addAll(journal.lire());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param url L'URL à tester
+     * @return true si l'URL a déjà été sauvegardée
+     */
+    public boolean contient(String url) {
+        return urls.contains(url);
+    }
+
+    /**
+     * Ajoute une URL au registre, si elle n'y est pas déjà.
+     * @param url L'URL sauvegardée
+     * @return true si l'URL est nouvelle
+     */
+    public boolean ajouter(String url) throws IOException {
+        CompletableFuture<Void> ecrite;
+        synchronized (this) {
+            // Une nouvelle sauvegarde d'une URL connue change aussi sa date et sa taille dans la liste
+            version.incrementAndGet();
+            if (!urls.add(url)) {
+                return false;
+            }
+            ecrite = journal.ajouter(url);
+        }
+        // Attente hors du verrou : les ajouts simultanés partagent la même écriture
+        JournalGroupe.attendre(ecrite);
+        return true;
+    }
+
+    /**
+     * Ajoute plusieurs URLs en une seule écriture du journal (import).
+     * @param nouvelles Les URLs
+     * @return Le nombre d'URLs qui n'étaient pas encore enregistrées
+     */
+    public int ajouterTous(Collection<String> nouvelles) throws IOException {
+        CompletableFuture<Void> ecrite;
+        int ajoutees = 0;
+        synchronized (this) {
+            version.incrementAndGet();
+            StringBuilder lignes = new StringBuilder();
+            for (String url : nouvelles) {
+                if (urls.add(url)) {
+                    lignes.append(url).append('\n');
+                    ajoutees++;
+                }
+            }
+            if (ajoutees == 0) {
+                return 0;
+            }
+            lignes.setLength(lignes.length() - 1);
+            ecrite = journal.ajouter(lignes.toString());
+        }
+        JournalGroupe.attendre(ecrite);
+        return ajoutees;
+    }
+
+    /**
+     * Retire une URL du registre et réécrit le fichier.
+     * @param url L'URL à retirer
+     * @return true si l'URL était enregistrée
+     */
+    public synchronized boolean retirer(String url) throws IOException {
+        if (!urls.remove(url)) {
+            return false;
+        }
+        version.incrementAndGet();
+        StringBuilder contenu = new StringBuilder();
+        for (String autre : urls) {
+            contenu.append(autre).append('\n');
+        }
+        journal.reecrire(contenu.toString());
+        return true;
+    }
+
+    /**
+     * Écrit les ajouts en attente et arrête l'écrivain du journal.
+     */
+    public void fermer() {
+        journal.fermer();
+    }
+
+    /**
+     * @return Les URLs enregistrées (vue non modifiable)
+     */
+    public Set<String> toutes() {
+        return Collections.unmodifiableSet(urls);
+    }
+
+    /**
+     * @param curseur La dernière URL déjà parcourue, ou null pour partir du début
+     * @return Les URLs qui suivent le curseur, dans l'ordre (vue non modifiable, qui suit les modifications)
+     */
+    public NavigableSet<String> apres(String curseur) {
+        return Collections.unmodifiableNavigableSet(curseur == null ? urls : urls.tailSet(curseur, false));
+    }
+
+    /**
+     * @return Un numéro qui change à chaque modification du registre
+     */
+    public long version() {
+        return version.get();
+    }
+
+    public int taille() {
+        return urls.size();
+    }
+}
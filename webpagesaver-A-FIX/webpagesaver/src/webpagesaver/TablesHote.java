@@ -0,0 +1,253 @@
+package webpagesaver;
+
+import huffman.ArbreBinaire;
+import huffman.TableHuffman;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tables de codes de Huffman partagées par les fichiers d'un même hôte.
+ *
+ * Les pages d'un site ont presque la même distribution d'octets : plutôt
+ * que de construire un arbre, et d'écrire sa table, pour chaque morceau de
+ * chaque fichier, on garde la dernière table de chaque hôte et type de
+ * fichier (HTMLexemple.com, CSSexemple.com...). Avant d'encoder un fichier,
+ * son histogramme est comparé à cette table : bits du contenu avec la
+ * table gardée, contre la borne d'entropie (ce que donnerait au mieux une
+ * table construite sur ce fichier). Sous le seuil d'écart, la table est
+ * réutilisée ; au-delà, ou si un octet du fichier n'y a pas de code, une
+ * table est construite sur le fichier et remplace l'ancienne.
+ *
+ * Les morceaux encodés ainsi ne contiennent que la référence de leur table
+ * (les 16 premiers octets de son empreinte SHA-256). Les tables sont
+ * écrites une seule fois, sous cette référence, dans cache/tables/. Une
+ * table dont les morceaux ont été supprimés ou réencodés est supprimée par
+ * nettoyer (après un import, et à chaque passe du gestionnaire de
+ * stockage). En mémoire, au plus capacite hôtes sont gardés : le moins
+ * récemment utilisé est oublié.
+ */
+public class TablesHote implements ArbreBinaire.Tables {
+
+    private static final int TAILLE_REFERENCE = 16;
+
+    /**
+     * Une table et sa référence.
+     */
+    public static class Table {
+        public final TableHuffman table;
+        public final byte[] reference;
+
+        Table(TableHuffman table, byte[] reference) {
+            this.table = table;
+            this.reference = reference;
+        }
+    }
+
+    private final File repertoire;
+    private final double seuil;
+    // Dernière table de chaque hôte et type de fichier, du moins au plus récemment utilisé
+    private final Map<String, Table> parHote;
+    // Tables relues pour le décodage, sous leur référence en hexadécimal
+    private final Map<String, TableHuffman> lues;
+    // Tables données par choisir pendant un nettoyage, null en dehors : des morceaux en cours d'encodage y font référence
+    private Set<String> distribuees;
+    // Un seul nettoyage à la fois (passe du gestionnaire et import peuvent se croiser)
+    private final Object nettoyage = new Object();
+
+    /**
+     * @param repertoire Le répertoire des tables
+     * @param capacite Le nombre maximal d'hôtes gardés en mémoire
+     * @param seuil L'écart maximal au coût optimal pour réutiliser une table (0.03 : 3 % de bits en plus)
+     */
+    public TablesHote(File repertoire, int capacite, double seuil) {
+        this.repertoire = repertoire;
+        this.seuil = seuil;
+        this.parHote = lru(capacite);
+        this.lues = lru(capacite);
+    }
+
+    private static <V> Map<String, V> lru(int capacite) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> plusAncienne) {
+                return size() > capacite;
+            }
+        };
+    }
+
+    /**
+     * Donne la table avec laquelle encoder un fichier : celle déjà gardée
+     * pour cette clé si l'histogramme du fichier n'a pas dérivé, sinon une
+     * nouvelle table construite sur cet histogramme (et écrite dans le
+     * répertoire des tables). La construction et l'écriture se font hors du
+     * verrou, pour ne pas bloquer les autres sauvegardes.
+     * @param cle L'hôte et le type de fichier (par exemple HTMLexemple.com)
+     * @param frequences L'histogramme du fichier
+     * @return La table, dans laquelle chaque octet du fichier a un code
+     */
+    public Table choisir(String cle, int[] frequences) throws IOException {
+        synchronized (this) {
+            Table gardee = parHote.get(cle);
+            if (gardee != null) {
+                long bits = gardee.table.cout(frequences);
+                if (bits >= 0 && bits <= TableHuffman.entropie(frequences) * (1 + seuil)) {
+                    distribuer(gardee.reference);
+                    return gardee;
+                }
+            }
+        }
+
+        TableHuffman table = new ArbreBinaire(frequences).tableCanonique();
+        ByteBuffer ecrite = ByteBuffer.allocate(table.tailleEcrite());
+        table.ecrire(ecrite);
+        byte[] reference = Arrays.copyOf(empreinte(ecrite.array()), TAILLE_REFERENCE);
+        File fichier = fichier(reference);
+        if (!fichier.exists()) {
+            ecrire(fichier, ecrite.array());
+        }
+        Table nouvelle = new Table(table, reference);
+        synchronized (this) {
+            // Une table identique, plus ancienne, a pu être supprimée par nettoyer depuis le test d'existence
+            if (!fichier.exists()) {
+                ecrire(fichier, ecrite.array());
+            }
+            parHote.put(cle, nouvelle);
+            lues.put(hexadecimal(reference), table);
+            distribuer(reference);
+        }
+        System.out.println("Nouvelle table de codes pour " + cle);
+        return nouvelle;
+    }
+
+    private static void ecrire(File fichier, byte[] contenu) throws IOException {
+        fichier.getParentFile().mkdirs();
+        WebPageSaver.writeFileAtomically(fichier.toPath(), ByteBuffer.wrap(contenu));
+    }
+
+    private void distribuer(byte[] reference) {
+        if (distribuees != null) {
+            distribuees.add(hexadecimal(reference));
+        }
+    }
+
+    /**
+     * Supprime les tables auxquelles aucun morceau du dépôt ne fait plus
+     * référence. Les morceaux sont parcourus sans bloquer choisir ; sont
+     * gardées en plus les tables des hôtes en mémoire, celles données par
+     * choisir pendant le parcours et celles écrites depuis son début : un
+     * morceau en cours d'encodage ou d'import peut y faire référence.
+     * @param depot Le dépôt dont les morceaux sont parcourus
+     * @return Le nombre d'octets libérés
+     */
+    public long nettoyer(DepotMorceaux depot) throws IOException {
+        synchronized (nettoyage) {
+            // Marge pour les systèmes de fichiers dont les dates sont précises à 2 s
+            long debut = System.currentTimeMillis() - 2000;
+            synchronized (this) {
+                distribuees = new HashSet<>();
+            }
+            Set<String> gardees;
+            try {
+                gardees = new HashSet<>(depot.tablesUtilisees());
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    distribuees = null;
+                }
+                throw e;
+            }
+            long liberes = 0;
+            synchronized (this) {
+                gardees.addAll(distribuees);
+                distribuees = null;
+                for (Table table : parHote.values()) {
+                    gardees.add(hexadecimal(table.reference));
+                }
+                File[] fichiers = repertoire.listFiles();
+                for (File fichier : fichiers == null ? new File[0] : fichiers) {
+                    if (!gardees.contains(fichier.getName()) && fichier.lastModified() < debut) {
+                        long taille = fichier.length();
+                        if (fichier.delete()) {
+                            liberes += taille;
+                            lues.remove(fichier.getName());
+                        }
+                    }
+                }
+            }
+            return liberes;
+        }
+    }
+
+    /**
+     * Relit une table pour décoder un morceau.
+     */
+    @Override
+    public TableHuffman table(byte[] reference) {
+        String nom = hexadecimal(reference);
+        synchronized (this) {
+            TableHuffman table = lues.get(nom);
+            if (table != null) {
+                return table;
+            }
+        }
+        File fichier = fichier(reference);
+        if (!fichier.exists()) {
+            throw new IllegalArgumentException("Table de codes introuvable : " + nom);
+        }
+        TableHuffman table;
+        try {
+            table = TableHuffman.lire(ByteBuffer.wrap(Files.readAllBytes(fichier.toPath())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (this) {
+            lues.put(nom, table);
+        }
+        return table;
+    }
+
+    /**
+     * Vérifie une table venue d'ailleurs (import) : son nom doit être la référence de son contenu.
+     * @param fichier Le fichier de la table
+     * @return false si le contenu ne correspond pas au nom
+     */
+    public boolean verifier(Path fichier) throws IOException {
+        byte[] reference = Arrays.copyOf(empreinte(Files.readAllBytes(fichier)), TAILLE_REFERENCE);
+        return fichier.getFileName().toString().equals(hexadecimal(reference));
+    }
+
+    /**
+     * @param reference La référence d'une table
+     * @return Le fichier de cette table
+     */
+    public File fichier(byte[] reference) {
+        return new File(repertoire, hexadecimal(reference));
+    }
+
+    private static byte[] empreinte(byte[] contenu) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contenu);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hexadecimal(byte[] octets) {
+        StringBuilder hex = new StringBuilder(octets.length * 2);
+        for (byte b : octets) {
+            hex.append(Character.forDigit((b >>> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+        }
+        return hex.toString();
+    }
+}
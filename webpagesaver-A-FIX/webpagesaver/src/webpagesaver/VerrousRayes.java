@@ -0,0 +1,63 @@
+package webpagesaver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Verrous par clé, répartis sur un nombre fixe de verrous (« striped locks ») :
+ * deux clés différentes partagent rarement un verrou, et la mémoire ne
+ * dépend pas du nombre de clés. Une même clé a toujours le même verrou.
+ *
+ * Les écritures d'une entrée du cache prennent le verrou en écriture, les
+ * lectures (/view) en lecture.
+ */
+public class VerrousRayes {
+    private final ReadWriteLock[] verrous;
+
+    /**
+     * @param nombre Le nombre de verrous
+     */
+    public VerrousRayes(int nombre) {
+        verrous = new ReadWriteLock[nombre];
+        for (int i = 0; i < nombre; i++) {
+            verrous[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * @param cle Une clé (par exemple l'entrée du cache d'une URL)
+     * @return Le verrou de cette clé
+     */
+    public ReadWriteLock verrou(String cle) {
+        // Mélange des bits du hashCode, pour que des clés proches tombent sur des verrous différents
+        int h = cle.hashCode() * 0x9E3779B9;
+        return verrous[((h ^ (h >>> 16)) & 0x7FFFFFFF) % verrous.length];
+    }
+
+    /**
+     * Prend tous les verrous en écriture, toujours dans le même ordre : pour
+     * une opération sur tout le cache (import), qui exclut toute sauvegarde
+     * et toute lecture.
+     * @return Les verrous pris, à rendre avec toutRendre
+     */
+    public List<Lock> toutPrendre() {
+        List<Lock> pris = new ArrayList<>();
+        for (ReadWriteLock verrou : verrous) {
+            verrou.writeLock().lock();
+            pris.add(verrou.writeLock());
+        }
+        return pris;
+    }
+
+    /**
+     * @param pris Les verrous rendus par toutPrendre
+     */
+    public static void toutRendre(List<Lock> pris) {
+        for (int i = pris.size() - 1; i >= 0; i--) {
+            pris.get(i).unlock();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package webpagesaver;
+
+import huffman.ArbreBinaire;
+import huffman.Delta;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Historique des versions successives d'un fichier du cache.
+ *
+ * Le fichier du cache (par exemple cache/HTMLexemple.com.txt) contient la
+ * dernière version complète, dite version clé, sous forme de manifeste du
+ * dépôt de morceaux (voir DepotMorceaux). Chaque nouvelle version est
+ * enregistrée sous forme de delta par rapport à la précédente
+ * (cache/versions/HTMLexemple.com/5.delta) : l'écriture est proportionnelle
+ * à ce qui a changé. Toutes les intervalleCles versions, la nouvelle
+ * version redevient une version clé, et l'ancienne est déplacée dans
+ * l'historique (cache/versions/HTMLexemple.com/1.cle) : reconstruire une
+ * version n'applique jamais plus de intervalleCles - 1 deltas.
+ *
+ * Le fichier index.txt de l'historique contient une ligne par version :
+ * numéro, type (cle ou delta), date d'enregistrement, taille non
+ * compressée et URL sauvegardée (ces deux dernières sont absentes des
+ * index écrits avant qu'elles n'y figurent). Plusieurs URLs d'un même hôte
+ * partagent un fichier du cache : l'URL dit de quelle page vient la version.
+ *
+ * Les appels portant sur un même fichier doivent être sérialisés par
+ * l'appelant (WebPageSaver prend le verrou de l'entrée du cache) ; ceux
+ * portant sur des fichiers différents peuvent être simultanés.
+ */
+public class Versions {
+    private final File repertoire;
+    private final DepotMorceaux depot;
+    private final int intervalleCles;
+
+    /**
+     * Compresse un morceau de version clé (le codeur dépend du type de fichier).
+     */
+    public interface Compresseur {
+        ByteBuffer compresser(ByteBuffer contenu) throws IOException;
+    }
+
+    /**
+     * Une ligne de l'index.
+     */
+    public static class Version {
+        public final int numero;
+        public final boolean cle;
+        public final long date;
+        // Taille non compressée, -1 si inconnue
+        public final long taille;
+        // URL de la page sauvegardée, null si inconnue
+        public final String url;
+
+        Version(int numero, boolean cle, long date, long taille, String url) {
+            this.numero = numero;
+            this.cle = cle;
+            this.date = date;
+            this.taille = taille;
+            this.url = url;
+        }
+    }
+
+    /**
+     * @param repertoire Le répertoire des historiques (un sous-répertoire par fichier)
+     * @param depot Le dépôt où sont stockés les morceaux des versions clés
+     * @param intervalleCles Le nombre de versions entre deux versions clés
+     */
+    public Versions(File repertoire, DepotMorceaux depot, int intervalleCles) {
+        this.repertoire = repertoire;
+        this.depot = depot;
+        this.intervalleCles = Math.max(1, intervalleCles);
+    }
+
+    private File historique(Path fichier) {
+        String nom = fichier.getFileName().toString();
+        return new File(repertoire, nom.endsWith(".txt") ? nom.substring(0, nom.length() - 4) : nom);
+    }
+
+    /**
+     * @param fichier Un fichier du cache
+     * @return Ses versions, de la plus ancienne à la plus récente (une seule s'il n'a pas d'historique)
+     */
+    public List<Version> lister(Path fichier) throws IOException {
+        List<Version> versions = new ArrayList<>();
+        File index = new File(historique(fichier), "index.txt");
+        if (index.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] champs = line.split(" ", 5);
+                    if (champs.length >= 3) {
+                        versions.add(new Version(Integer.parseInt(champs[0]), champs[1].equals("cle"), Long.parseLong(champs[2]),
+                                champs.length >= 4 ? Long.parseLong(champs[3]) : -1, champs.length == 5 ? champs[4] : null));
+                    }
+                }
+            }
+        } else if (Files.exists(fichier)) {
+            // Fichier sauvegardé avant l'historique : c'est la version 1
+            versions.add(new Version(1, true, Files.getLastModifiedTime(fichier).toMillis(), -1, null));
+        }
+        return versions;
+    }
+
+    /**
+     * Enregistre une nouvelle version d'un fichier du cache.
+     * @param fichier Le fichier du cache
+     * @param contenu Le nouveau contenu, non compressé (buffer éventuellement projeté en mémoire)
+     * @param compresseur Le codeur des nouveaux morceaux des versions clés
+     * @param url L'URL de la page dont vient ce contenu
+     * @return Le numéro de la nouvelle version
+     */
+    public int enregistrer(Path fichier, ByteBuffer contenu, Compresseur compresseur, String url) throws IOException {
+        List<Version> versions = lister(fichier);
+        File historique = historique(fichier);
+        historique.mkdirs();
+        File index = new File(historique, "index.txt");
+        if (!index.exists() && !versions.isEmpty()) {
+            ajouterIndex(index, versions.get(0));
+        }
+
+        int numero = versions.isEmpty() ? 1 : versions.get(versions.size() - 1).numero + 1;
+        int derniereCle = derniereCle(versions, numero);
+        boolean cle = versions.isEmpty() || numero - derniereCle >= intervalleCles;
+
+        if (cle) {
+            // Le nouveau manifeste est écrit à côté avant que l'ancien ne bouge : un arrêt brutal ne laisse au plus
+            // que l'intervalle entre deux renommages sans fichier courant, et lire le retrouve alors dans l'historique
+            ByteBuffer manifeste = depot.stocker(contenu, compresseur);
+            Path nouveau = fichier.resolveSibling(fichier.getFileName() + ".nouveau");
+            WebPageSaver.writeFileAtomically(nouveau, manifeste);
+            if (!versions.isEmpty() && Files.exists(fichier)) {
+                // L'ancienne version clé passe dans l'historique, sans être réécrite
+                Files.move(fichier, new File(historique, derniereCle + ".cle").toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(nouveau, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            WebPageSaver.forcerRepertoire(historique.toPath());
+            WebPageSaver.forcerRepertoire(fichier.toAbsolutePath().getParent());
+        } else {
+            byte[] precedente = octets(lire(fichier, versions, numero - 1));
+            byte[] nouvelle = octets(contenu);
+            WebPageSaver.writeFileAtomically(new File(historique, numero + ".delta").toPath(), ByteBuffer.wrap(Delta.encoder(precedente, nouvelle)));
+        }
+
+        ajouterIndex(index, new Version(numero, cle, System.currentTimeMillis(), contenu.remaining(), url));
+        return numero;
+    }
+
+    /**
+     * Reconstruit une version d'un fichier du cache. La dernière version
+     * clé est assemblée dans un buffer direct, sans passer par le tas.
+     * @param fichier Le fichier du cache
+     * @param numero Le numéro de version, ou 0 pour la plus récente
+     * @return Le contenu de cette version, non compressé, prêt à être lu
+     * @throws IllegalArgumentException Si la version n'existe pas
+     */
+    public ByteBuffer lire(Path fichier, int numero) throws IOException {
+        List<Version> versions = lister(fichier);
+        if (versions.isEmpty()) {
+            throw new IllegalArgumentException("Aucune version de " + fichier);
+        }
+        return lire(fichier, versions, numero == 0 ? versions.get(versions.size() - 1).numero : numero);
+    }
+
+    /**
+     * Supprime un fichier du cache et tout son historique, en libérant les morceaux de ses versions clés.
+     * @param fichier Le fichier du cache
+     * @return Le nombre d'octets libérés (fichiers, historique et morceaux supprimés)
+     */
+    public long supprimer(Path fichier) throws IOException {
+        File historique = historique(fichier);
+        List<Path> cles = new ArrayList<>();
+        cles.add(fichier);
+        File[] anciens = historique.listFiles();
+        for (File ancien : anciens == null ? new File[0] : anciens) {
+            if (ancien.getName().endsWith(".cle")) {
+                cles.add(ancien.toPath());
+            }
+        }
+        long liberes = 0;
+        for (Path cle : cles) {
+            if (Files.exists(cle)) {
+                ByteBuffer manifeste = ByteBuffer.wrap(Files.readAllBytes(cle));
+                if (DepotMorceaux.estManifeste(manifeste)) {
+                    liberes += depot.liberer(manifeste);
+                }
+            }
+        }
+
+        liberes += fichier.toFile().length();
+        Files.deleteIfExists(fichier);
+        for (File ancien : anciens == null ? new File[0] : anciens) {
+            liberes += ancien.length();
+            Files.delete(ancien.toPath());
+        }
+        Files.deleteIfExists(historique.toPath());
+        return liberes;
+    }
+
+    private ByteBuffer lire(Path fichier, List<Version> versions, int numero) throws IOException {
+        if (numero < 1 || numero > versions.get(versions.size() - 1).numero) {
+            throw new IllegalArgumentException("Version inexistante : " + numero);
+        }
+        File historique = historique(fichier);
+        int cle = derniereCle(versions, numero + 1);
+        boolean cleCourante = derniereCle(versions, Integer.MAX_VALUE) == cle;
+        // Sans fichier courant (arrêt entre les deux renommages d'enregistrer), la dernière version clé est déjà dans l'historique
+        Path chemin = cleCourante && Files.exists(fichier) ? fichier : new File(historique, cle + ".cle").toPath();
+        ByteBuffer complete = lireCle(chemin);
+        if (cle == numero) {
+            return complete;
+        }
+
+        byte[] contenu = octets(complete);
+        for (int n = cle + 1; n <= numero; n++) {
+            contenu = Delta.appliquer(contenu, Files.readAllBytes(new File(historique, n + ".delta").toPath()));
+        }
+        return ByteBuffer.wrap(contenu);
+    }
+
+    // Lit une version clé : manifeste du dépôt, fichier compressé d'avant le dépôt, ou ancien format texte
+    private ByteBuffer lireCle(Path chemin) throws IOException {
+        try (FileChannel canal = FileChannel.open(chemin, StandardOpenOption.READ)) {
+            MappedByteBuffer code = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (DepotMorceaux.estManifeste(code)) {
+                return depot.assembler(code);
+            }
+            if (!ArbreBinaire.estFormatBinaire(code)) {
+                return ByteBuffer.wrap(ArbreBinaire.decodeOctets(octets(code)));
+            }
+            ByteBuffer contenu = ByteBuffer.allocateDirect(ArbreBinaire.tailleOrigine(code));
+            ArbreBinaire.decodeOctets(code, contenu);
+            contenu.flip();
+            return contenu;
+        }
+    }
+
+    private static byte[] octets(ByteBuffer contenu) {
+        byte[] octets = new byte[contenu.remaining()];
+        contenu.duplicate().get(octets);
+        return octets;
+    }
+
+    // Numéro de la dernière version clé avant la version numero
+    private static int derniereCle(List<Version> versions, int numero) {
+        int cle = 0;
+        for (Version version : versions) {
+            if (version.cle && version.numero < numero) {
+                cle = version.numero;
+            }
+        }
+        return cle;
+    }
+
+    private static void ajouterIndex(File index, Version version) {
+        WebPageSaver.appendToFile(version.numero + " " + (version.cle ? "cle" : "delta") + " " + version.date
+                + (version.taille >= 0 ? " " + version.taille + (version.url != null ? " " + version.url : "") : ""), index);
+    }
+}
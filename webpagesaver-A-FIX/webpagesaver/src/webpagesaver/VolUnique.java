@@ -0,0 +1,64 @@
+package webpagesaver;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Regroupe les appels simultanés portant sur une même clé (« single flight ») :
+ * le premier appel exécute la tâche, les suivants attendent et reçoivent son
+ * résultat au lieu de refaire le travail. Une fois la tâche terminée, un
+ * nouvel appel l'exécute de nouveau.
+ */
+public class VolUnique<V> {
+
+    /**
+     * Une tâche qui peut échouer avec une IOException.
+     */
+    public interface Tache<V> {
+        V executer() throws IOException;
+    }
+
+    private final Map<String, CompletableFuture<V>> enVol = new ConcurrentHashMap<>();
+
+    /**
+     * Exécute la tâche, ou attend la même tâche déjà en cours pour cette clé.
+     * @param cle La clé (par exemple une URL)
+     * @param tache Le travail à faire
+     * @return Le résultat de la tâche, partagé par tous les appels simultanés
+     * @throws IOException Si la tâche a échoué
+     */
+    public V executer(String cle, Tache<V> tache) throws IOException {
+        CompletableFuture<V> nouveau = new CompletableFuture<>();
+        CompletableFuture<V> existant = enVol.putIfAbsent(cle, nouveau);
+        if (existant != null) {
+            return attendre(existant);
+        }
+        try {
+            V resultat = tache.executer();
+            nouveau.complete(resultat);
+            return resultat;
+        } catch (IOException | RuntimeException e) {
+            nouveau.completeExceptionally(e);
+            throw e;
+        } finally {
+            enVol.remove(cle, nouveau);
+        }
+    }
+
+    private V attendre(CompletableFuture<V> futur) throws IOException {
+        try {
+            return futur.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Attente interrompue", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}
@@ -8,19 +8,100 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import com.sun.net.httpserver.*;
 import huffman.ArbreBinaire;
+import huffman.CodeurANS;
+import huffman.CodeurContexte;
+import webpagesaver.CanalControle.Reponse;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
 
 	
 public class WebPageSaver {
     static List<String> savedUrls = new ArrayList<>();
     static File cacheDirectory = new File("cache");
+    // Journaux du registre et des métadonnées : lignes écrites par lots, un seul force par lot. Fenêtre d'attente
+    // d'autres lignes (µs), taille maximale d'un lot, et force sur le disque (false : plus rapide, mais perte possible)
+    static long fenetreJournalMicros = Long.getLong("webpagesaver.journal.fenetreMicros", 500);
+    static int lotJournalMax = Integer.getInteger("webpagesaver.journal.lotMax", 10000);
+    static boolean journalSynchrone = Boolean.parseBoolean(System.getProperty("webpagesaver.journal.synchrone", "true"));
     static File FileToWrite = new File(cacheDirectory, "SavedURLFile.txt");
+    static Registre registre = new Registre(FileToWrite);
+    static OrdonnanceurHotes ordonnanceur;
+    // Historique des pages : une version clé complète toutes les webpagesaver.intervalleCles versions, des deltas entre les deux
+    // Les versions clés sont découpées en morceaux, stockés une seule fois pour tout le cache
+    // Tables de codes de Huffman gardées pour les webpagesaver.tablesHote derniers hôtes et types de fichier (0 : une table
+    // dans chaque morceau) ; une table sert tant qu'un fichier ne coûte pas plus de webpagesaver.tablesHote.seuil au-dessus de l'optimum
+    static int capaciteTablesHote = Integer.getInteger("webpagesaver.tablesHote", 256);
+    static TablesHote tablesHote = new TablesHote(new File(cacheDirectory, "tables"), Math.max(1, capaciteTablesHote),
+            Double.parseDouble(System.getProperty("webpagesaver.tablesHote.seuil", "0.05")));
+    static DepotMorceaux depot = new DepotMorceaux(new File(cacheDirectory, "morceaux"), tablesHote);
+    static Versions versions = new Versions(new File(cacheDirectory, "versions"), depot, Integer.getInteger("webpagesaver.intervalleCles", 10));
+    // Taille maximale du cache (1 Gio par défaut), durée de vie sans consultation (0 : illimitée) et âge à partir duquel
+    // une entrée est réencodée en mode dense ; une passe de fond toutes les webpagesaver.periodeStockage ms
+    static GestionnaireStockage gestionnaire = new GestionnaireStockage(cacheDirectory, depot,
+            Long.getLong("webpagesaver.quota", 1L << 30),
+            TimeUnit.DAYS.toMillis(Long.getLong("webpagesaver.ttlJours", 0)),
+            TimeUnit.DAYS.toMillis(Long.getLong("webpagesaver.froidJours", 7)),
+            WebPageSaver::evictEntry,
+            mode -> contenu -> encodeWith(contenu, mode == ArbreBinaire.MODE_CONTEXTE ? "contexte" : "huffman"));
+    static long periodeStockageMillis = Long.getLong("webpagesaver.periodeStockage", 60000);
+    // Rafraîchissement conditionnel des pages sauvegardées, en moyenne toutes les webpagesaver.rafraichissementMinutes (1 jour par défaut, 0 : désactivé)
+    static Rafraichisseur rafraichisseur = new Rafraichisseur(new File(cacheDirectory, "validateurs.txt"),
+            TimeUnit.MINUTES.toMillis(Long.getLong("webpagesaver.rafraichissementMinutes", 24 * 60)));
+    // Ingestion par lots : téléchargements simultanés et délai minimal entre deux requêtes vers un même hôte
+    // Sauvegardes simultanées d'une même URL regroupées en une seule ; les fichiers d'une entrée du cache
+    // (un hôte) ne sont modifiés que sous son verrou en écriture, et lus sous son verrou en lecture
+    static VolUnique<Boolean> sauvegardes = new VolUnique<>();
+    static VerrousRayes verrous = new VerrousRayes(64);
+    static int parallelisme = Integer.getInteger("webpagesaver.parallelisme", 4);
+    static long delaiHoteMillis = Long.getLong("webpagesaver.delaiHote", 1000);
+    // Nombre de flux Huffman entrelacés par bloc (1 ou 4) : 4 accélère le décodage pour /view
+    static int fluxHuffman = Integer.getInteger("webpagesaver.flux", 4);
+    // Taille de l'échantillon (octets) sur lequel sont construits les codes Huffman des contenus plus gros ;
+    // 0 : fréquences exactes (une lecture de plus, codes optimaux). Avec webpagesaver.echantillon.plancher, tous les
+    // octets ont un code : une seule lecture garantie, au prix de quelques pour cent de compression
+    static int echantillonHuffman = Integer.getInteger("webpagesaver.echantillon", 0);
+    static boolean plancherEchantillon = Boolean.getBoolean("webpagesaver.echantillon.plancher");
+    // Codeur entropique ("huffman", "ans" ou "contexte" pour Huffman d'ordre 1), réglable par type de fichier avec webpagesaver.moteur.html, .css et .img
+    static String moteurParDefaut = System.getProperty("webpagesaver.moteur", "huffman");
     static boolean serverRunning = false;
     static HttpServer server;
+    static int port = Integer.getInteger("webpagesaver.port", 2024);
+    static Path socketPath = Paths.get(System.getProperty("webpagesaver.socket", new File(cacheDirectory, "webpagesaver.sock").getPath()));
+    static CanalControle canalControle = new CanalControle(socketPath);
+    // Temps maximal laissé au démon pour ouvrir son canal de contrôle
+    static long delaiDemarrageMillis = Long.getLong("webpagesaver.delaiDemarrage", 10000);
 
     public static void help() {
-        System.out.println("usage: webpagesaver {add,remove,list,view,start,stop,test}");
+        System.out.println("usage: webpagesaver {add,add-batch,remove,list,view,export,import,start,stop,test}");
+        System.out.println("       webpagesaver add-batch <fichier|->   (une URL par ligne, - pour l'entrée standard)");
+        System.out.println("       webpagesaver export <fichier|->      (tout le cache au format WARC, - pour la sortie standard)");
+        System.out.println("       webpagesaver import <fichier|->      (archive WARC produite par export, - pour l'entrée standard)");
+        System.out.println("       webpagesaver view <url> [version]    (1 pour la première sauvegarde, dernière par défaut)");
     }
 
     public static void main(String[] args) throws IOException {
@@ -29,59 +110,306 @@ public class WebPageSaver {
         }
 
         if (args.length == 2 && args[0].equals("add")) {
-            String url = args[1];
-            ensureServerRunning();
-            sendRequestToServer("/add?url=" + URLEncoder.encode(url, "UTF-8"));
+            runCommand(CanalControle.ADD, args[1]);
+        } else if (args.length == 2 && args[0].equals("add-batch")) {
+            addBatch(args[1]);
+        } else if (args.length == 2 && args[0].equals("export")) {
+            exportArchive(args[1]);
+        } else if (args.length == 2 && args[0].equals("import")) {
+            importArchive(args[1]);
         } else if (args.length == 2 && args[0].equals("remove")) {
-            String url = args[1];
-            ensureServerRunning();
-            sendRequestToServer("/remove?url=" + URLEncoder.encode(url, "UTF-8"));
+            runCommand(CanalControle.REMOVE, args[1]);
         } else if (args.length == 1 && args[0].equals("list")) {
-            ensureServerRunning();
-            sendRequestToServer("/list");
+            listPages();
         } else if (args.length == 2 && args[0].equals("view")) {
-            String url = args[1];
-            ensureServerRunning();
-            sendRequestToServer("/view?url=" + URLEncoder.encode(url, "UTF-8"));
+            runCommand(CanalControle.VIEW, args[1]);
+        } else if (args.length == 3 && args[0].equals("view")) {
+            runCommand(CanalControle.VIEW, args[1] + " " + args[2]);
         } else if (args.length == 1 && args[0].equals("start")) {
-            startServerInBackground();
+            startDaemon();
         } else if (args.length == 1 && args[0].equals("stop")) {
-            sendRequestToServer("/stop");
+            try (SocketChannel canal = CanalControle.connecter(socketPath)) {
+                printResponse(CanalControle.envoyer(canal, CanalControle.STOP, ""));
+            } catch (IOException e) {
+                System.out.println("Le serveur n'est pas en cours d'exécution.");
+            }
         } else if (args.length == 1 && args[0].equals("test")) {
-            sendRequestToServer("/test");
+            runCommand(CanalControle.PING, "");
         } else {
             help();
         }
     }
 
-    private static void startServerInBackground() {
-        new Thread(() -> {
+    // Démarre le serveur HTTP puis le canal de contrôle : le démon n'est joignable qu'une fois prêt
+    private static void startDaemon() throws IOException {
+        startServer();
+        canalControle.demarrer(WebPageSaver::handleCommand);
+    }
+
+    // Envoie une commande au démon par la socket Unix, en le lançant au besoin
+    private static void runCommand(byte opcode, String argument) throws IOException {
+        try (SocketChannel canal = ensureServerRunning()) {
+            printResponse(CanalControle.envoyer(canal, opcode, argument));
+        }
+    }
+
+    // Affiche toutes les pages sauvegardées, reçues par morceaux : chaque requête repart de la dernière URL reçue,
+    // tant que le démon répond 206 (il en reste)
+    private static void listPages() throws IOException {
+        try (SocketChannel canal = ensureServerRunning()) {
+            String curseur = "";
+            while (true) {
+                Reponse reponse = CanalControle.envoyer(canal, CanalControle.LIST, curseur);
+                if (reponse.code != 206) {
+                    if (reponse.code != 200 || !reponse.message.isEmpty()) {
+                        printResponse(reponse);
+                    }
+                    return;
+                }
+                System.out.println(reponse.message);
+                curseur = reponse.message.substring(reponse.message.lastIndexOf('\n') + 1);
+            }
+        }
+    }
+
+    // Envoie un fichier d'URLs (ou l'entrée standard) en un seul POST /add-batch et affiche la progression. Le démon
+    // répond pendant la lecture du corps : HttpURLConnection ne lirait la réponse qu'après l'envoi de tout le corps, et
+    // les deux côtés finiraient bloqués en écriture. Le corps est donc envoyé par un autre thread, sur une socket.
+    private static void addBatch(String source) throws IOException {
+        ensureServerRunning().close();
+
+        try (InputStream in = source.equals("-") ? System.in : new FileInputStream(source);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            AtomicReference<IOException> erreurEnvoi = new AtomicReference<>();
+            Thread envoi = new Thread(() -> {
+                try {
+                    out.write(("POST /add-batch HTTP/1.1\r\nHost: 127.0.0.1:" + port + "\r\n"
+                            + "Content-Type: text/plain; charset=UTF-8\r\nTransfer-Encoding: chunked\r\n"
+                            + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    byte[] tampon = new byte[64 * 1024];
+                    int lus;
+                    while ((lus = in.read(tampon)) > 0) {
+                        out.write((Integer.toHexString(lus) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                        out.write(tampon, 0, lus);
+                        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                    }
+                    out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } catch (IOException e) {
+                    erreurEnvoi.set(e);
+                }
+            }, "add-batch-envoi");
+            envoi.setDaemon(true);
+            envoi.start();
+
+            InputStream reponse = new BufferedInputStream(socket.getInputStream());
+            String statut = lireLigne(reponse);
+            boolean parMorceaux = false;
+            String entete;
+            while (!(entete = lireLigne(reponse)).isEmpty()) {
+                parMorceaux |= entete.toLowerCase().startsWith("transfer-encoding:") && entete.toLowerCase().contains("chunked");
+            }
+            String[] parties = statut.split(" ");
+            if (parties.length < 2 || !parties[1].equals("200") || !parMorceaux) {
+                System.out.println("Erreur: " + (parties.length < 2 ? statut : parties[1]));
+                return;
+            }
             try {
-                startServer();
+                lireMorceaux(reponse, System.out);
             } catch (IOException e) {
-                e.printStackTrace();
+                System.out.println("Erreur: " + (erreurEnvoi.get() != null ? erreurEnvoi.get() : e).getMessage());
             }
-        }).start();
+        }
     }
 
-    private static void ensureServerRunning() throws IOException {
-        if (!isServerRunning()) {
-            startServerInBackground();
+    // Recopie au fil de l'eau un corps HTTP envoyé par morceaux (Transfer-Encoding: chunked)
+    private static void lireMorceaux(InputStream in, OutputStream sortie) throws IOException {
+        while (true) {
+            String taille = lireLigne(in);
+            int extension = taille.indexOf(';');
+            int longueur;
             try {
-                // Attendre quelques secondes pour que le serveur démarre
-                Thread.sleep(2000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                longueur = Integer.parseInt((extension < 0 ? taille : taille.substring(0, extension)).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Réponse HTTP invalide : " + taille);
+            }
+            if (longueur == 0) {
+                sortie.flush();
+                return;
+            }
+            byte[] morceau = in.readNBytes(longueur);
+            if (morceau.length < longueur) {
+                throw new EOFException("Réponse HTTP tronquée");
+            }
+            sortie.write(morceau);
+            sortie.flush();
+            lireLigne(in);
+        }
+    }
+
+    // Une ligne d'en-tête HTTP (ASCII, terminée par CRLF)
+    private static String lireLigne(InputStream in) throws IOException {
+        StringBuilder ligne = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Réponse HTTP tronquée");
+            }
+            if (c != '\r') {
+                ligne.append((char) c);
             }
         }
+        return ligne.toString();
     }
 
-    private static boolean isServerRunning() {
+    // Export du cache : vers un fichier, le démon l'écrit lui-même (copie de fichier à fichier), sur demande reçue par le
+    // canal de contrôle, que seul l'utilisateur du démon peut joindre ; - : l'archive arrive par HTTP
+    private static void exportArchive(String cible) throws IOException {
+        if (!cible.equals("-")) {
+            runCommand(CanalControle.EXPORT, new File(cible).getAbsolutePath());
+            return;
+        }
+        ensureServerRunning().close();
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/export").openConnection();
+        if (connection.getResponseCode() != 200) {
+            printError(connection);
+        } else {
+            try (InputStream in = connection.getInputStream()) {
+                in.transferTo(System.out);
+            }
+            System.out.flush();
+        }
+        connection.disconnect();
+    }
+
+    // Import d'une archive : un fichier est lu directement par le démon (demande par le canal de contrôle) ;
+    // - : l'entrée standard est envoyée en POST
+    private static void importArchive(String source) throws IOException {
+        if (!source.equals("-")) {
+            runCommand(CanalControle.IMPORT, new File(source).getAbsolutePath());
+            return;
+        }
+        ensureServerRunning().close();
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/import").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(64 * 1024);
+        connection.setRequestProperty("Content-Type", "application/warc");
+        try (OutputStream out = connection.getOutputStream()) {
+            System.in.transferTo(out);
+        }
+        if (connection.getResponseCode() == 200) {
+            printBody(connection);
+        } else {
+            printError(connection);
+        }
+        connection.disconnect();
+    }
+
+    private static void printError(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getErrorStream()) {
+            String message = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+            System.out.println("Erreur: " + connection.getResponseCode() + " " + message);
+        }
+    }
+
+    private static void printBody(HttpURLConnection connection) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    private static void printResponse(Reponse reponse) {
+        if (reponse.code == 200) {
+            System.out.println(reponse.message);
+        } else {
+            System.out.println("Erreur: " + reponse.code + " " + reponse.message);
+        }
+    }
+
+    private static SocketChannel ensureServerRunning() throws IOException {
         try {
-            sendRequestToServer("/test");
-            return true;
+            return CanalControle.connecter(socketPath);
         } catch (IOException e) {
-            return false;
+            launchDaemonProcess();
+            // Le démon ouvre sa socket une fois prêt : on attend sa réponse au lieu d'un délai fixe
+            return CanalControle.attendrePret(socketPath, delaiDemarrageMillis);
+        }
+    }
+
+    // Lance le démon dans un processus séparé, qui survit à la fin de la commande
+    private static void launchDaemonProcess() throws IOException {
+        List<String> commande = new ArrayList<>();
+        commande.add(ProcessHandle.current().info().command().orElse("java"));
+        // Les options webpagesaver.* sont transmises au démon
+        for (String nom : System.getProperties().stringPropertyNames()) {
+            if (nom.startsWith("webpagesaver.")) {
+                commande.add("-D" + nom + "=" + System.getProperty(nom));
+            }
+        }
+        commande.add("-cp");
+        commande.add(System.getProperty("java.class.path"));
+        commande.add(WebPageSaver.class.getName());
+        commande.add("start");
+
+        new ProcessBuilder(commande)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(cacheDirectory, "serveur.log")))
+                .start();
+    }
+
+    // Exécute une commande reçue sur le canal de contrôle
+    private static Reponse handleCommand(byte opcode, String argument) throws IOException {
+        gestionnaire.debutRequete();
+        try {
+            return executeCommand(opcode, argument);
+        } finally {
+            gestionnaire.finRequete();
+        }
+    }
+
+    private static Reponse executeCommand(byte opcode, String argument) throws IOException {
+        switch (opcode) {
+            case CanalControle.PING:
+                return new Reponse(200, serverRunning ? "OK" : "X");
+            case CanalControle.ADD:
+                return addPage(argument);
+            case CanalControle.REMOVE:
+                return removePage(argument);
+            case CanalControle.LIST:
+                return listPages(argument);
+            case CanalControle.VIEW:
+                // Argument : l'URL, suivie éventuellement d'un numéro de version
+                String[] parties = argument.split(" ");
+                Reponse reponse = viewPage(parties[0], parties.length > 1 ? parseVersion(parties[1]) : 0);
+                if (reponse.code == 200) {
+                    openFileInBrowser("viewPage.html");
+                }
+                return reponse;
+            case CanalControle.EXPORT:
+                try (FileChannel sortie = FileChannel.open(Paths.get(argument), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    return exportArchive(sortie);
+                } catch (IOException e) {
+                    return new Reponse(500, "Échec de l'export : " + e);
+                }
+            case CanalControle.IMPORT:
+                try (FileChannel source = FileChannel.open(Paths.get(argument), StandardOpenOption.READ)) {
+                    return importArchive(source);
+                } catch (IOException e) {
+                    return new Reponse(500, "Échec de l'import : " + e);
+                }
+            case CanalControle.STOP:
+                stopServer();
+                return new Reponse(200, "Serveur arrêté.");
+            default:
+                return new Reponse(400, "Commande inconnue: " + opcode);
         }
     }
     
@@ -98,7 +426,7 @@ public class WebPageSaver {
 
     private static void sendRequestToServer(String path) throws IOException {
         try {
-            URL url = new URL("http://127.0.0.1:2024" + path);
+            URL url = new URL("http://127.0.0.1:" + port + path);
             HttpURLConnection connection = (HttpURLConnection) url.openConnection();
             connection.setRequestMethod("GET");
             connection.connect();
@@ -120,7 +448,7 @@ public class WebPageSaver {
         }
     }
 
-	private static void createViewPage(String fileNameHTML, String fileNameCSS, String fileNameImg) {
+	private static void createViewPage(String fileNameHTML, String fileNameCSS, String fileNameImg, int version) {
 		try {
 			// Vérifiez que les fichiers existent avant de les lire
 			File htmlFile = new File(fileNameHTML);
@@ -134,31 +462,22 @@ public class WebPageSaver {
 				return;
 			}
 
-			byte[] compressedHtml = Files.readAllBytes(Paths.get(fileNameHTML));
-			ArbreBinaire huffmanTree = new ArbreBinaire("");
-			String decompressedHtml = huffmanTree.decode(compressedHtml);
-
-			byte[] compressedCss = Files.readAllBytes(Paths.get(fileNameCSS));
-			String decompressedCss = huffmanTree.decode(compressedCss);
-
-			byte[] compressedImg = Files.readAllBytes(Paths.get(fileNameImg));
-			String decompressedImg = huffmanTree.decode(compressedImg);
-
-			// Créer la page HTML de vue avec le contenu décompressé
-			try (FileWriter fileWriter = new FileWriter(new File(cacheDirectory, "viewPage.html"))) {
-				fileWriter.write("<html>");
-				fileWriter.write("<head>");
-				fileWriter.write("<title>Page Vue</title>");
-				fileWriter.write("<style>");
-				fileWriter.write(decompressedCss);
-				fileWriter.write("</style>");
-				fileWriter.write("</head>");
-				fileWriter.write("<body>");
-				fileWriter.write(decompressedHtml);
-				fileWriter.write("<img src=\"" + decompressedImg + "\">");
-				fileWriter.write("</body>");
-				fileWriter.write("</html>");
+			ByteBuffer decompressedHtml = decompressBuffer(fileNameHTML, version);
+			ByteBuffer decompressedCss = decompressBuffer(fileNameCSS, version);
+			ByteBuffer decompressedImg = decompressBuffer(fileNameImg, version);
 
+			// Créer la page HTML de vue : les contenus décompressés sont écrits tels quels, sans repasser par une String
+			ByteBuffer[] morceaux = {
+				texte("<html><head><title>Page Vue</title><style>"),
+				decompressedCss,
+				texte("</style></head><body>"),
+				decompressedHtml,
+				texte("<img src=\""),
+				decompressedImg,
+				texte("\"></body></html>")
+			};
+			try {
+				writeFileAtomically(new File(cacheDirectory, "viewPage.html").toPath(), morceaux);
 				System.out.println("Page de vue créée avec succès : viewPage.html");
 			} catch (IOException e) {
 				System.out.println("Erreur lors de la création de la page de vue : " + e.getMessage());
@@ -175,32 +494,47 @@ public class WebPageSaver {
         try {
             File htmlFile = new File(cacheDirectory, fileName);
             Desktop.getDesktop().browse(htmlFile.toURI());
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | UnsupportedOperationException e) {
+            // Pas de navigateur disponible (démon sans affichage)
+            System.out.println("Impossible d'ouvrir " + fileName + " : " + e.getMessage());
         }
     }
 
-    // Démarre le serveur HTTP sur le port 2024 s'il n'est pas déjà en cours d'exécution
+    // Démarre le serveur HTTP sur le port configuré (2024 par défaut) s'il n'est pas déjà en cours d'exécution
     private static void startServer() throws IOException {
         if (serverRunning) {
             System.out.println("Le serveur est déjà en cours d'exécution.");
             return;
         }
 
-        server = HttpServer.create(new InetSocketAddress(2024), 0);
-        server.createContext("/add", new AddHandler());
-        server.createContext("/remove", new RemoveHandler());
-        server.createContext("/list", new ListHandler());
-        server.createContext("/view", new ViewHandler());
+        registre.charger();
+        depot.charger();
+        gestionnaire.charger();
+        rafraichisseur.charger();
+        ordonnanceur = new OrdonnanceurHotes(parallelisme, delaiHoteMillis);
+        rafraichisseur.demarrer(registre.toutes(), ordonnanceur, registre::contient, WebPageSaver::saveWebPage);
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        // Un lot peut occuper son handler longtemps : les autres requêtes ne doivent pas l'attendre
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/add", new AddHandler()).getFilters().add(new SuiviRequetes());
+        server.createContext("/add-batch", new AddBatchHandler()).getFilters().add(new SuiviRequetes());
+        server.createContext("/remove", new RemoveHandler()).getFilters().add(new SuiviRequetes());
+        server.createContext("/list", new ListHandler()).getFilters().add(new SuiviRequetes());
+        server.createContext("/view", new ViewHandler()).getFilters().add(new SuiviRequetes());
+        server.createContext("/export", new ExportHandler()).getFilters().add(new SuiviRequetes());
+        server.createContext("/import", new ImportHandler()).getFilters().add(new SuiviRequetes());
         server.createContext("/stop", new StopHandler(server));
         server.createContext("/test", new TestHandler());
         server.start();
+        gestionnaire.demarrer(periodeStockageMillis);
         serverRunning = true;
-        System.out.println("Serveur démarré sur le port 2024.");
+        System.out.println("Serveur démarré sur le port " + port + ".");
     }
 
     // Arrête le serveur HTTP s'il est en cours d'exécution
     private static void stopServer() {
+        stopServices();
         if (server != null) {
             server.stop(0);
             serverRunning = false;
@@ -210,9 +544,22 @@ public class WebPageSaver {
         }
     }
 
+    // Arrête le canal de contrôle et les téléchargements en attente
+    private static void stopServices() {
+        canalControle.arreter();
+        gestionnaire.arreter();
+        rafraichisseur.arreter();
+        if (ordonnanceur != null) {
+            ordonnanceur.arreter();
+        }
+        // Les lignes encore en file sont écrites avant l'arrêt
+        registre.fermer();
+        depot.fermer();
+    }
+
     // Teste le serveur local en envoyant une requête HTTP GET à l'URL "http://127.0.0.1:2024/test".
     private static void testServer() throws IOException {
-        URL url = new URL("http://127.0.0.1:2024/test");
+        URL url = new URL("http://127.0.0.1:" + port + "/test");
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("GET");
         connection.connect();
@@ -228,42 +575,208 @@ public class WebPageSaver {
         connection.disconnect();
     }
 
-	private static void saveWebPage(String urlString) {
-		HtmlExtractor(urlString);
-		CssExtractor(urlString);
+	// Les demandes simultanées de la même URL (add, add-batch, rafraîchissement) attendent la sauvegarde déjà en cours.
+	// Les sauvegardes faites par l'ordonnanceur hors de toute requête comptent aussi comme requêtes en cours : la tâche
+	// de fond du gestionnaire de stockage attend leur fin
+	private static boolean saveWebPage(String urlString) {
+		gestionnaire.debutRequete();
+		try {
+			return sauvegardes.executer(urlString, () -> doSaveWebPage(urlString));
+		} catch (IOException e) {
+			return false;
+		} finally {
+			gestionnaire.finRequete();
+		}
+	}
 
+	private static boolean doSaveWebPage(String urlString) {
 		// Compresser les fichiers HTML, CSS et images
+		Lock verrou = null;
 		try {
-			String htmlFileName = getFileNameFromURLHTML(new URL(urlString));
-			String cssFileName = getFileNameFromURLCSS(new URL(urlString));
-			String imgFileName = getFileNameFromURLImg(new URL(urlString));
+			URL url = new URL(urlString);
+			String htmlFileName = getFileNameFromURLHTML(url);
+			String cssFileName = getFileNameFromURLCSS(url);
+			String imgFileName = getFileNameFromURLImg(url);
+
+			// Requête conditionnelle si le cache contient cette page : un 304 évite analyse et compression. Les pages d'un
+			// hôte partagent leurs fichiers : il faut que la dernière version sauvegardée vienne de cette URL
+			List<Versions.Version> historique = versions.lister(Paths.get(htmlFileName));
+			boolean enCache = registre.contient(urlString) && !historique.isEmpty()
+					&& urlString.equals(historique.get(historique.size() - 1).url);
+			Telechargement telechargement = downloadPage(url, enCache ? rafraichisseur.validateurs(urlString) : null);
+			if (telechargement.contenu == null) {
+				System.out.println("Page inchangée: " + urlString);
+				rafraichisseur.planifier(urlString);
+				return true;
+			}
+			// Le téléchargement se fait sans verrou ; l'écriture des fichiers de l'entrée est exclusive
+			verrou = verrous.verrou(cacheKey(url)).writeLock();
+			verrou.lock();
+			if (!HtmlExtractor(url, telechargement.contenu) || !CssExtractor(url, telechargement.contenu)) {
+				return false;
+			}
 
 			System.out.println("Compression du fichier HTML: " + htmlFileName);
-			ArbreBinaire huffmanTree = new ArbreBinaire(htmlFileName);
-			byte[] compressedHtml = huffmanTree.encode(htmlFileName);
-			Files.write(Paths.get(htmlFileName), compressedHtml);
+			compressFile(htmlFileName, "html", urlString);
 			System.out.println("Fichier HTML compressé avec succès.");
 
 			System.out.println("Compression du fichier CSS: " + cssFileName);
-			huffmanTree = new ArbreBinaire(cssFileName);
-			byte[] compressedCss = huffmanTree.encode(cssFileName);
-			Files.write(Paths.get(cssFileName), compressedCss);
+			compressFile(cssFileName, "css", urlString);
 			System.out.println("Fichier CSS compressé avec succès.");
 
 			System.out.println("Compression du fichier image: " + imgFileName);
-			huffmanTree = new ArbreBinaire(imgFileName);
-			byte[] compressedImg = huffmanTree.encode(imgFileName);
-			Files.write(Paths.get(imgFileName), compressedImg);
+			compressFile(imgFileName, "img", urlString);
 			System.out.println("Fichier image compressé avec succès.");
 			verifyFilesExist(htmlFileName, cssFileName, imgFileName);
 
+			rafraichisseur.enregistrer(urlString, telechargement.validateurs);
+			registre.ajouter(urlString);
+			gestionnaire.noterAcces(cacheKey(url));
+		} catch (MalformedURLException e) {
+			System.out.println("url invalide: " + urlString);
+			return false;
 		} catch (IOException e) {
+			System.out.println("erreur avec: " + urlString);
 			e.printStackTrace();
+			return false;
+		} finally {
+			if (verrou != null) {
+				verrou.unlock();
+			}
+		}
+
+		rafraichisseur.planifier(urlString);
+		return true;
+	}
+
+
+	// Enregistre le contenu brut téléchargé comme nouvelle version d'un fichier du cache, avec le codeur choisi pour ce type de fichier.
+	// Le fichier brut est projeté en mémoire et encodé dans un buffer direct : le contenu ne passe pas par le tas Java
+	private static void compressFile(String fileName, String type, String url) throws IOException {
+		Path brut = Paths.get(rawFileName(fileName));
+		try (FileChannel canal = FileChannel.open(brut, StandardOpenOption.READ)) {
+			MappedByteBuffer contenu = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+			versions.enregistrer(Paths.get(fileName), contenu, compresseur(fileName, type, contenu), url);
+		}
+		Files.delete(brut);
+	}
+
+	// Codeur des morceaux d'un fichier. Avec Huffman, les codes sont choisis au premier morceau sur l'histogramme du fichier
+	// entier, éventuellement échantillonné (une version enregistrée en delta n'encode aucun morceau) : les morceaux font
+	// référence à la table de codes de l'hôte, ou portent chacun la table construite sur ce fichier
+	private static Versions.Compresseur compresseur(String fileName, String type, ByteBuffer contenu) {
+		String moteur = System.getProperty("webpagesaver.moteur." + type, moteurParDefaut);
+		if (!moteur.equals("huffman")) {
+			return source -> encode(source, type);
+		}
+		String nom = Paths.get(fileName).getFileName().toString();
+		String cle = nom.substring(0, nom.length() - ".txt".length());
+		TablesHote.Table[] choisie = new TablesHote.Table[1];
+		ArbreBinaire[] arbre = new ArbreBinaire[1];
+		return source -> {
+			if (choisie[0] == null && arbre[0] == null) {
+				int[] frequences;
+				if (echantillonHuffman > 0 && contenu.remaining() > echantillonHuffman) {
+					int[] estimees = ArbreBinaire.frequencesEchantillon(contenu, echantillonHuffman);
+					frequences = plancherEchantillon ? ArbreBinaire.plancher(estimees) : estimees;
+				} else {
+					frequences = ArbreBinaire.frequences(contenu);
+				}
+				if (capaciteTablesHote > 0) {
+					choisie[0] = tablesHote.choisir(cle, frequences);
+				} else {
+					arbre[0] = new ArbreBinaire(frequences);
+				}
+			}
+			ByteBuffer compresse = ByteBuffer.allocateDirect(ArbreBinaire.majorant(source.remaining(), fluxHuffman));
+			try {
+				if (choisie[0] != null) {
+					ArbreBinaire.encodeOctets(choisie[0].table, choisie[0].reference, source, compresse, fluxHuffman);
+				} else {
+					arbre[0].encodeOctets(source, compresse, fluxHuffman);
+				}
+			} catch (IllegalArgumentException e) {
+				// Octet absent de l'échantillon : ce morceau garde sa propre table, construite sur ses fréquences exactes
+				return encodeWith(source, moteur);
+			}
+			compresse.flip();
+			return compresse;
+		};
+	}
+
+	// Compresse un contenu complet dans un buffer direct, prêt à être écrit
+	private static ByteBuffer encode(ByteBuffer contenu, String type) {
+		return encodeWith(contenu, System.getProperty("webpagesaver.moteur." + type, moteurParDefaut));
+	}
+
+	private static ByteBuffer encodeWith(ByteBuffer contenu, String moteur) {
+		ByteBuffer compresse;
+		if (moteur.equals("contexte")) {
+			CodeurContexte codeur = new CodeurContexte(CodeurContexte.frequences(contenu));
+			compresse = ByteBuffer.allocateDirect(codeur.majorant(contenu.remaining()));
+			codeur.encodeOctets(contenu, compresse);
+		} else if (moteur.equals("ans")) {
+			CodeurANS codeur = new CodeurANS(ArbreBinaire.frequences(contenu));
+			compresse = ByteBuffer.allocateDirect(codeur.majorant(contenu.remaining()));
+			codeur.encodeOctets(contenu, compresse);
+		} else {
+			ArbreBinaire huffmanTree = new ArbreBinaire(ArbreBinaire.frequences(contenu));
+			compresse = ByteBuffer.allocateDirect(ArbreBinaire.majorant(contenu.remaining(), fluxHuffman));
+			huffmanTree.encodeOctets(contenu, compresse, fluxHuffman);
+		}
+		compresse.flip();
+		return compresse;
+	}
+
+	// Écriture dans un fichier temporaire puis renommage, pour ne jamais laisser un fichier à moitié écrit.
+	// Le fichier temporaire a un nom unique : deux écritures simultanées du même fichier ne se mélangent pas, la dernière renommée l'emporte.
+	// Le contenu est forcé sur le disque avant le renommage, et le répertoire après : un arrêt brutal laisse l'ancien fichier ou le nouveau, entier
+	static void writeFileAtomically(Path chemin, ByteBuffer... contenu) throws IOException {
+		Path temporaire = Files.createTempFile(chemin.toAbsolutePath().getParent(), chemin.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel sortie = FileChannel.open(temporaire, StandardOpenOption.WRITE)) {
+				long restant = 0;
+				for (ByteBuffer morceau : contenu) {
+					restant += morceau.remaining();
+				}
+				while (restant > 0) {
+					restant -= sortie.write(contenu);
+				}
+				sortie.force(true);
+			}
+			Files.move(temporaire, chemin, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			forcerRepertoire(chemin.toAbsolutePath().getParent());
+		} finally {
+			Files.deleteIfExists(temporaire);
+		}
+	}
+
+	// Force sur le disque les entrées d'un répertoire (création, renommage). Sans effet là où un répertoire ne s'ouvre pas (Windows)
+	static void forcerRepertoire(Path repertoire) throws IOException {
+		FileChannel canal;
+		try {
+			canal = FileChannel.open(repertoire, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try (FileChannel ouvert = canal) {
+			ouvert.force(true);
 		}
+	}
+
+	// Fichier où les extracteurs écrivent le contenu téléchargé, avant son enregistrement dans le cache
+	private static String rawFileName(String fileName) {
+		return fileName + ".brut";
+	}
 
-		appendToFile(urlString, FileToWrite);
+	private static ByteBuffer texte(String morceau) {
+		return ByteBuffer.wrap(morceau.getBytes(StandardCharsets.UTF_8));
 	}
 
+	// Décompresse une version d'un fichier du cache (0 pour la dernière) ; la dernière version clé est lue sans passer par le tas
+	private static ByteBuffer decompressBuffer(String fileName, int version) throws IOException {
+		return versions.lire(Paths.get(fileName), version);
+	}
 
     private static void displaySavedUrls() {
         try (BufferedReader reader = new BufferedReader(new FileReader(FileToWrite))) {
@@ -313,15 +826,42 @@ public class WebPageSaver {
         }
     }
 
-    public static void HtmlExtractor(String urlString) {
-        try {
-            URL url = new URL(urlString);
-            URLConnection conn = url.openConnection();
-            conn.connect();
+    // Résultat d'un téléchargement : le contenu (null si l'origine a répondu 304) et les validateurs de cette version
+    static class Telechargement {
+        final String contenu;
+        final Rafraichisseur.Validateurs validateurs;
 
+        Telechargement(String contenu, Rafraichisseur.Validateurs validateurs) {
+            this.contenu = contenu;
+            this.validateurs = validateurs;
+        }
+    }
+
+    // Télécharge une page une seule fois ; avec des validateurs, la requête est conditionnelle
+    static Telechargement downloadPage(URL url, Rafraichisseur.Validateurs validateurs) throws IOException {
+        URLConnection conn = url.openConnection();
+        if (validateurs != null && validateurs.etag != null) {
+            conn.setRequestProperty("If-None-Match", validateurs.etag);
+        }
+        if (validateurs != null && validateurs.derniereModification != null) {
+            conn.setRequestProperty("If-Modified-Since", validateurs.derniereModification);
+        }
+        conn.connect();
+        if (conn instanceof HttpURLConnection && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            ((HttpURLConnection) conn).disconnect();
+            return new Telechargement(null, validateurs);
+        }
+        try (InputStream in = conn.getInputStream()) {
+            String contenu = new String(in.readAllBytes());
+            return new Telechargement(contenu, new Rafraichisseur.Validateurs(conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified")));
+        }
+    }
+
+    public static boolean HtmlExtractor(URL url, String contenu) {
+        try {
             String fileNameHTML = getFileNameFromURLHTML(url);
-            FileWriter fileWriterHTML = new FileWriter(fileNameHTML);
-            BufferedReader readerHTML = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+            FileWriter fileWriterHTML = new FileWriter(rawFileName(fileNameHTML));
+            BufferedReader readerHTML = new BufferedReader(new StringReader(contenu));
             String inputLine;
             StringBuilder htmlContent = new StringBuilder();
 
@@ -333,26 +873,21 @@ public class WebPageSaver {
             readerHTML.close();
             fileWriterHTML.close();
             System.out.println("Page HTML sauvegardée: " + fileNameHTML);
-        } catch (MalformedURLException e) {
-            System.out.println("[HTML] url invalide: " + urlString);
-            e.printStackTrace();
+            return true;
         } catch (IOException e) {
-            System.out.println("[HTML] erreur avec: " + urlString);
+            System.out.println("[HTML] erreur avec: " + url);
             e.printStackTrace();
         }
+        return false;
     }
 
-    public static void CssExtractor(String urlString) {
+    public static boolean CssExtractor(URL url, String contenu) {
         try {
-            URL url = new URL(urlString);
-            URLConnection conn = url.openConnection();
-            conn.connect();
-
             String fileNameCSS = getFileNameFromURLCSS(url);
             String fileNameImg = getFileNameFromURLImg(url);
-            BufferedReader readerCSS = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            FileWriter fileWriterCSS = new FileWriter(fileNameCSS);
-            FileWriter fileWriterImg = new FileWriter(fileNameImg);
+            BufferedReader readerCSS = new BufferedReader(new StringReader(contenu));
+            FileWriter fileWriterCSS = new FileWriter(rawFileName(fileNameCSS));
+            FileWriter fileWriterImg = new FileWriter(rawFileName(fileNameImg));
             StringBuilder CSSContent = new StringBuilder();
             StringBuilder ImgContent = new StringBuilder();
             String inputLine;
@@ -372,13 +907,12 @@ public class WebPageSaver {
             fileWriterCSS.close();
             fileWriterImg.close();
             System.out.println("page CSS sauvegardée: " + fileNameCSS + " et liens des images sauvegardés :  " + fileNameImg);
-        } catch (MalformedURLException e) {
-            System.out.println("[CSS] URL invalide: " + urlString);
-            e.printStackTrace();
+            return true;
         } catch (IOException e) {
-            System.out.println("[CSS] Erreur avec: " + urlString);
+            System.out.println("[CSS] Erreur avec: " + url);
             e.printStackTrace();
         }
+        return false;
     }
 
     public static String extractImageLinks(String input) {
@@ -405,70 +939,703 @@ public class WebPageSaver {
         return content.toString();
     }
 
+    // Logique des commandes, partagée entre le serveur HTTP et le canal de contrôle
+
+    private static Reponse addPage(String url) {
+        if (url == null || url.isEmpty()) {
+            return new Reponse(400, "URL manquante");
+        }
+        if (!saveWebPage(url)) {
+            return new Reponse(500, "Échec de la sauvegarde: " + url);
+        }
+        return new Reponse(200, "Page ajoutée: " + url);
+    }
+
+    private static Reponse removePage(String url) throws IOException {
+        if (url == null || url.isEmpty()) {
+            return new Reponse(400, "URL manquante");
+        }
+        if (!registre.contient(url)) {
+            return new Reponse(404, "Page inconnue: " + url);
+        }
+        removeWebPage(url);
+        return new Reponse(200, "Page supprimée: " + url);
+    }
+
+    // Retire l'URL du registre. Les fichiers du cache sont partagés par les pages d'un même hôte :
+    // ils ne sont supprimés, et leurs morceaux libérés, qu'avec la dernière de ces pages
+    private static void removeWebPage(String url) throws IOException {
+        System.out.println("Suppression de la page " + url);
+        String entree = cacheKey(new URL(url));
+        Lock verrou = verrous.verrou(entree).writeLock();
+        verrou.lock();
+        try {
+            registre.retirer(url);
+            rafraichisseur.oublier(url);
+            for (String autre : registre.toutes()) {
+                if (entree.equals(cacheKey(autre))) {
+                    return;
+                }
+            }
+            deleteCacheFiles(entree);
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    // Supprime une entrée du cache et toutes les URLs du registre qui la partagent (éviction)
+    private static long evictEntry(String entree) throws IOException {
+        Lock verrou = verrous.verrou(entree).writeLock();
+        verrou.lock();
+        try {
+            for (String url : new ArrayList<>(registre.toutes())) {
+                if (entree.equals(cacheKey(url))) {
+                    registre.retirer(url);
+                    rafraichisseur.oublier(url);
+                }
+            }
+            return deleteCacheFiles(entree);
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    // Supprime les fichiers d'une entrée et leur historique, en libérant leurs morceaux ; renvoie le nombre d'octets libérés
+    private static long deleteCacheFiles(String entree) throws IOException {
+        long liberes = 0;
+        for (String prefixe : new String[]{"HTML", "CSS", "IMG"}) {
+            liberes += versions.supprimer(new File(cacheDirectory, prefixe + entree + ".txt").toPath());
+        }
+        gestionnaire.oublier(entree);
+        return liberes;
+    }
+
+    // Fichiers du cache acceptés à l'import : fichiers des entrées, historiques, morceaux et tables de codes (jamais ailleurs que dans le cache)
+    private static final Pattern CHEMIN_ARCHIVE = Pattern.compile(
+            "(HTML|CSS|IMG)[^/.][^/]*\\.txt|versions/[^/.][^/]*/[^/.][^/]*|morceaux/[0-9a-f]{2}/[0-9a-f]{64}|tables/[0-9a-f]{32}");
+
+    // Écrit tout le cache au format WARC (voir ArchiveWarc). Chaque entrée est exportée sous son verrou en lecture,
+    // avec les morceaux de ses versions clés qui ne sont pas encore dans l'archive : une entrée est toujours complète
+    private static Reponse exportArchive(WritableByteChannel sortie) throws IOException {
+        Map<String, List<String>> parEntree = new TreeMap<>();
+        for (String url : registre.toutes()) {
+            String entree = cacheKey(url);
+            if (!entree.isEmpty()) {
+                parEntree.computeIfAbsent(entree, cle -> new ArrayList<>()).add(url);
+            }
+        }
+
+        ArchiveWarc.Ecrivain archive = new ArchiveWarc.Ecrivain(sortie);
+        Map<String, String> info = new LinkedHashMap<>();
+        info.put("software", "WebPageSaver");
+        info.put("format", "WARC File Format 1.1");
+        info.put("description", "Cache WebPageSaver : fichiers compressés copiés tels quels, sous " + ArchiveWarc.PREFIXE);
+        archive.info(info);
+
+        Set<String> morceauxExportes = new HashSet<>();
+        int fichiers = 0;
+        gestionnaire.debutExport();
+        try {
+            for (Map.Entry<String, List<String>> entree : parEntree.entrySet()) {
+                Lock verrou = verrous.verrou(entree.getKey()).readLock();
+                verrou.lock();
+                try {
+                    for (String url : entree.getValue()) {
+                        Rafraichisseur.Validateurs validateurs = rafraichisseur.validateurs(url);
+                        Map<String, String> champs = new LinkedHashMap<>();
+                        champs.put("entree", entree.getKey());
+                        champs.put("etag", validateurs == null ? null : validateurs.etag);
+                        champs.put("last-modified", validateurs == null ? null : validateurs.derniereModification);
+                        archive.metadonnees(url, champs);
+                    }
+                    for (String prefixe : new String[]{"HTML", "CSS", "IMG"}) {
+                        Path fichier = new File(cacheDirectory, prefixe + entree.getKey() + ".txt").toPath();
+                        List<Path> cles = new ArrayList<>();
+                        if (Files.exists(fichier)) {
+                            archive.fichier(cheminArchive(fichier), fichier);
+                            fichiers++;
+                            cles.add(fichier);
+                        }
+                        File[] historique = new File(new File(cacheDirectory, "versions"), prefixe + entree.getKey()).listFiles();
+                        if (historique != null) {
+                            Arrays.sort(historique);
+                            for (File ancien : historique) {
+                                archive.fichier(cheminArchive(ancien.toPath()), ancien.toPath());
+                                fichiers++;
+                                if (ancien.getName().endsWith(".cle")) {
+                                    cles.add(ancien.toPath());
+                                }
+                            }
+                        }
+                        for (Path cle : cles) {
+                            ByteBuffer manifeste = ByteBuffer.wrap(Files.readAllBytes(cle));
+                            if (!DepotMorceaux.estManifeste(manifeste)) {
+                                continue;
+                            }
+                            for (String nom : DepotMorceaux.empreintes(manifeste)) {
+                                if (morceauxExportes.add(nom)) {
+                                    Path morceau = depot.fichierMorceau(nom).toPath();
+                                    byte[] reference;
+                                    // Un morceau qui fait référence à une table de codes partagée part avec elle : la référence est
+                                    // lue dans le canal copié, donc dans la version exportée du morceau
+                                    try (FileChannel canal = FileChannel.open(morceau, StandardOpenOption.READ)) {
+                                        archive.fichier(cheminArchive(morceau), canal);
+                                        reference = DepotMorceaux.referenceTable(canal);
+                                    }
+                                    fichiers++;
+                                    Path table = reference == null ? null : tablesHote.fichier(reference).toPath();
+                                    if (table != null && morceauxExportes.add(cheminArchive(table))) {
+                                        archive.fichier(cheminArchive(table), table);
+                                        fichiers++;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                } finally {
+                    verrou.unlock();
+                }
+            }
+        } finally {
+            gestionnaire.finExport();
+        }
+        return new Reponse(200, "Export terminé : " + registre.taille() + " pages, " + fichiers + " fichiers, "
+                + archive.octets() + " octets.");
+    }
+
+    // Lit une archive WARC dans le cache. Les entrées de l'archive remplacent celles du cache ; les morceaux déjà
+    // présents sont gardés, les nouveaux morceaux et tables ne le sont que si leur contenu correspond à leur nom.
+    // Les index (références des morceaux, registre, validateurs, accès) sont ensuite reconstruits
+    private static Reponse importArchive(ReadableByteChannel source) throws IOException {
+        List<Lock> tous = verrous.toutPrendre();
+        try {
+            ArchiveWarc.Lecteur archive = new ArchiveWarc.Lecteur(source);
+            Map<String, Rafraichisseur.Validateurs> pages = new LinkedHashMap<>();
+            Set<String> entrees = new HashSet<>();
+            Set<String> remplacees = new HashSet<>();
+            int fichiers = 0;
+            int ignores = 0;
+            long octets = 0;
+            long manquants = 0;
+            int nouvelles = 0;
+            List<String> morceauxImportes = new ArrayList<>();
+            int invalides = 0;
+            // Une archive tronquée ou invalide laisse le cache à moitié importé : les index sont reconstruits dans tous les cas
+            try {
+                ArchiveWarc.Enregistrement enregistrement;
+                while ((enregistrement = archive.suivant()) != null) {
+                    if (enregistrement.type.equals("metadata") && enregistrement.uri != null) {
+                        Map<String, String> champs = archive.champs();
+                        pages.put(enregistrement.uri, new Rafraichisseur.Validateurs(champs.get("etag"), champs.get("last-modified")));
+                        String entree = cacheKey(enregistrement.uri);
+                        if (!entree.isEmpty()) {
+                            entrees.add(entree);
+                        }
+                        continue;
+                    }
+                    if (!enregistrement.type.equals("resource") || enregistrement.uri == null
+                            || !enregistrement.uri.startsWith(ArchiveWarc.PREFIXE)) {
+                        archive.sauter();
+                        continue;
+                    }
+                    String chemin = enregistrement.uri.substring(ArchiveWarc.PREFIXE.length());
+                    if (!CHEMIN_ARCHIVE.matcher(chemin).matches()) {
+                        System.out.println("Fichier ignoré à l'import : " + chemin);
+                        archive.sauter();
+                        ignores++;
+                        continue;
+                    }
+                    Path cible = cacheDirectory.toPath().resolve(chemin);
+                    if (chemin.startsWith("morceaux/") || chemin.startsWith("tables/")) {
+                        // Adressé par son contenu : un morceau ou une table déjà présents sont identiques
+                        if (Files.exists(cible)) {
+                            archive.sauter();
+                            continue;
+                        }
+                    } else {
+                        // Le premier fichier d'une entrée remplace la version clé et l'historique du cache
+                        String fichierCache = chemin.startsWith("versions/") ? chemin.split("/")[1] : chemin.substring(0, chemin.length() - 4);
+                        if (remplacees.add(fichierCache)) {
+                            effacerFichierCache(fichierCache);
+                        }
+                    }
+                    Files.createDirectories(cible.getParent());
+                    octets += archive.copier(cible);
+                    fichiers++;
+                    // Un fichier adressé par son contenu n'est gardé que s'il y correspond (les morceaux sont vérifiés après
+                    // la boucle : leur table de codes les suit dans l'archive)
+                    if (chemin.startsWith("tables/") && !tablesHote.verifier(cible)) {
+                        System.out.println("Table de codes invalide à l'import : " + chemin);
+                        Files.delete(cible);
+                        invalides++;
+                    } else if (chemin.startsWith("morceaux/")) {
+                        morceauxImportes.add(cible.getFileName().toString());
+                    }
+                }
+            } finally {
+                for (String nom : morceauxImportes) {
+                    if (!depot.verifier(nom)) {
+                        System.out.println("Morceau invalide à l'import : " + nom);
+                        Files.deleteIfExists(depot.fichierMorceau(nom).toPath());
+                        invalides++;
+                    }
+                }
+
+                // Les manifestes sont relus en parallèle pour recompter les références des morceaux
+                List<Path> manifestes = new ArrayList<>();
+                try (Stream<Path> chemins = Files.list(cacheDirectory.toPath())) {
+                    chemins.filter(chemin -> chemin.getFileName().toString().matches("(HTML|CSS|IMG).*\\.txt")).forEach(manifestes::add);
+                }
+                Path historiques = new File(cacheDirectory, "versions").toPath();
+                if (Files.exists(historiques)) {
+                    try (Stream<Path> chemins = Files.walk(historiques, 2)) {
+                        chemins.filter(chemin -> chemin.getFileName().toString().endsWith(".cle")).forEach(manifestes::add);
+                    }
+                }
+                manquants = depot.reconstruire(manifestes);
+
+                // Seules les pages dont l'entrée est arrivée dans le cache sont enregistrées
+                pages.keySet().removeIf(url -> !new File(cacheDirectory, "HTML" + cacheKey(url) + ".txt").exists());
+                entrees.removeIf(entree -> !new File(cacheDirectory, "HTML" + entree + ".txt").exists());
+                nouvelles = registre.ajouterTous(pages.keySet());
+                for (Map.Entry<String, Rafraichisseur.Validateurs> page : pages.entrySet()) {
+                    rafraichisseur.enregistrer(page.getKey(), page.getValue());
+                    rafraichisseur.planifier(page.getKey());
+                }
+                for (String entree : entrees) {
+                    gestionnaire.noterAcces(entree);
+                }
+            }
+            return new Reponse(200, "Import terminé : " + pages.size() + " pages (" + nouvelles + " nouvelles), " + fichiers
+                    + " fichiers, " + octets + " octets" + (ignores > 0 ? ", " + ignores + " fichiers ignorés" : "")
+                    + (invalides > 0 ? ", " + invalides + " fichiers invalides supprimés" : "")
+                    + (manquants > 0 ? ", " + manquants + " morceaux manquants" : "") + ".");
+        } finally {
+            VerrousRayes.toutRendre(tous);
+        }
+    }
+
+    // Supprime un fichier du cache et son historique, sans toucher aux morceaux (les références sont recomptées après l'import)
+    private static void effacerFichierCache(String nom) throws IOException {
+        Files.deleteIfExists(new File(cacheDirectory, nom + ".txt").toPath());
+        File historique = new File(new File(cacheDirectory, "versions"), nom);
+        File[] anciens = historique.listFiles();
+        for (File ancien : anciens == null ? new File[0] : anciens) {
+            Files.delete(ancien.toPath());
+        }
+        Files.deleteIfExists(historique.toPath());
+    }
+
+    // Chemin d'un fichier du cache dans l'archive : relatif au cache, séparé par des /
+    private static String cheminArchive(Path fichier) {
+        return cacheDirectory.toPath().toAbsolutePath().relativize(fichier.toAbsolutePath()).toString().replace(File.separatorChar, '/');
+    }
+
+    // Entrée du cache d'une URL : son hôte, sans www (les fichiers HTML<entrée>.txt, CSS<entrée>.txt et IMG<entrée>.txt)
+    private static String cacheKey(URL url) {
+        String host = url.getHost();
+        return host.startsWith("www.") ? host.substring(4) : host;
+    }
+
+    private static String cacheKey(String url) {
+        try {
+            return cacheKey(new URL(url));
+        } catch (MalformedURLException e) {
+            // URL invalide dans le registre : elle ne partage aucun fichier
+            return "";
+        }
+    }
+
+    // Liste complète pour la commande list (une URL par ligne) ; /list est paginé
+    // Taille maximale d'un morceau de la liste envoyé par le canal de contrôle, dont les trames sont limitées à 1 Mio
+    private static final int TAILLE_PAGE_LISTE = 256 * 1024;
+
+    // Les URLs qui suivent le curseur (vide : depuis le début), une par ligne, dans la limite de TAILLE_PAGE_LISTE octets :
+    // 206 s'il en reste après, 200 pour les dernières
+    private static Reponse listPages(String curseur) {
+        if (curseur.isEmpty() && registre.taille() == 0) {
+            return new Reponse(200, "Aucune page sauvegardée.");
+        }
+        StringBuilder page = new StringBuilder();
+        int octets = 0;
+        for (String url : registre.apres(curseur.isEmpty() ? null : curseur)) {
+            int taille = url.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (octets > 0 && octets + taille > TAILLE_PAGE_LISTE) {
+                return new Reponse(206, page.toString());
+            }
+            if (octets > 0) {
+                page.append('\n');
+            }
+            page.append(url);
+            octets += taille;
+        }
+        return new Reponse(200, page.toString());
+    }
+
+    // Dernière version du HTML d'une entrée sauvegardée depuis chaque URL ; sous la clé null, la dernière version
+    // dont l'index ne dit pas l'URL (enregistrée avant qu'il ne la note), qui sert aux URLs sans version à elles
+    private static Map<String, Versions.Version> dernieresVersions(String entree) throws IOException {
+        Map<String, Versions.Version> dernieres = new HashMap<>();
+        for (Versions.Version version : versions.lister(new File(cacheDirectory, "HTML" + entree + ".txt").toPath())) {
+            dernieres.put(version.url, version);
+        }
+        return dernieres;
+    }
+
+    private static Reponse viewPage(String url, int version) throws IOException {
+        if (url == null || url.isEmpty()) {
+            return new Reponse(400, "URL manquante");
+        }
+        Lock verrou = verrous.verrou(cacheKey(new URL(url))).readLock();
+        verrou.lock();
+        try {
+            return viewPageLocked(url, version);
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    private static Reponse viewPageLocked(String url, int version) throws IOException {
+        if (version < 0 || version > versions.lister(Paths.get(getFileNameFromURLHTML(new URL(url)))).size()) {
+            return new Reponse(404, "Version inexistante: " + version);
+        }
+        String fileNameHTML = getFileNameFromURLHTML(new URL(url));
+        String fileNameCSS = getFileNameFromURLCSS(new URL(url));
+        String fileNameImg = getFileNameFromURLImg(new URL(url));
+
+        // Vérifier si les fichiers HTML, CSS et images existent déjà
+        File htmlFile = new File(fileNameHTML);
+        File cssFile = new File(fileNameCSS);
+        File imgFile = new File(fileNameImg);
+
+        if (htmlFile.exists() && cssFile.exists() && imgFile.exists()) {
+            System.out.println("Les fichiers existent déjà. Création de la page HTML locale pour afficher le contenu...");
+            createViewPage(fileNameHTML, fileNameCSS, fileNameImg, version);
+            gestionnaire.noterAcces(cacheKey(new URL(url)));
+            System.out.println("Page HTML locale créée avec succès.");
+            return new Reponse(200, "Page affichée avec succès: viewPage.html");
+        }
+        return new Reponse(404, "Les fichiers pour cette URL n'ont pas été téléchargés.");
+    }
+
+    private static void sendResponse(HttpExchange exchange, Reponse reponse) throws IOException {
+        byte[] octets = reponse.message.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(reponse.code, octets.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(octets);
+        os.close();
+    }
+
+    // Signale les requêtes en cours au gestionnaire de stockage, qui ne travaille en fond que lorsqu'il n'y en a aucune
+    static class SuiviRequetes extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            gestionnaire.debutRequete();
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                gestionnaire.finRequete();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Suivi des requêtes en cours";
+        }
+    }
+
     static class AddHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String query = exchange.getRequestURI().getQuery();
-            String url = getParameter(query, "url");
-            if (url != null) {
-                saveWebPage(url);
-                String response = "Page ajoutée: " + url;
-                exchange.sendResponseHeaders(200, response.getBytes("UTF-8").length);
-                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-                OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes("UTF-8"));
-                os.close();
-            } else {
-                String response = "URL manquante";
-                exchange.sendResponseHeaders(400, response.getBytes("UTF-8").length);
-                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-                OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes("UTF-8"));
-                os.close();
+            sendResponse(exchange, addPage(getParameter(query, "url")));
+        }
+    }
+
+    /**
+     * POST /add-batch : le corps contient une URL par ligne (les lignes vides
+     * et celles commençant par # sont ignorées). Les URLs déjà sauvegardées
+     * ou déjà en cours dans le lot sont écartées, les autres sont confiées à
+     * l'ordonnanceur, au plus EN_VOL_MAX à la fois : la lecture du corps
+     * attend qu'une place se libère. La réponse, envoyée par morceaux dès le
+     * début de la lecture, contient une ligne par URL (OK, DOUBLON ou
+     * ERREUR) au fur et à mesure, puis un bilan.
+     */
+    static class AddBatchHandler implements HttpHandler {
+        static final int EN_VOL_MAX = 256;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendResponse(exchange, new Reponse(405, "Utiliser POST avec une URL par ligne"));
+                return;
+            }
+
+            // Les workers ne bloquent jamais sur la socket : ils déposent leurs lignes dans la file
+            BlockingQueue<String> progression = new LinkedBlockingQueue<>();
+            AtomicInteger terminees = new AtomicInteger();
+            AtomicInteger erreurs = new AtomicInteger();
+            Semaphore places = new Semaphore(EN_VOL_MAX);
+            Set<String> enVol = ConcurrentHashMap.newKeySet();
+            int soumises = 0;
+            int doublons = 0;
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                 Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String url = line.trim();
+                    if (url.isEmpty() || url.startsWith("#")) {
+                        continue;
+                    }
+                    if (registre.contient(url) || !enVol.add(url)) {
+                        doublons++;
+                        writer.write("DOUBLON " + url + "\n");
+                        continue;
+                    }
+                    // Chaque place rendue s'accompagne d'une ligne de progression : l'attente se fait sur la file
+                    while (!places.tryAcquire()) {
+                        String ligne = progression.poll(200, TimeUnit.MILLISECONDS);
+                        if (ligne != null) {
+                            writer.write(ligne + "\n");
+                        }
+                    }
+                    soumises++;
+                    ordonnanceur.soumettre(url, WebPageSaver::saveWebPage, succes -> {
+                        if (!succes) {
+                            erreurs.incrementAndGet();
+                        }
+                        progression.add((succes ? "OK " : "ERREUR ") + url);
+                        terminees.incrementAndGet();
+                        enVol.remove(url);
+                        places.release();
+                    });
+                    if (ecrire(progression, writer)) {
+                        writer.flush();
+                    }
+                }
+
+                writer.flush();
+                while (terminees.get() < soumises || !progression.isEmpty()) {
+                    String ligne = progression.poll(200, TimeUnit.MILLISECONDS);
+                    if (ligne != null) {
+                        writer.write(ligne + "\n");
+                        ecrire(progression, writer);
+                        writer.flush();
+                    }
+                }
+                writer.write("Terminé: " + (soumises - erreurs.get()) + " ajoutées, " + doublons + " doublons, " + erreurs.get() + " erreurs\n");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+
+        // Écrit les lignes de progression déjà arrivées, sans attendre les autres
+        private static boolean ecrire(BlockingQueue<String> progression, Writer writer) throws IOException {
+            boolean ecrit = false;
+            String ligne;
+            while ((ligne = progression.poll()) != null) {
+                writer.write(ligne + "\n");
+                ecrit = true;
+            }
+            return ecrit;
+        }
     }
 
     static class RemoveHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String query = exchange.getRequestURI().getQuery();
-            String url = getParameter(query, "url");
-            if (url != null) {
-                removeWebPage(url);
-                String response = "Page supprimée: " + url;
-                exchange.sendResponseHeaders(200, response.getBytes("UTF-8").length);
-                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-                OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes("UTF-8"));
-                os.close();
-            } else {
-                String response = "URL manquante";
-                exchange.sendResponseHeaders(400, response.getBytes("UTF-8").length);
-                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-                OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes("UTF-8"));
-                os.close();
+            sendResponse(exchange, removePage(getParameter(query, "url")));
+        }
+    }
+
+    /**
+     * GET /list : les pages sauvegardées, dans l'ordre des URLs, envoyées par
+     * morceaux au fil du parcours du registre (rien n'est écrit sur le disque).
+     * Une ligne par page : URL, date de sa dernière sauvegarde et taille de
+     * son HTML non compressé, séparées par des tabulations. Les pages d'un
+     * hôte partagent l'historique de l'entrée : date et taille sont celles de
+     * la dernière version enregistrée depuis cette URL. S'il reste des pages,
+     * la dernière ligne est « # suivant <curseur> ».
+     *
+     * Paramètres, tous facultatifs :
+     *   limite               nombre maximal de pages, de 1 à 1000 (100 par défaut)
+     *   apres                curseur rendu par la page précédente
+     *   hote                 seulement les pages de cet hôte
+     *   depuis, avant        date de dernière sauvegarde de la page (AAAA-MM-JJ)
+     *   tailleMin, tailleMax taille du HTML non compressé, en octets
+     *   format               texte (par défaut) ou html
+     *
+     * L'ETag suit la version du registre : tant qu'aucune page n'est ajoutée,
+     * sauvegardée de nouveau ou retirée, If-None-Match reçoit 304.
+     */
+    static class ListHandler implements HttpHandler {
+        private static final int LIMITE_PAR_DEFAUT = 100;
+        private static final int LIMITE_MAX = 1000;
+        // Change à chaque démarrage : un ETag d'un autre démarrage ne correspond jamais
+        private static final long DEMARRAGE = System.currentTimeMillis();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> parametres = parametres(exchange.getRequestURI().getRawQuery());
+            String etag = "\"" + Long.toString(DEMARRAGE, 36) + "-" + registre.version() + "\"";
+            String dejaVu = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (dejaVu != null && (dejaVu.contains(etag) || dejaVu.trim().equals("*"))) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            int limite;
+            String curseur;
+            String hote;
+            long depuis;
+            long avant;
+            long tailleMin;
+            long tailleMax;
+            try {
+                limite = Integer.parseInt(parametres.getOrDefault("limite", "" + LIMITE_PAR_DEFAUT));
+                if (limite < 1) {
+                    throw new IllegalArgumentException("limite doit valoir au moins 1");
+                }
+                limite = Math.min(LIMITE_MAX, limite);
+                curseur = parametres.containsKey("apres")
+                        ? new String(Base64.getUrlDecoder().decode(parametres.get("apres")), StandardCharsets.UTF_8)
+                        : null;
+                hote = parametres.containsKey("hote") ? cacheKey(new URL("http://" + parametres.get("hote") + "/")) : null;
+                depuis = parametres.containsKey("depuis") ? jour(parametres.get("depuis")) : Long.MIN_VALUE;
+                avant = parametres.containsKey("avant") ? jour(parametres.get("avant")) : Long.MAX_VALUE;
+                tailleMin = Long.parseLong(parametres.getOrDefault("tailleMin", "0"));
+                tailleMax = Long.parseLong(parametres.getOrDefault("tailleMax", "" + Long.MAX_VALUE));
+            } catch (IllegalArgumentException | DateTimeParseException | MalformedURLException e) {
+                sendResponse(exchange, new Reponse(400, "Paramètre invalide: " + e.getMessage()));
+                return;
+            }
+            boolean html = "html".equals(parametres.get("format"));
+            boolean filtreVersion = depuis != Long.MIN_VALUE || avant != Long.MAX_VALUE || tailleMin > 0 || tailleMax != Long.MAX_VALUE;
+
+            exchange.getResponseHeaders().set("Content-Type", (html ? "text/html" : "text/plain") + "; charset=UTF-8");
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                if (html) {
+                    writer.write("<html><head><title>Liste des fichiers sauvegardés</title></head><body>");
+                    writer.write("<h1>Liste des fichiers sauvegardés</h1><ul>");
+                }
+                // Les pages d'une même entrée partagent l'index de ses versions : lu une seule fois par requête
+                Map<String, Map<String, Versions.Version>> dernieres = new HashMap<>();
+                int envoyees = 0;
+                String derniere = null;
+                boolean suite = false;
+                for (String url : registre.apres(curseur)) {
+                    String entree = cacheKey(url);
+                    if (hote != null && !hote.equals(entree)) {
+                        continue;
+                    }
+                    if (!dernieres.containsKey(entree)) {
+                        dernieres.put(entree, dernieresVersions(entree));
+                    }
+                    Map<String, Versions.Version> parUrl = dernieres.get(entree);
+                    Versions.Version version = parUrl.getOrDefault(url, parUrl.get(null));
+                    long date = version == null ? 0 : version.date;
+                    long taille = version == null ? -1 : version.taille;
+                    if (filtreVersion && (date < depuis || date >= avant || taille < tailleMin || taille > tailleMax)) {
+                        continue;
+                    }
+                    // Le lien vers la page suivante n'est donné que si elle contient au moins une page
+                    if (envoyees == limite) {
+                        suite = true;
+                        break;
+                    }
+                    derniere = url;
+                    String jour = date == 0 ? "-" : Instant.ofEpochMilli(date).toString();
+                    String octets = taille < 0 ? "-" : Long.toString(taille);
+                    if (html) {
+                        writer.write("<li><a href=\"/view?url=" + URLEncoder.encode(url, "UTF-8") + "\">" + url + "</a> "
+                                + jour + " " + octets + "</li>");
+                    } else {
+                        writer.write(url + "\t" + jour + "\t" + octets + "\n");
+                    }
+                    envoyees++;
+                    // Envoi au fil de l'eau : le client reçoit les premières pages sans attendre la fin du parcours
+                    if (envoyees % 64 == 0) {
+                        writer.flush();
+                    }
+                }
+                String suivant = suite ? Base64.getUrlEncoder().withoutPadding().encodeToString(derniere.getBytes(StandardCharsets.UTF_8)) : null;
+                if (html) {
+                    writer.write("</ul>");
+                    if (suivant != null) {
+                        writer.write("<a href=\"/list?format=html&limite=" + limite + "&apres=" + suivant + filtres(parametres) + "\">Page suivante</a>");
+                    }
+                    writer.write("</body></html>");
+                } else if (suivant != null) {
+                    writer.write("# suivant " + suivant + "\n");
+                }
             }
         }
 
-        private void removeWebPage(String url) {
-            // Suppression de la page
-            System.out.println("Suppression de la page " + url);
-            // Implémenter la suppression réelle du fichier et de l'entrée dans le fichier de sauvegarde
+        // AAAA-MM-JJ, en heure locale
+        private static long jour(String texte) {
+            return LocalDate.parse(texte).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+
+        // Les filtres de la requête, à reporter dans le lien vers la page suivante
+        private static String filtres(Map<String, String> parametres) {
+            StringBuilder filtres = new StringBuilder();
+            for (String nom : new String[]{"hote", "depuis", "avant", "tailleMin", "tailleMax"}) {
+                if (parametres.containsKey(nom)) {
+                    filtres.append('&').append(nom).append('=').append(URLEncoder.encode(parametres.get(nom), StandardCharsets.UTF_8));
+                }
+            }
+            return filtres.toString();
         }
     }
 
-    static class ListHandler implements HttpHandler {
+    /**
+     * GET /export : tout le cache au format WARC, envoyé par morceaux au fil
+     * de la lecture. L'export vers un fichier du serveur ne passe que par le
+     * canal de contrôle (CanalControle.EXPORT).
+     */
+    static class ExportHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            WebPageGenerator.generatePage("SavedURLs.html");
-            String response = "Liste générée. Ouvrez SavedURLs.html pour voir les pages sauvegardées.";
-            exchange.sendResponseHeaders(200, response.getBytes("UTF-8").length);
-            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-            OutputStream os = exchange.getResponseBody();
-            os.write(response.getBytes("UTF-8"));
-            os.close();
+            exchange.getResponseHeaders().set("Content-Type", "application/warc");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"webpagesaver.warc\"");
+            exchange.sendResponseHeaders(200, 0);
+            try (WritableByteChannel sortie = Channels.newChannel(new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024))) {
+                exportArchive(sortie);
+            } catch (IOException e) {
+                // Le code 200 est déjà parti : l'archive est coupée, le client le voit à sa fin incomplète
+                System.out.println("Export interrompu : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * POST /import : le corps est une archive WARC produite par /export.
+     * L'import depuis un fichier du serveur ne passe que par le canal de
+     * contrôle (CanalControle.IMPORT).
+     */
+    static class ImportHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendResponse(exchange, new Reponse(405, "Utiliser POST avec une archive WARC"));
+                return;
+            }
+            Reponse reponse;
+            try (ReadableByteChannel source = Channels.newChannel(exchange.getRequestBody())) {
+                reponse = importArchive(source);
+            } catch (IOException e) {
+                reponse = new Reponse(500, "Échec de l'import : " + e.getMessage());
+            }
+            sendResponse(exchange, reponse);
         }
     }
 
@@ -476,43 +1643,11 @@ public class WebPageSaver {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String query = exchange.getRequestURI().getQuery();
-            String url = getParameter(query, "url");
-            if (url != null) {
-                String fileNameHTML = getFileNameFromURLHTML(new URL(url));
-                String fileNameCSS = getFileNameFromURLCSS(new URL(url));
-                String fileNameImg = getFileNameFromURLImg(new URL(url));
-
-                // Vérifier si les fichiers HTML, CSS et images existent déjà
-                File htmlFile = new File(fileNameHTML);
-                File cssFile = new File(fileNameCSS);
-                File imgFile = new File(fileNameImg);
-
-                if (htmlFile.exists() && cssFile.exists() && imgFile.exists()) {
-                    System.out.println("Les fichiers existent déjà. Création de la page HTML locale pour afficher le contenu...");
-                    createViewPage(fileNameHTML, fileNameCSS, fileNameImg);
-                    System.out.println("Page HTML locale créée avec succès.");
-                    String response = "Page affichée avec succès: viewPage.html";
-                    exchange.sendResponseHeaders(200, response.getBytes("UTF-8").length);
-                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-                    OutputStream os = exchange.getResponseBody();
-                    os.write(response.getBytes("UTF-8"));
-                    os.close();
-                    openFileInBrowser("viewPage.html");
-                } else {
-                    String response = "Les fichiers pour cette URL n'ont pas été téléchargés.";
-                    exchange.sendResponseHeaders(404, response.getBytes("UTF-8").length);
-                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-                    OutputStream os = exchange.getResponseBody();
-                    os.write(response.getBytes("UTF-8"));
-                    os.close();
-                }
-            } else {
-                String response = "URL manquante";
-                exchange.sendResponseHeaders(400, response.getBytes("UTF-8").length);
-                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-                OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes("UTF-8"));
-                os.close();
+            String version = getParameter(query, "version");
+            Reponse reponse = viewPage(getParameter(query, "url"), version == null ? 0 : parseVersion(version));
+            sendResponse(exchange, reponse);
+            if (reponse.code == 200) {
+                openFileInBrowser("viewPage.html");
             }
         }
     }
@@ -528,12 +1663,8 @@ public class WebPageSaver {
         public void handle(HttpExchange exchange) throws IOException {
             server.stop(0);
             serverRunning = false; // Marquer le serveur comme arrêté
-            String response = "Serveur arrêté.";
-            exchange.sendResponseHeaders(200, response.getBytes("UTF-8").length);
-            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-            OutputStream os = exchange.getResponseBody();
-            os.write(response.getBytes("UTF-8"));
-            os.close();
+            stopServices();
+            sendResponse(exchange, new Reponse(200, "Serveur arrêté."));
         }
     }
 
@@ -546,11 +1677,16 @@ public class WebPageSaver {
             } else {
                 response = "X";
             }
-            exchange.sendResponseHeaders(200, response.getBytes("UTF-8").length);
-            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
-            OutputStream os = exchange.getResponseBody();
-            os.write(response.getBytes("UTF-8"));
-            os.close();
+            sendResponse(exchange, new Reponse(200, response));
+        }
+    }
+
+    // Numéro de version invalide : -1, refusé par viewPage
+    private static int parseVersion(String version) {
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
@@ -568,29 +1704,19 @@ public class WebPageSaver {
         return null;
     }
 
-    public static class WebPageGenerator {
-        public static void generatePage(String fileName) throws IOException {
-            File file = new File(cacheDirectory, fileName);
-            try (BufferedReader reader = new BufferedReader(new FileReader(FileToWrite));
-                 FileWriter fileWriter = new FileWriter(file)) {
-                // Page HTML avec le titre et le corps
-                fileWriter.write("<html>");
-                fileWriter.write("<head><title>Liste des fichiers sauvegardés</title></head>");
-                fileWriter.write("<body>");
-                fileWriter.write("<h1>Liste des fichiers sauvegardés</h1>");
-                fileWriter.write("<ul>");
-                String line;
-                // Lecture de chaque ligne du fichier SavedURLFile.txt et création d'un lien HTML pour chaque ligne
-                while ((line = reader.readLine()) != null) {
-                    fileWriter.write("<li><a href=\"http://127.0.0.1:2024/view?url=" + URLEncoder.encode(line, "UTF-8") + "\">" + line + "</a></li>");
-                }
-                fileWriter.write("</ul>");
-                fileWriter.write("</body>");
-                fileWriter.write("</html>");
-                System.out.println("Page mise à jour avec succès : " + file.getAbsolutePath());
-            } catch (IOException e) {
-                System.out.println("Erreur lors de la mise à jour de la page : " + e.getMessage());
+    // Paramètres d'une requête, décodés après découpage (une valeur peut contenir & ou =)
+    private static Map<String, String> parametres(String rawQuery) {
+        Map<String, String> parametres = new HashMap<>();
+        if (rawQuery == null) {
+            return parametres;
+        }
+        for (String param : rawQuery.split("&")) {
+            int egal = param.indexOf('=');
+            if (egal > 0) {
+                parametres.put(URLDecoder.decode(param.substring(0, egal), StandardCharsets.UTF_8),
+                        URLDecoder.decode(param.substring(egal + 1), StandardCharsets.UTF_8));
             }
         }
+        return parametres;
     }
 }
@@ -0,0 +1,144 @@
+package webpagesaver;
+
+import huffman.ArbreBinaire;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Vérifications de l'archive WARC : un cache dont les morceaux utilisent
+ * une table de codes partagée est exporté puis importé dans un cache vide
+ * (manifeste, morceaux et table copiés tels quels) ; la page s'y relit à
+ * l'identique, et une table ou un morceau altéré est reconnu. Une archive
+ * tronquée est refusée. Chaque test s'arrête avec le code de sortie 1 au
+ * premier échec.
+ */
+public class testArchiveWarc {
+
+    public static void main(String[] args) throws IOException {
+        File racine = testDepotMorceaux.repertoireTemporaire("warc");
+        try {
+            // Cache d'origine : les morceaux d'une page ne portent que la référence de la table de leur hôte
+            File source = new File(racine, "source");
+            TablesHote tables = new TablesHote(new File(source, "tables"), 4, 0.05);
+            DepotMorceaux depot = new DepotMorceaux(new File(source, "morceaux"), tables);
+            depot.charger();
+            byte[] page = testDepotMorceaux.texte(60_000, new Random(41));
+            TablesHote.Table table = tables.choisir("HTMLexemple.com", ArbreBinaire.frequences(page));
+            Versions.Compresseur partage = contenu -> {
+                ByteBuffer sortie = ByteBuffer.allocate(ArbreBinaire.majorant(contenu.remaining(), 4));
+                ArbreBinaire.encodeOctets(table.table, table.reference, contenu.duplicate(), sortie, 4);
+                sortie.flip();
+                return sortie;
+            };
+            ByteBuffer manifeste = depot.stocker(ByteBuffer.wrap(page), partage);
+            Files.write(new File(source, "HTMLexemple.com.txt").toPath(), testDepotMorceaux.octets(manifeste));
+            List<String> morceaux = DepotMorceaux.empreintes(manifeste);
+
+            // Export : métadonnées de la page, manifeste, morceaux, et chaque table référencée une seule fois
+            Path archive = new File(racine, "cache.warc").toPath();
+            Map<String, String> meta = new LinkedHashMap<>();
+            meta.put("entree", "exemple.com");
+            meta.put("etag", "\"v1\"");
+            try (FileChannel sortie = FileChannel.open(archive, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ArchiveWarc.Ecrivain ecrivain = new ArchiveWarc.Ecrivain(sortie);
+                ecrivain.info(Map.of("software", "webpagesaver"));
+                ecrivain.metadonnees("http://exemple.com/", meta);
+                ecrivain.fichier("HTMLexemple.com.txt", new File(source, "HTMLexemple.com.txt").toPath());
+                Set<String> tablesExportees = new HashSet<>();
+                for (String nom : new HashSet<>(morceaux)) {
+                    try (FileChannel canal = FileChannel.open(depot.fichierMorceau(nom).toPath(), StandardOpenOption.READ)) {
+                        ecrivain.fichier("morceaux/" + nom.substring(0, 2) + "/" + nom, canal);
+                        byte[] reference = DepotMorceaux.referenceTable(canal);
+                        testDepotMorceaux.verifier("morceau encodé avec la table partagée", reference != null);
+                        File fichierTable = tables.fichier(reference);
+                        if (tablesExportees.add(fichierTable.getName())) {
+                            ecrivain.fichier("tables/" + fichierTable.getName(), fichierTable.toPath());
+                        }
+                    }
+                }
+                testDepotMorceaux.verifier("une seule table pour tous les morceaux", tablesExportees.size() == 1);
+            }
+            depot.fermer();
+
+            // Import dans un cache vide
+            File cible = new File(racine, "cible");
+            Map<String, Map<String, String>> pages = new LinkedHashMap<>();
+            int fichiers = 0;
+            try (FileChannel entree = FileChannel.open(archive, StandardOpenOption.READ)) {
+                ArchiveWarc.Lecteur lecteur = new ArchiveWarc.Lecteur(entree);
+                ArchiveWarc.Enregistrement enregistrement;
+                while ((enregistrement = lecteur.suivant()) != null) {
+                    if (enregistrement.type.equals("metadata")) {
+                        pages.put(enregistrement.uri, lecteur.champs());
+                    } else if (enregistrement.type.equals("resource")) {
+                        Path fichier = new File(cible, enregistrement.uri.substring(ArchiveWarc.PREFIXE.length())).toPath();
+                        Files.createDirectories(fichier.getParent());
+                        lecteur.copier(fichier);
+                        fichiers++;
+                    } else {
+                        lecteur.sauter();
+                    }
+                }
+            }
+            testDepotMorceaux.verifier("métadonnées relues", meta.equals(pages.get("http://exemple.com/")));
+            testDepotMorceaux.verifier("tous les fichiers importés", fichiers == 1 + new HashSet<>(morceaux).size() + 1);
+
+            TablesHote tablesImportees = new TablesHote(new File(cible, "tables"), 4, 0.05);
+            DepotMorceaux depotImporte = new DepotMorceaux(new File(cible, "morceaux"), tablesImportees);
+            depotImporte.charger();
+            Path manifesteImporte = new File(cible, "HTMLexemple.com.txt").toPath();
+            testDepotMorceaux.verifier("aucun morceau manquant", depotImporte.reconstruire(List.of(manifesteImporte)) == 0);
+            testDepotMorceaux.verifier("table importée gardée", tablesImportees.fichier(table.reference).exists());
+            testDepotMorceaux.verifier("table importée vérifiée", tablesImportees.verifier(tablesImportees.fichier(table.reference).toPath()));
+            for (String nom : morceaux) {
+                testDepotMorceaux.verifier("morceau importé vérifié", depotImporte.verifier(nom));
+            }
+            ByteBuffer relu = depotImporte.assembler(ByteBuffer.wrap(Files.readAllBytes(manifesteImporte)));
+            testDepotMorceaux.verifier("page relue depuis l'import", Arrays.equals(page, testDepotMorceaux.octets(relu)));
+
+            // Un morceau ou une table altérés ne correspondent plus à leur nom
+            Path morceau = depotImporte.fichierMorceau(morceaux.get(0)).toPath();
+            byte[] code = Files.readAllBytes(morceau);
+            code[code.length / 2] ^= 0x55;
+            Files.write(morceau, code);
+            testDepotMorceaux.verifier("morceau altéré reconnu", !depotImporte.verifier(morceaux.get(0)));
+            Path fichierTable = tablesImportees.fichier(table.reference).toPath();
+            byte[] octetsTable = Files.readAllBytes(fichierTable);
+            octetsTable[octetsTable.length - 1] ^= 1;
+            Files.write(fichierTable, octetsTable);
+            testDepotMorceaux.verifier("table altérée reconnue", !tablesImportees.verifier(fichierTable));
+            depotImporte.fermer();
+
+            // Archive tronquée au milieu d'un bloc
+            byte[] complete = Files.readAllBytes(archive);
+            Path tronquee = new File(racine, "tronquee.warc").toPath();
+            Files.write(tronquee, Arrays.copyOf(complete, complete.length / 2));
+            boolean refusee = false;
+            try (FileChannel entree = FileChannel.open(tronquee, StandardOpenOption.READ)) {
+                ArchiveWarc.Lecteur lecteur = new ArchiveWarc.Lecteur(entree);
+                while (lecteur.suivant() != null) {
+                    lecteur.sauter();
+                }
+            } catch (IOException e) {
+                refusee = true;
+            }
+            testDepotMorceaux.verifier("archive tronquée refusée", refusee);
+        } finally {
+            testDepotMorceaux.supprimer(racine);
+        }
+        System.out.println("ArchiveWarc : OK");
+    }
+}
@@ -0,0 +1,173 @@
+package webpagesaver;
+
+import huffman.ArbreBinaire;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Vérifications du dépôt de morceaux : morceaux partagés entre deux
+ * fichiers, compteurs de références relus au chargement, libération, et
+ * recomptage par reconstruire après un import incomplet (morceau manquant,
+ * morceau en trop). Les outils servent aussi aux tests des autres classes
+ * du paquetage. Chaque test s'arrête avec le code de sortie 1 au premier échec.
+ */
+public class testDepotMorceaux {
+
+    /**
+     * Codeur des morceaux : Huffman à 4 flux, avec sa propre table.
+     */
+    static final Versions.Compresseur HUFFMAN = contenu -> {
+        byte[] octets = new byte[contenu.remaining()];
+        contenu.duplicate().get(octets);
+        return ByteBuffer.wrap(new ArbreBinaire(ArbreBinaire.frequences(octets)).encodeOctets(octets, 4));
+    };
+
+    public static void main(String[] args) throws IOException {
+        File racine = repertoireTemporaire("depot");
+        try {
+            File repertoire = new File(racine, "morceaux");
+            DepotMorceaux depot = new DepotMorceaux(repertoire, new TablesHote(new File(racine, "tables"), 4, 0.05));
+            depot.charger();
+
+            // Deux pages au même long début : les morceaux de ce début sont partagés
+            Random aleatoire = new Random(33);
+            byte[] commun = texte(40_000, aleatoire);
+            byte[] page1 = concatener(commun, texte(20_000, aleatoire));
+            byte[] page2 = concatener(commun, texte(20_000, aleatoire));
+            ByteBuffer manifeste1 = depot.stocker(ByteBuffer.wrap(page1), HUFFMAN);
+            ByteBuffer manifeste2 = depot.stocker(ByteBuffer.wrap(page2), HUFFMAN);
+            Set<String> morceaux1 = new HashSet<>(DepotMorceaux.empreintes(manifeste1));
+            Set<String> morceaux2 = new HashSet<>(DepotMorceaux.empreintes(manifeste2));
+            Set<String> partages = new HashSet<>(morceaux1);
+            partages.retainAll(morceaux2);
+            verifier("morceaux partagés", !partages.isEmpty() && partages.size() < morceaux1.size());
+            Set<String> tous = new HashSet<>(morceaux1);
+            tous.addAll(morceaux2);
+            verifier("un seul exemplaire de chaque morceau", depot.taille() == tous.size() && fichiers(repertoire) == tous.size());
+            verifier("page 1 relue", Arrays.equals(page1, octets(depot.assembler(manifeste1))));
+            verifier("page 2 relue", Arrays.equals(page2, octets(depot.assembler(manifeste2))));
+
+            // Compteurs relus depuis le journal : libérer la page 1 garde les morceaux partagés
+            depot.fermer();
+            depot = new DepotMorceaux(repertoire, new TablesHote(new File(racine, "tables"), 4, 0.05));
+            depot.charger();
+            verifier("compteurs relus", depot.taille() == tous.size());
+            long liberes = depot.liberer(manifeste1);
+            verifier("octets libérés", liberes > 0);
+            verifier("morceaux propres à la page 1 supprimés", depot.taille() == morceaux2.size() && fichiers(repertoire) == morceaux2.size());
+            for (String nom : morceaux2) {
+                verifier("morceau de la page 2 gardé", depot.fichierMorceau(nom).exists());
+            }
+            verifier("page 2 relue après libération de la page 1", Arrays.equals(page2, octets(depot.assembler(manifeste2))));
+            depot.liberer(manifeste2);
+            verifier("dépôt vide", depot.taille() == 0 && fichiers(repertoire) == 0);
+            verifier("morceau inconnu ignoré", depot.liberer(manifeste2) == 0);
+
+            // Import incomplet : un morceau de la page 2 n'est pas arrivé, un morceau qu'aucun manifeste n'utilise est arrivé
+            manifeste1 = depot.stocker(ByteBuffer.wrap(page1), HUFFMAN);
+            manifeste2 = depot.stocker(ByteBuffer.wrap(page2), HUFFMAN);
+            String manquant = null;
+            for (String nom : morceaux2) {
+                if (!partages.contains(nom)) {
+                    manquant = nom;
+                }
+            }
+            Files.delete(depot.fichierMorceau(manquant).toPath());
+            String enTrop = "ab" + "0".repeat(62);
+            File fichierEnTrop = depot.fichierMorceau(enTrop);
+            fichierEnTrop.getParentFile().mkdirs();
+            Files.write(fichierEnTrop.toPath(), new byte[]{1, 2, 3});
+            List<Path> manifestes = new ArrayList<>();
+            manifestes.add(ecrire(new File(racine, "HTML1.txt"), manifeste1));
+            manifestes.add(ecrire(new File(racine, "HTML2.txt"), manifeste2));
+            manifestes.add(Files.write(new File(racine, "HTML3.txt").toPath(), "ancien format".getBytes(StandardCharsets.UTF_8)));
+            depot.fermer();
+            depot = new DepotMorceaux(repertoire, new TablesHote(new File(racine, "tables"), 4, 0.05));
+            depot.charger();
+            verifier("un morceau manquant", depot.reconstruire(manifestes) == 1);
+            verifier("morceau en trop supprimé", !fichierEnTrop.exists());
+            verifier("morceaux recomptés", depot.taille() == tous.size());
+
+            // Les compteurs recomptés suivent les manifestes : la page 1 libérée, les morceaux partagés restent
+            depot.liberer(manifeste1);
+            for (String nom : partages) {
+                verifier("morceau partagé gardé après reconstruire", depot.fichierMorceau(nom).exists());
+            }
+            verifier("morceaux de la page 2 comptés après reconstruire", depot.taille() == morceaux2.size());
+            depot.fermer();
+        } finally {
+            supprimer(racine);
+        }
+        System.out.println("DepotMorceaux : OK");
+    }
+
+    /**
+     * @return Un texte HTML répétitif, découpé en morceaux comme une vraie page
+     */
+    static byte[] texte(int taille, Random aleatoire) {
+        String[] mots = {"<div class=\"article\">", "</div>\n", "<p>", "</p>", "le ", "de ", "la ", "page ", "é", "\t"};
+        ByteBuffer texte = ByteBuffer.allocate(taille);
+        while (texte.hasRemaining()) {
+            byte[] mot = (mots[aleatoire.nextInt(mots.length)] + aleatoire.nextInt(100)).getBytes(StandardCharsets.UTF_8);
+            texte.put(mot, 0, Math.min(mot.length, texte.remaining()));
+        }
+        return texte.array();
+    }
+
+    static byte[] octets(ByteBuffer contenu) {
+        byte[] octets = new byte[contenu.remaining()];
+        contenu.duplicate().get(octets);
+        return octets;
+    }
+
+    private static byte[] concatener(byte[] debut, byte[] fin) {
+        byte[] tout = Arrays.copyOf(debut, debut.length + fin.length);
+        System.arraycopy(fin, 0, tout, debut.length, fin.length);
+        return tout;
+    }
+
+    private static Path ecrire(File fichier, ByteBuffer contenu) throws IOException {
+        return Files.write(fichier.toPath(), octets(contenu));
+    }
+
+    // Nombre de fichiers de morceaux (le journal des références n'est pas compté)
+    private static long fichiers(File repertoire) throws IOException {
+        try (Stream<Path> chemins = Files.walk(repertoire.toPath(), 2)) {
+            return chemins.filter(chemin -> chemin.getFileName().toString().length() == 64).count();
+        }
+    }
+
+    static File repertoireTemporaire(String nom) throws IOException {
+        return Files.createTempDirectory("webpagesaver-" + nom).toFile();
+    }
+
+    static void supprimer(File racine) throws IOException {
+        try (Stream<Path> chemins = Files.walk(racine.toPath())) {
+            chemins.sorted(Comparator.reverseOrder()).forEach(chemin -> chemin.toFile().delete());
+        }
+    }
+
+    static void verifier(String cas, boolean vrai) {
+        if (!vrai) {
+            echec(cas);
+        }
+    }
+
+    static void echec(String message) {
+        System.err.println("ÉCHEC " + message);
+        System.exit(1);
+    }
+}
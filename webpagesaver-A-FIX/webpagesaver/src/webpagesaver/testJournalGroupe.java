@@ -0,0 +1,75 @@
+package webpagesaver;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vérifications du journal à validation groupée : les ajouts d'une fenêtre
+ * sont écrits ensemble, un lot plein part sans attendre la fin de la
+ * fenêtre, l'ordre des lignes et des réécritures est gardé, et une
+ * dernière ligne interrompue est ignorée puis retirée du fichier.
+ * Chaque test s'arrête avec le code de sortie 1 au premier échec.
+ */
+public class testJournalGroupe {
+    private static final int LIGNES = 100;
+
+    public static void main(String[] args) throws Exception {
+        File racine = testDepotMorceaux.repertoireTemporaire("journal");
+        try {
+            // Fenêtre de 2 s : les lignes attendent les suivantes, puis sont toutes écrites ensemble
+            File fichier = new File(racine, "groupe.txt");
+            JournalGroupe journal = new JournalGroupe(fichier, 2_000_000, 1000, true);
+            List<CompletableFuture<Void>> ajouts = new ArrayList<>();
+            for (int i = 0; i < LIGNES; i++) {
+                ajouts.add(journal.ajouter("ligne " + i));
+            }
+            Thread.sleep(300);
+            testDepotMorceaux.verifier("aucune ligne écrite avant la fin de la fenêtre", ajouts.stream().noneMatch(CompletableFuture::isDone));
+            CompletableFuture.allOf(ajouts.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            List<String> lues = journal.lire();
+            testDepotMorceaux.verifier("toutes les lignes, dans l'ordre", lues.size() == LIGNES && lues.get(LIGNES - 1).equals("ligne " + (LIGNES - 1)));
+            journal.fermer();
+
+            // Lots de 10 : chaque lot plein est écrit sans attendre la fin de la fenêtre
+            File fichierLots = new File(racine, "lots.txt");
+            JournalGroupe lots = new JournalGroupe(fichierLots, 2_000_000, 10, true);
+            ajouts.clear();
+            for (int i = 0; i < LIGNES; i++) {
+                ajouts.add(lots.ajouter("ligne " + i));
+            }
+            CompletableFuture.allOf(ajouts.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.SECONDS);
+            testDepotMorceaux.verifier("lots pleins écrits", lots.lire().size() == LIGNES);
+
+            // Une réécriture reste ordonnée avec les ajouts qui l'entourent
+            lots.ajouter("avant");
+            lots.reecrire("compacté é\n");
+            JournalGroupe.attendre(lots.ajouter("après"));
+            testDepotMorceaux.verifier("réécriture ordonnée, en UTF-8", lots.lire().equals(List.of("compacté é", "après")));
+
+            // Arrêté puis relancé par un nouvel ajout
+            lots.fermer();
+            JournalGroupe.attendre(lots.ajouter("relancé"));
+            lots.fermer();
+            testDepotMorceaux.verifier("écrivain relancé après fermer", lots.lire().equals(List.of("compacté é", "après", "relancé")));
+
+            // Arrêt brutal au milieu d'une ligne : elle est ignorée, et l'ajout suivant ne s'y colle pas
+            File fichierCoupe = new File(racine, "coupe.txt");
+            Files.write(fichierCoupe.toPath(), "un\ndeux\ntro".getBytes(StandardCharsets.UTF_8));
+            JournalGroupe coupe = new JournalGroupe(fichierCoupe, 0, 1000, true);
+            testDepotMorceaux.verifier("ligne interrompue ignorée", coupe.lire().equals(List.of("un", "deux")));
+            testDepotMorceaux.verifier("ligne interrompue retirée du fichier",
+                    new String(Files.readAllBytes(fichierCoupe.toPath()), StandardCharsets.UTF_8).equals("un\ndeux\n"));
+            JournalGroupe.attendre(coupe.ajouter("trois"));
+            coupe.fermer();
+            testDepotMorceaux.verifier("ajout après une ligne interrompue", coupe.lire().equals(List.of("un", "deux", "trois")));
+        } finally {
+            testDepotMorceaux.supprimer(racine);
+        }
+        System.out.println("JournalGroupe : OK");
+    }
+}
@@ -0,0 +1,101 @@
+package webpagesaver;
+
+import huffman.ArbreBinaire;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Vérifications des tables de codes par hôte : réutilisation tant que
+ * l'histogramme reste sous le seuil d'écart, nouvelle table au-delà ou
+ * pour un octet sans code, oubli du moins récemment utilisé des hôtes, et
+ * nettoyer, qui ne supprime que les tables anciennes qu'aucun morceau ni
+ * aucun hôte en mémoire n'utilise. Chaque test s'arrête avec le code de
+ * sortie 1 au premier échec.
+ */
+public class testTablesHote {
+
+    public static void main(String[] args) throws IOException {
+        File racine = testDepotMorceaux.repertoireTemporaire("tables");
+        try {
+            File repertoire = new File(racine, "tables");
+            Random aleatoire = new Random(42);
+
+            // Même site, autre page : la table de l'hôte est réutilisée
+            TablesHote tables = new TablesHote(repertoire, 2, 0.05);
+            byte[] page1 = testDepotMorceaux.texte(50_000, aleatoire);
+            byte[] page2 = testDepotMorceaux.texte(50_000, aleatoire);
+            TablesHote.Table table1 = tables.choisir("HTMLa", ArbreBinaire.frequences(page1));
+            testDepotMorceaux.verifier("table écrite sous sa référence", tables.fichier(table1.reference).exists()
+                    && tables.verifier(tables.fichier(table1.reference).toPath()));
+            testDepotMorceaux.verifier("table réutilisée sous le seuil", tables.choisir("HTMLa", ArbreBinaire.frequences(page2)) == table1);
+
+            // Un octet sans code dans la table gardée : nouvelle table
+            byte[] autre = Arrays.copyOf(page2, page2.length + 1);
+            autre[page2.length] = 0x01;
+            TablesHote.Table table2 = tables.choisir("HTMLa", ArbreBinaire.frequences(autre));
+            testDepotMorceaux.verifier("nouvelle table pour un octet sans code", table2 != table1
+                    && !Arrays.equals(table2.reference, table1.reference));
+
+            // Tous les octets ont un code, mais la distribution a trop dérivé : nouvelle table
+            byte[] couvrante = Arrays.copyOf(page1, page1.length + 256);
+            for (int octet = 0; octet < 256; octet++) {
+                couvrante[page1.length + octet] = (byte) octet;
+            }
+            TablesHote.Table table3 = tables.choisir("IMGa", ArbreBinaire.frequences(couvrante));
+            byte[] hasard = new byte[50_000];
+            aleatoire.nextBytes(hasard);
+            TablesHote.Table table3b = tables.choisir("IMGa", ArbreBinaire.frequences(hasard));
+            testDepotMorceaux.verifier("nouvelle table au-delà du seuil", table3b != table3);
+
+            // Capacité de 2 hôtes : HTMLa, utilisé plus récemment que IMGa, reste quand CSSb arrive ; IMGa est oublié
+            testDepotMorceaux.verifier("table de HTMLa gardée", tables.choisir("HTMLa", ArbreBinaire.frequences(autre)) == table2);
+            TablesHote.Table table4 = tables.choisir("CSSb", ArbreBinaire.frequences(testDepotMorceaux.texte(20_000, aleatoire)));
+            testDepotMorceaux.verifier("hôte récent gardé", tables.choisir("HTMLa", ArbreBinaire.frequences(autre)) == table2);
+            TablesHote.Table table3c = tables.choisir("IMGa", ArbreBinaire.frequences(hasard));
+            testDepotMorceaux.verifier("hôte le moins récemment utilisé oublié", table3c != table3b
+                    && Arrays.equals(table3c.reference, table3b.reference));
+
+            // Dépôt dont les morceaux n'utilisent que table1, qu'aucun hôte en mémoire ne garde plus (HTMLa a table2)
+            DepotMorceaux depot = new DepotMorceaux(new File(racine, "morceaux"), tables);
+            depot.charger();
+            ByteBuffer manifeste = depot.stocker(ByteBuffer.wrap(page1), contenu -> {
+                ByteBuffer sortie = ByteBuffer.allocate(ArbreBinaire.majorant(contenu.remaining(), 4));
+                ArbreBinaire.encodeOctets(table1.table, table1.reference, contenu.duplicate(), sortie, 4);
+                sortie.flip();
+                return sortie;
+            });
+            File recente = new File(repertoire, "0123456789abcdef0123456789abcdef");
+            Files.write(recente.toPath(), new byte[]{1, 2, 3});
+            long vieux = System.currentTimeMillis() - 3_600_000;
+            for (File fichier : repertoire.listFiles()) {
+                if (!fichier.equals(recente)) {
+                    fichier.setLastModified(vieux);
+                }
+            }
+
+            // Gardées : table1 (morceaux), table2 et table3c (hôtes en mémoire), le fichier récent ; table3 et table4 supprimées
+            long attendus = tables.fichier(table3.reference).length() + tables.fichier(table4.reference).length();
+            long liberes = depot.collecterTables();
+            testDepotMorceaux.verifier("tables inutilisées supprimées (" + liberes + " octets, " + attendus + " attendus)", liberes == attendus);
+            testDepotMorceaux.verifier("tables oubliées supprimées", !tables.fichier(table3.reference).exists() && !tables.fichier(table4.reference).exists());
+            testDepotMorceaux.verifier("table des morceaux gardée", tables.fichier(table1.reference).exists());
+            testDepotMorceaux.verifier("tables des hôtes en mémoire gardées", tables.fichier(table2.reference).exists()
+                    && tables.fichier(table3c.reference).exists());
+            testDepotMorceaux.verifier("table récente gardée", recente.exists());
+
+            TablesHote relues = new TablesHote(repertoire, 2, 0.05);
+            DepotMorceaux depotRelu = new DepotMorceaux(new File(racine, "morceaux"), relues);
+            testDepotMorceaux.verifier("page décodée avec la table relue", Arrays.equals(page1, testDepotMorceaux.octets(depotRelu.assembler(manifeste))));
+            depot.fermer();
+            depotRelu.fermer();
+        } finally {
+            testDepotMorceaux.supprimer(racine);
+        }
+        System.out.println("TablesHote : OK");
+    }
+}
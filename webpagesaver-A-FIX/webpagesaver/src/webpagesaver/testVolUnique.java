@@ -0,0 +1,108 @@
+package webpagesaver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Vérifications des sauvegardes simultanées : N demandes de la même URL ne
+ * font qu'un téléchargement et reçoivent toutes son résultat (ou son
+ * erreur), une demande suivante en refait un ; les verrous d'entrée d'une
+ * même clé sont partagés et toutPrendre exclut toute écriture.
+ * Chaque test s'arrête avec le code de sortie 1 au premier échec.
+ */
+public class testVolUnique {
+    private static final int DEMANDES = 16;
+
+    public static void main(String[] args) throws Exception {
+        VolUnique<Boolean> sauvegardes = new VolUnique<>();
+        ExecutorService threads = Executors.newFixedThreadPool(DEMANDES);
+        try {
+            // Le téléchargement dure jusqu'à ce que toutes les demandes soient arrivées
+            AtomicInteger telechargements = new AtomicInteger();
+            CountDownLatch arrivees = new CountDownLatch(DEMANDES);
+            List<Future<Boolean>> resultats = new ArrayList<>();
+            for (int i = 0; i < DEMANDES; i++) {
+                resultats.add(threads.submit(() -> {
+                    arrivees.countDown();
+                    return sauvegardes.executer("http://exemple.com/", () -> {
+                        telechargements.incrementAndGet();
+                        attendre(arrivees);
+                        return true;
+                    });
+                }));
+            }
+            for (Future<Boolean> resultat : resultats) {
+                testDepotMorceaux.verifier("résultat partagé", resultat.get(10, TimeUnit.SECONDS));
+            }
+            testDepotMorceaux.verifier("un seul téléchargement pour " + DEMANDES + " demandes (" + telechargements.get() + ")", telechargements.get() == 1);
+
+            // Une fois la sauvegarde terminée, une nouvelle demande télécharge de nouveau
+            sauvegardes.executer("http://exemple.com/", () -> telechargements.incrementAndGet() > 0);
+            testDepotMorceaux.verifier("nouveau téléchargement après la fin du premier", telechargements.get() == 2);
+
+            // Une erreur est rendue à toutes les demandes en attente
+            CountDownLatch arriveesErreur = new CountDownLatch(DEMANDES);
+            AtomicInteger tentatives = new AtomicInteger();
+            List<Future<String>> erreurs = new ArrayList<>();
+            for (int i = 0; i < DEMANDES; i++) {
+                erreurs.add(threads.submit(() -> {
+                    arriveesErreur.countDown();
+                    try {
+                        sauvegardes.executer("http://exemple.com/erreur", () -> {
+                            tentatives.incrementAndGet();
+                            attendre(arriveesErreur);
+                            throw new IOException("hôte injoignable");
+                        });
+                        return null;
+                    } catch (IOException e) {
+                        return e.getMessage();
+                    }
+                }));
+            }
+            for (Future<String> erreur : erreurs) {
+                testDepotMorceaux.verifier("erreur partagée", "hôte injoignable".equals(erreur.get(10, TimeUnit.SECONDS)));
+            }
+            testDepotMorceaux.verifier("une seule tentative en erreur", tentatives.get() == 1);
+        } finally {
+            threads.shutdownNow();
+        }
+
+        // Verrous d'entrée : même clé, même verrou ; toutPrendre attend les écritures en cours et les exclut
+        VerrousRayes verrous = new VerrousRayes(8);
+        testDepotMorceaux.verifier("même verrou pour une même clé", verrous.verrou("exemple.com") == verrous.verrou("exemple.com"));
+        Lock ecriture = verrous.verrou("exemple.com").writeLock();
+        ecriture.lock();
+        CountDownLatch tousPris = new CountDownLatch(1);
+        Thread importation = new Thread(() -> {
+            List<Lock> pris = verrous.toutPrendre();
+            tousPris.countDown();
+            VerrousRayes.toutRendre(pris);
+        });
+        importation.start();
+        testDepotMorceaux.verifier("toutPrendre attend l'écriture en cours", !tousPris.await(200, TimeUnit.MILLISECONDS));
+        ecriture.unlock();
+        testDepotMorceaux.verifier("toutPrendre après l'écriture", tousPris.await(10, TimeUnit.SECONDS));
+        importation.join();
+        testDepotMorceaux.verifier("verrous rendus", verrous.verrou("autre.org").writeLock().tryLock());
+        System.out.println("VolUnique : OK");
+    }
+
+    // Attend l'arrivée de toutes les demandes, puis laisse aux dernières le temps de rejoindre la sauvegarde en cours
+    private static void attendre(CountDownLatch arrivees) throws IOException {
+        try {
+            arrivees.await();
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}